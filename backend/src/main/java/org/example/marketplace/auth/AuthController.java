@@ -4,25 +4,23 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.example.marketplace.auth.dto.*;
 import org.example.marketplace.emailverification.EmailVerificationService;
-import org.example.marketplace.user.UserEntity;
-import org.example.marketplace.user.UserRepository;
+import org.example.marketplace.user.UserCache;
 import org.springframework.http.*;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.security.core.userdetails.User;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.web.server.ResponseStatusException;
 
 @RestController
 @RequestMapping("/api/auth")
 public class AuthController {
 
     private final AuthService service;
-    private final UserRepository repo;
+    private final UserCache profiles;
     private final EmailVerificationService emailVerificationService;
 
-    public AuthController(AuthService service, UserRepository repo, EmailVerificationService emailVerificationService) {
+    public AuthController(AuthService service, UserCache profiles, EmailVerificationService emailVerificationService) {
         this.service = service;
-        this.repo = repo;
+        this.profiles = profiles;
         this.emailVerificationService = emailVerificationService;
     }
 
@@ -36,26 +34,35 @@ public class AuthController {
     @PostMapping("/login")
     public LoginResponse login(@RequestBody @Valid LoginRequest req, HttpServletRequest http) {
         String ua = http.getHeader("User-Agent");
-        String xff = http.getHeader("X-Forwarded-For");
-        String ip = (xff != null && !xff.isBlank())
-                ? xff.split(",")[0].trim()
-                : http.getRemoteAddr();
-        return service.login(req, ua, ip);
+        return service.login(req, ua, clientIp(http));
+    }
+
+    @PostMapping("/refresh")
+    public LoginResponse refresh(@RequestBody RefreshRequest req, HttpServletRequest http) {
+        return service.refresh(req, http.getHeader("User-Agent"), clientIp(http));
+    }
+
+    @PostMapping("/logout")
+    public ResponseEntity<Void> logout(@RequestBody RefreshRequest req) {
+        service.logout(req);
+        return ResponseEntity.noContent().build();
     }
 
     @GetMapping("/me")
-    public MeResponse me(@AuthenticationPrincipal UserDetails principal) {
-        var u = repo.findByEmailIgnoreCase(principal.getUsername()).orElseThrow();
-        return new MeResponse(u.getId(), u.getEmail(), u.getDisplayName(), u.getRole().name());
+    public MeResponse me(@AuthenticationPrincipal JwtPrincipal principal) {
+        // fresh name/role from the write-invalidated cache, not the token's claims
+        var u = profiles.get(principal.uid())
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
+        return new MeResponse(u.id(), u.email(), u.displayName(), u.role().name());
     }
 
     @PatchMapping("/change-password")
     public ResponseEntity<Void> changePassword(
-            @AuthenticationPrincipal UserDetails principal,
+            @AuthenticationPrincipal JwtPrincipal principal,
             @RequestBody @Valid ChangePasswordRequest req
     ) {
         service.changePassword(
-                principal.getUsername(),
+                principal.uid(),
                 req.oldPassword(),
                 req.newPassword()
         );
@@ -70,4 +77,10 @@ public class AuthController {
         return ResponseEntity.ok("Email verified successfully!");
     }
 
+    private static String clientIp(HttpServletRequest http) {
+        String xff = http.getHeader("X-Forwarded-For");
+        return (xff != null && !xff.isBlank())
+                ? xff.split(",")[0].trim()
+                : http.getRemoteAddr();
+    }
 }
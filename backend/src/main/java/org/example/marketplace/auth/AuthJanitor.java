@@ -0,0 +1,169 @@
+package org.example.marketplace.auth;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Deletes auth rows nobody can use any more.
+ *
+ * Purpose:
+ * - auth_sessions, email_verification_tokens and password_reset_tokens only
+ * grew: verification deletes just the token it consumes and nothing deleted
+ * expired sessions or rotated-away refresh tokens.
+ *
+ * How it works:
+ * - Each purge walks one timestamp column (expires_at / revoked_at, all
+ * indexed) in keyset batches: DELETE ... RETURNING of the next batch-size
+ * rows below the cutoff, FOR UPDATE SKIP LOCKED so it never waits on a row a
+ * request is using, then a pause. Short statements in autocommit, so locks
+ * are held for one batch only.
+ * - Revoked sessions are kept for revoked-retention-hours so refresh-token
+ * reuse is still detected (and TokenRevocations still sees the family) for a while.
+ * - The whole run holds a session advisory lock; on other nodes the run is
+ * skipped, so several instances can have the schedule enabled.
+ * - Metrics: auth.janitor.rows.purged{table=...}.
+ */
+@Component
+@ConditionalOnProperty(name = "app.auth.janitor.enabled", havingValue = "true", matchIfMissing = true)
+public class AuthJanitor {
+
+    private static final long LOCK_KEY = 0x617574685f6a616eL; // "auth_jan"
+
+    // ctid identifies the row whatever the table's key looks like
+    private static final String PURGE_SQL = """
+            WITH victims AS (
+                SELECT ctid, %2$s AS k FROM %1$s
+                WHERE %2$s >= ? AND %2$s < ?
+                ORDER BY %2$s
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            )
+            DELETE FROM %1$s t
+            USING victims v
+            WHERE t.ctid = v.ctid
+            RETURNING v.k
+            """;
+
+    /** One table/column walk; rows with {@code column} older than now - keepFor are deleted. */
+    private record Purge(String table, String column, Duration keepFor, String sql, Counter purged) {
+    }
+
+    private final JdbcTemplate jdbc;
+    private final int batchSize;
+    private final long pauseMs;
+    private final int maxBatchesPerRun;
+    private final List<Purge> purges;
+
+    public AuthJanitor(
+            JdbcTemplate jdbc,
+            MeterRegistry meters,
+            @Value("${app.auth.janitor.batch-size:500}") int batchSize,
+            @Value("${app.auth.janitor.pause-ms:200}") long pauseMs,
+            @Value("${app.auth.janitor.max-batches-per-run:200}") int maxBatchesPerRun,
+            @Value("${app.auth.janitor.revoked-retention-hours:168}") long revokedRetentionHours) {
+        this.jdbc = jdbc;
+        this.batchSize = Math.max(1, batchSize);
+        this.pauseMs = Math.max(0, pauseMs);
+        this.maxBatchesPerRun = Math.max(1, maxBatchesPerRun);
+        this.purges = List.of(
+                purge(meters, "auth_sessions", "expires_at", Duration.ZERO),
+                purge(meters, "auth_sessions", "revoked_at", Duration.ofHours(Math.max(2, revokedRetentionHours))),
+                purge(meters, "email_verification_tokens", "expires_at", Duration.ZERO),
+                purge(meters, "password_reset_tokens", "expires_at", Duration.ZERO));
+    }
+
+    private static Purge purge(MeterRegistry meters, String table, String column, Duration keepFor) {
+        // identifiers are constants above, never user input
+        return new Purge(table, column, keepFor, PURGE_SQL.formatted(table, column),
+                Counter.builder("auth.janitor.rows.purged").tag("table", table).register(meters));
+    }
+
+    @Scheduled(initialDelayString = "${app.auth.janitor.initial-delay-ms:120000}",
+            fixedDelayString = "${app.auth.janitor.interval-ms:3600000}")
+    public void run() {
+        try {
+            jdbc.execute((ConnectionCallback<Void>) c -> {
+                if (!tryLock(c))
+                    return null; // another node is on it
+                try {
+                    for (Purge p : purges)
+                        purge(c, p);
+                } finally {
+                    unlock(c);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // next run retries; never let the scheduler thread die
+            System.out.println("Auth janitor run failed: " + e.getMessage());
+        }
+    }
+
+    private void purge(Connection c, Purge p) throws SQLException {
+        Timestamp cutoff = Timestamp.from(Instant.now().minus(p.keepFor()));
+        Timestamp cursor = new Timestamp(0L); // before any row
+
+        try (PreparedStatement ps = c.prepareStatement(p.sql())) {
+            for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+                ps.setTimestamp(1, cursor);
+                ps.setTimestamp(2, cutoff);
+                ps.setInt(3, batchSize);
+                int deleted = 0;
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        deleted++;
+                        Timestamp k = rs.getTimestamp(1);
+                        if (k.after(cursor))
+                            cursor = k;
+                    }
+                }
+                p.purged().increment(deleted);
+
+                if (deleted < batchSize)
+                    return;
+                pause();
+            }
+        }
+    }
+
+    private static boolean tryLock(Connection c) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT pg_try_advisory_lock(?)")) {
+            ps.setLong(1, LOCK_KEY);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    private static void unlock(Connection c) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT pg_advisory_unlock(?)")) {
+            ps.setLong(1, LOCK_KEY);
+            ps.execute();
+        }
+    }
+
+    private void pause() {
+        if (pauseMs == 0)
+            return;
+        try {
+            Thread.sleep(pauseMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -4,48 +4,53 @@ import org.example.marketplace.emailverification.EmailVerificationService;
 import org.example.marketplace.emailverification.EmailSender;
 import org.example.marketplace.auth.dto.*;
 import org.example.marketplace.user.*;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
-import org.springframework.security.authentication.AuthenticationManager;
-import org.springframework.security.authentication.BadCredentialsException;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
 import java.security.SecureRandom;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.Base64;
 import java.util.Map;
+import java.util.UUID;
 
 @Service
 public class AuthService {
     private final UserRepository repo;
-    private final PasswordEncoder encoder;
-    private final AuthenticationManager authManager;
+    private final PasswordHasher hasher;
     private final JwtService jwt;
     private final AuthSessionRepository sessions;
     private final EmailVerificationService emailVerificationService;
     private final EmailSender emailSender;
+    private final TransactionTemplate tx;
+    private final long reuseGraceSeconds;
+
+    private static final Duration REFRESH_TTL = Duration.ofDays(30);
 
     public AuthService(
             UserRepository repo,
-            PasswordEncoder encoder,
-            AuthenticationManager authManager,
+            PasswordHasher hasher,
             JwtService jwt,
             AuthSessionRepository sessions,
             EmailVerificationService emailVerificationService,
-            EmailSender emailSender) {
+            EmailSender emailSender,
+            PlatformTransactionManager txManager,
+            @Value("${app.auth.refresh.reuse-grace-seconds:10}") long reuseGraceSeconds) {
         this.repo = repo;
-        this.encoder = encoder;
-        this.authManager = authManager;
+        this.hasher = hasher;
         this.jwt = jwt;
         this.sessions = sessions;
         this.emailVerificationService = emailVerificationService;
         this.emailSender = emailSender;
+        this.tx = new TransactionTemplate(txManager);
+        this.reuseGraceSeconds = reuseGraceSeconds;
     }
 
     private static String generateOpaqueToken() {
@@ -58,43 +63,39 @@ public class AuthService {
         if (repo.existsByEmailIgnoreCase(r.email())) {
             throw new ResponseStatusException(HttpStatus.CONFLICT, "Email already used");
         }
-        var user = UserEntity.builder()
-                .email(r.email().trim())
-                .displayName(r.displayName().trim())
-                .passwordHash(encoder.encode(r.password()))
-                .role(UserRole.USER)
-                .emailVerifiedAt(null)
-                .isActive(true)
-                .build();
-        repo.save(user);
-
-        String rawToken = emailVerificationService.createToken(user);
-        String verificationLink = "http://localhost:5173/verify-email?token=" + rawToken;
+        // hash before the transaction so no connection is held while BCrypt runs
+        String passwordHash = hasher.encode(r.password());
+
+        // user, verification token and the queued email commit together;
+        // EmailOutboxWorker does the SMTP part
+        tx.executeWithoutResult(status -> {
+            var user = UserEntity.builder()
+                    .email(r.email().trim())
+                    .displayName(r.displayName().trim())
+                    .passwordHash(passwordHash)
+                    .role(UserRole.USER)
+                    .emailVerifiedAt(null)
+                    .isActive(true)
+                    .build();
+            repo.save(user);
+
+            String rawToken = emailVerificationService.createToken(user);
+            String verificationLink = "http://localhost:5173/verify-email?token=" + rawToken;
 
-        try {
             emailSender.sendEmail(
                     user.getEmail(),
                     "Verify your email",
                     "Click here to verify your account: " + verificationLink);
-        } catch (Exception e) {
-            // Log for dev/debug purposes if mail server is not configured
-            System.out.println("----------------------------------------------------------------");
-            System.out.println("Could not send email to " + user.getEmail());
-            System.out.println("Verification Link: " + verificationLink);
-            System.out.println("----------------------------------------------------------------");
-        }
+        });
     }
 
     public LoginResponse login(LoginRequest r, String userAgent, String ip) {
-        try {
-            authManager.authenticate(
-                    new UsernamePasswordAuthenticationToken(r.email(), r.password()));
-        } catch (BadCredentialsException ex) {
+        // one lookup; unknown emails still pay for a hash so timing does not reveal them
+        var user = repo.findByEmailIgnoreCase(r.email()).orElse(null);
+        if (!hasher.matches(r.password(), user != null ? user.getPasswordHash() : null)) {
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid credentials");
         }
 
-        var user = repo.findByEmailIgnoreCase(r.email()).orElseThrow();
-
         if (user.getEmailVerifiedAt() == null) {
             throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Email not verified");
         }
@@ -103,31 +104,23 @@ public class AuthService {
             throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Account is disabled");
         }
 
-        var claims = Map.<String, Object>of(
-                "email", user.getEmail(),
-                "uid", user.getId(),
-                "role", user.getRole().name());
-
-        String access = jwt.generateToken(claims, user.getEmail());
+        UUID familyId = UUID.randomUUID();
+        String access = accessToken(user.getEmail(), user.getId(), user.getRole().name(), familyId);
 
         String refreshRaw = generateOpaqueToken();
-        String refreshHash = sha256Base64(refreshRaw);
+        String refreshHash = TokenHashes.sha256Base64(refreshRaw);
 
-        InetAddress clientIp;
-        try {
-            clientIp = InetAddress.getByName(ip);
-        } catch (UnknownHostException e) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid client IP");
-        }
+        InetAddress clientIp = clientIp(ip);
 
         var now = OffsetDateTime.now();
         var session = AuthSessionEntity.builder()
                 .userId(user.getId())
+                .familyId(familyId)
                 .refreshTokenHash(refreshHash)
                 .userAgent(userAgent != null ? userAgent : "")
                 .ipAddress(clientIp)
                 .createdAt(now)
-                .expiresAt(now.plusDays(30))
+                .expiresAt(now.plus(REFRESH_TTL))
                 .build();
 
         sessions.save(session);
@@ -135,31 +128,80 @@ public class AuthService {
         return new LoginResponse(access, jwt.getExpiresSeconds(), refreshRaw);
     }
 
-    private static String sha256Base64(String input) {
+    /**
+     * Exchanges a refresh token for a new access token and a new refresh token;
+     * the presented one is revoked. Costs one SHA-256 and one indexed statement
+     * instead of a BCrypt check. Presenting a token that was already rotated
+     * means it leaked (or was replayed), so the whole session family is revoked;
+     * unless it was rotated within the last reuse-grace-seconds, which is a
+     * concurrent refresh (two tabs, a retry) and only gets a 401.
+     */
+    public LoginResponse refresh(RefreshRequest r, String userAgent, String ip) {
+        if (r == null || r.refreshToken() == null || r.refreshToken().isBlank()) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid refresh token");
+        }
+        String oldHash = TokenHashes.sha256Base64(r.refreshToken());
+        String refreshRaw = generateOpaqueToken();
+
+        var rotated = sessions.rotate(
+                oldHash,
+                TokenHashes.sha256Base64(refreshRaw),
+                userAgent != null ? userAgent : "",
+                clientIp(ip),
+                OffsetDateTime.now().plus(REFRESH_TTL));
+
+        if (rotated.isEmpty()) {
+            // slow path only for bad tokens: was it a replay of a rotated one?
+            if (sessions.revokeFamilyIfReused(oldHash, reuseGraceSeconds) > 0) {
+                System.out.println("Refresh token reuse detected; session family revoked");
+            }
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid refresh token");
+        }
+
+        var s = rotated.get();
+        String access = accessToken(s.email(), s.userId(), s.role(), s.familyId());
+        return new LoginResponse(access, jwt.getExpiresSeconds(), refreshRaw);
+    }
+
+    /** Revokes the session family of the given refresh token; unknown tokens are ignored. */
+    public void logout(RefreshRequest r) {
+        if (r == null || r.refreshToken() == null || r.refreshToken().isBlank()) return;
+        sessions.revokeFamily(TokenHashes.sha256Base64(r.refreshToken()));
+    }
+
+    /** {@code sid} is the session family, so revoking the family revokes its access tokens (TokenRevocations). */
+    private String accessToken(String email, UUID userId, String role, UUID sessionFamilyId) {
+        var claims = Map.<String, Object>of(
+                "email", email,
+                "uid", userId,
+                "role", role,
+                "sid", sessionFamilyId);
+        return jwt.generateToken(claims, email);
+    }
+
+    private static InetAddress clientIp(String ip) {
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(input.getBytes(StandardCharsets.UTF_8));
-            return Base64.getEncoder().encodeToString(hash); // 44 chars
-        } catch (Exception e) {
-            throw new IllegalStateException("SHA-256 not available", e);
+            return InetAddress.getByName(ip);
+        } catch (UnknownHostException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid client IP");
         }
     }
 
-    public void changePassword(String email, String oldPassword, String newPassword) {
+    public void changePassword(UUID userId, String oldPassword, String newPassword) {
 
-        UserEntity user = repo.findByEmailIgnoreCase(email)
+        UserEntity user = repo.findById(userId)
                 .orElseThrow(() -> new ResponseStatusException(
                         HttpStatus.NOT_FOUND, "User not found"));
 
         // verifică parola veche
-        if (!encoder.matches(oldPassword, user.getPasswordHash())) {
+        if (!hasher.matches(oldPassword, user.getPasswordHash())) {
             throw new ResponseStatusException(
                     HttpStatus.BAD_REQUEST,
                     "Parola veche este incorectă");
         }
 
         // setează parola nouă (HASH)
-        user.setPasswordHash(encoder.encode(newPassword));
+        user.setPasswordHash(hasher.encode(newPassword));
         repo.save(user);
     }
 
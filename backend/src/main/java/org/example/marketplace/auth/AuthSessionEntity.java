@@ -25,6 +25,10 @@ public class AuthSessionEntity {
     @Column(name = "user_id", nullable = false, columnDefinition = "uuid")
     private UUID userId;
 
+    /** Shared by a login session and every rotation of it (V13). */
+    @Column(name = "family_id", nullable = false, columnDefinition = "uuid")
+    private UUID familyId;
+
     @Column(name = "refresh_token_hash", nullable = false, length = 44)
     private String refreshTokenHash;
 
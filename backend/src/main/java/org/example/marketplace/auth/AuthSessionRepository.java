@@ -5,7 +5,7 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import java.util.Optional;
 import java.util.UUID;
 
-public interface AuthSessionRepository extends JpaRepository<AuthSessionEntity, UUID> {
+public interface AuthSessionRepository extends JpaRepository<AuthSessionEntity, UUID>, AuthSessionRotationRepository {
     Optional<AuthSessionEntity> findByIdAndRevokedAtIsNull(UUID id);
     Optional<AuthSessionEntity> findByUserIdAndRefreshTokenHashAndRevokedAtIsNull(UUID userId, String hash);
 }
@@ -0,0 +1,39 @@
+package org.example.marketplace.auth;
+
+import java.net.InetAddress;
+import java.time.OffsetDateTime;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Custom fragment of {@link AuthSessionRepository}: refresh-token rotation on the
+ * unique refresh_token_hash index (V13), implemented with plain JDBC in
+ * {@link AuthSessionRotationRepositoryImpl}.
+ */
+public interface AuthSessionRotationRepository {
+
+    /** Owner and family of a rotated session, enough to mint the next access token. */
+    record RotatedSession(UUID userId, UUID familyId, String email, String role) {
+    }
+
+    /**
+     * Revokes the live session holding {@code oldHash} and inserts its successor in
+     * the same family, in one statement. Empty if the token is unknown, revoked,
+     * expired or belongs to a disabled account; concurrent calls with the same
+     * token rotate it at most once.
+     */
+    Optional<RotatedSession> rotate(String oldHash, String newHash, String userAgent,
+                                    InetAddress ip, OffsetDateTime expiresAt);
+
+    /**
+     * If {@code hash} belongs to an already-revoked session, revokes every live
+     * session of its family and returns how many families were revoked (0 or 1).
+     * A token that rotation replaced less than {@code graceSeconds} ago is left
+     * alone: that is a concurrent refresh that lost the race, not a replay.
+     * Revoked families are announced on the auth_revoked channel.
+     */
+    int revokeFamilyIfReused(String hash, long graceSeconds);
+
+    /** Revokes the family of a live session (logout) and announces it; false if nothing was live. */
+    boolean revokeFamily(String hash);
+}
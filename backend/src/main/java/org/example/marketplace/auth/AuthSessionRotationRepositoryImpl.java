@@ -0,0 +1,90 @@
+package org.example.marketplace.auth;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.net.InetAddress;
+import java.sql.Timestamp;
+import java.time.OffsetDateTime;
+import java.util.Optional;
+import java.util.UUID;
+
+public class AuthSessionRotationRepositoryImpl implements AuthSessionRotationRepository {
+
+    // revoke + insert successor in one round trip; the row lock taken by the UPDATE
+    // makes a concurrent refresh with the same token see it revoked
+    private static final String ROTATE_SQL = """
+            WITH old AS (
+                UPDATE auth_sessions s SET revoked_at = now(), replaced_at = now()
+                FROM users u
+                WHERE s.refresh_token_hash = ?
+                  AND s.revoked_at IS NULL
+                  AND s.expires_at > now()
+                  AND u.id = s.user_id
+                  AND u.is_active
+                RETURNING s.user_id, s.family_id, u.email, u.role::text AS role
+            ), ins AS (
+                INSERT INTO auth_sessions (user_id, family_id, refresh_token_hash, user_agent, ip_address, expires_at)
+                SELECT user_id, family_id, ?, ?, CAST(? AS inet), ?
+                FROM old
+            )
+            SELECT user_id, family_id, email, role FROM old
+            """;
+
+    // the NOTIFY is delivered on commit, so other nodes never see a revocation that rolled back
+    private static final String REVOKE_REUSED_SQL = """
+            WITH r AS (
+                UPDATE auth_sessions SET revoked_at = now()
+                WHERE revoked_at IS NULL
+                  AND family_id = (
+                      SELECT family_id FROM auth_sessions
+                      WHERE refresh_token_hash = ? AND revoked_at IS NOT NULL
+                        -- rotated moments ago: a racing refresh, not a replay
+                        AND (replaced_at IS NULL OR replaced_at <= now() - make_interval(secs => ?))
+                  )
+                RETURNING family_id
+            )
+            SELECT family_id, pg_notify('%1$s', 'session:' || family_id) FROM r GROUP BY family_id
+            """.formatted(TokenRevocations.CHANNEL);
+
+    private static final String REVOKE_FAMILY_SQL = """
+            WITH r AS (
+                UPDATE auth_sessions SET revoked_at = now()
+                WHERE revoked_at IS NULL
+                  AND family_id = (
+                      SELECT family_id FROM auth_sessions
+                      WHERE refresh_token_hash = ? AND revoked_at IS NULL
+                  )
+                RETURNING family_id
+            )
+            SELECT family_id, pg_notify('%1$s', 'session:' || family_id) FROM r GROUP BY family_id
+            """.formatted(TokenRevocations.CHANNEL);
+
+    private final JdbcTemplate jdbc;
+
+    public AuthSessionRotationRepositoryImpl(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    @Override
+    public Optional<RotatedSession> rotate(String oldHash, String newHash, String userAgent,
+                                           InetAddress ip, OffsetDateTime expiresAt) {
+        return jdbc.query(ROTATE_SQL,
+                (rs, i) -> new RotatedSession(
+                        rs.getObject("user_id", UUID.class),
+                        rs.getObject("family_id", UUID.class),
+                        rs.getString("email"),
+                        rs.getString("role")),
+                oldHash, newHash, userAgent, ip.getHostAddress(), Timestamp.from(expiresAt.toInstant())
+        ).stream().findFirst();
+    }
+
+    @Override
+    public int revokeFamilyIfReused(String hash, long graceSeconds) {
+        return jdbc.query(REVOKE_REUSED_SQL, (rs, i) -> rs.getObject("family_id", UUID.class), hash, graceSeconds).size();
+    }
+
+    @Override
+    public boolean revokeFamily(String hash) {
+        return !jdbc.query(REVOKE_FAMILY_SQL, (rs, i) -> rs.getObject("family_id", UUID.class), hash).isEmpty();
+    }
+}
@@ -0,0 +1,19 @@
+package org.example.marketplace.auth;
+
+/**
+ * The password hashing pool is saturated (queue full or queue deadline passed).
+ * Mapped to 429 with Retry-After by ApiErrorHandler.
+ */
+public class HashingOverloadedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public HashingOverloadedException(long retryAfterSeconds) {
+        super("Too many requests, please retry", null, false, false);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,38 @@
+package org.example.marketplace.auth;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Claims of an access token whose signature and expiry have been checked.
+ * JwtAuthFilter publishes it as the authentication principal, so controllers
+ * take {@code @AuthenticationPrincipal JwtPrincipal} and have the user id
+ * without a users lookup. {@code uid} is always set on published principals;
+ * {@code sid} (the auth_sessions family the token was issued for) may be null
+ * for tokens issued before the claim existed.
+ *
+ * Role and email are as of token issue; where a fresh value matters (admin
+ * checks, /me) read {@link org.example.marketplace.user.UserCache}.
+ */
+public record JwtPrincipal(String email, UUID uid, String role, UUID sid) implements UserDetails {
+
+    @Override
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        return List.of(new SimpleGrantedAuthority("ROLE_" + role));
+    }
+
+    @Override
+    public String getPassword() {
+        return null;
+    }
+
+    @Override
+    public String getUsername() {
+        return email;
+    }
+}
@@ -2,14 +2,20 @@ package org.example.marketplace.auth;
 
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;                 // atenție: javax.crypto.SecretKey
 import java.nio.charset.StandardCharsets;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class JwtService {
@@ -18,12 +24,27 @@ public class JwtService {
 
     private final SecretKey key;
 
-    public JwtService() {
+    /** Built once; the jjwt parser is immutable and thread-safe. */
+    private final JwtParser parser;
+
+    /**
+     * Tokens already verified, keyed by SHA-256 of the compact token so the
+     * raw bearer string is never held. Entries die at the token's own exp.
+     */
+    private final ConcurrentHashMap<String, Verified> verified = new ConcurrentHashMap<>();
+    private final int maxVerified;
+
+    private record Verified(JwtPrincipal principal, long expiresAtMillis) {
+    }
+
+    public JwtService(@Value("${app.jwt.verified-cache.max-entries:10000}") int maxVerified) {
         String secret = System.getenv("APP_JWT_SECRET");
         if (secret == null || secret.length() < 32) {
             secret = "dev-secret-change-me-min-32-chars-1234567890";
         }
         this.key = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        this.parser = Jwts.parser().verifyWith(key).build();
+        this.maxVerified = maxVerified;
     }
 
     public String generateToken(Map<String, Object> claims, String subject) {
@@ -36,38 +57,73 @@ public class JwtService {
                 .compact();
     }
 
-    public boolean isValid(String token) {
+    /**
+     * Verifies the token once and returns its principal, or empty when the
+     * signature is bad or it has expired. Repeat calls with the same token are
+     * answered from the cache until exp without re-running HMAC and JSON parsing.
+     */
+    public Optional<JwtPrincipal> verify(String token) {
+        long now = System.currentTimeMillis();
+        String cacheKey = TokenHashes.sha256Base64(token);
+
+        Verified hit = verified.get(cacheKey);
+        if (hit != null) {
+            if (hit.expiresAtMillis() > now) return Optional.of(hit.principal());
+            verified.remove(cacheKey, hit);
+            return Optional.empty();
+        }
+
+        Claims c;
         try {
-            Claims c = claims(token);
-            Date exp = c.getExpiration();
-            return exp == null || exp.after(new Date());
+            c = parser.parseSignedClaims(token).getPayload();
         } catch (JwtException | IllegalArgumentException e) {
-            return false;
+            return Optional.empty();
         }
+
+        JwtPrincipal principal = toPrincipal(c);
+        Date exp = c.getExpiration();
+        // tokens without exp are honoured but never cached
+        if (exp != null) {
+            if (exp.getTime() <= now) return Optional.empty();
+            if (maxVerified > 0) {
+                if (verified.size() >= maxVerified) evict(now);
+                verified.put(cacheKey, new Verified(principal, exp.getTime()));
+            }
+        }
+        return Optional.of(principal);
     }
 
-    public String getEmail(String token) {
-        Claims c = claims(token);
-        String email = c.get("email", String.class);
-        if (email == null) email = c.getSubject(); // fallback pe sub
-        return email;
+    public long getExpiresSeconds() {
+        return expiresSeconds;
     }
 
-    public String getRole(String token) {
-        Claims c = claims(token);
+    private static JwtPrincipal toPrincipal(Claims c) {
+        String email = c.get("email", String.class);
+        if (email == null) email = c.getSubject(); // fallback pe sub
         String role = c.get("role", String.class);
-        return (role != null) ? role : "USER";
+        if (role == null) role = "USER";
+        return new JwtPrincipal(email, uuidClaim(c, "uid"), role, uuidClaim(c, "sid"));
     }
 
-    public long getExpiresSeconds() {
-        return expiresSeconds;
+    private static UUID uuidClaim(Claims c, String name) {
+        String v = c.get(name, String.class);
+        if (v == null) return null;
+        try {
+            return UUID.fromString(v);
+        } catch (IllegalArgumentException e) {
+            return null; // malformed: treated like a token without the claim
+        }
     }
 
-    private Claims claims(String token) {
-        return Jwts.parser()
-                .verifyWith(key)
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
+    /** Drops expired entries; if still full, sheds an arbitrary slice to stay bounded. */
+    private void evict(long now) {
+        verified.values().removeIf(v -> v.expiresAtMillis() <= now);
+        if (verified.size() < maxVerified) return;
+        int excess = verified.size() - maxVerified + Math.max(1, maxVerified / 10);
+        Iterator<String> it = verified.keySet().iterator();
+        while (excess-- > 0 && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
     }
 }
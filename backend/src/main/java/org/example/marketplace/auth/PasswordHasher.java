@@ -0,0 +1,133 @@
+package org.example.marketplace.auth;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * BCrypt off the request threads.
+ *
+ * Purpose:
+ * - A burst of logins used to run BCrypt on every Tomcat worker at once and
+ * starve search and map traffic. Here hashing has its own fixed pool, so at
+ * most {@code threads} cores are spent on it whatever the request rate.
+ *
+ * How it works:
+ * - matches()/encode() queue the work on a bounded queue and wait for it.
+ * - Queue full => 429 with Retry-After right away.
+ * - A task that waited longer than the queue deadline is dropped unstarted
+ * (429 as well): the client has likely given up and the hash would be wasted.
+ */
+@Component
+public class PasswordHasher implements DisposableBean {
+
+    private static final class QueueDeadlineExceeded extends RuntimeException {
+        QueueDeadlineExceeded() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final PasswordEncoder encoder;
+    private final ThreadPoolExecutor pool;
+    private final long queueDeadlineNanos;
+    private final long retryAfterSeconds;
+    private final Timer hashLatency;
+    private final Timer queueWait;
+    private final Counter shed;
+
+    /** Compared against when the email is unknown so the response time does not reveal it. */
+    private final String dummyHash;
+
+    public PasswordHasher(
+            PasswordEncoder encoder,
+            MeterRegistry meters,
+            @Value("${app.auth.hashing.threads:2}") int threads,
+            @Value("${app.auth.hashing.queue-capacity:64}") int queueCapacity,
+            @Value("${app.auth.hashing.queue-deadline-ms:2000}") long queueDeadlineMs,
+            @Value("${app.auth.hashing.retry-after-seconds:2}") long retryAfterSeconds) {
+        this.encoder = encoder;
+        this.queueDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(queueDeadlineMs);
+        this.retryAfterSeconds = retryAfterSeconds;
+
+        int n = Math.max(1, threads);
+        var seq = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(n, n, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                r -> {
+                    Thread t = new Thread(r, "password-hash-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        this.hashLatency = Timer.builder("auth.hash.latency").register(meters);
+        this.queueWait = Timer.builder("auth.hash.queue.wait").register(meters);
+        this.shed = Counter.builder("auth.hash.shed").register(meters);
+        meters.gauge("auth.hash.queue.depth", pool.getQueue(), BlockingQueue::size);
+        meters.gauge("auth.hash.active", pool, ThreadPoolExecutor::getActiveCount);
+
+        this.dummyHash = encoder.encode("not-a-real-password");
+    }
+
+    public boolean matches(String raw, String hash) {
+        String h = (hash != null) ? hash : dummyHash;
+        return run(() -> encoder.matches(raw, h)) && hash != null;
+    }
+
+    public String encode(String raw) {
+        return run(() -> encoder.encode(raw));
+    }
+
+    private <T> T run(Supplier<T> work) {
+        long enqueuedAt = System.nanoTime();
+        Future<T> f;
+        try {
+            f = pool.submit(() -> {
+                long waited = System.nanoTime() - enqueuedAt;
+                queueWait.record(waited, TimeUnit.NANOSECONDS);
+                if (waited > queueDeadlineNanos) throw new QueueDeadlineExceeded();
+                return hashLatency.record(work);
+            });
+        } catch (RejectedExecutionException e) {
+            throw tooBusy();
+        }
+
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof QueueDeadlineExceeded) throw tooBusy();
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        } catch (InterruptedException e) {
+            f.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Interrupted");
+        }
+    }
+
+    private HashingOverloadedException tooBusy() {
+        shed.increment();
+        return new HashingOverloadedException(retryAfterSeconds);
+    }
+
+    @Override
+    public void destroy() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,24 @@
+package org.example.marketplace.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/** Digest of a token as stored (auth_sessions.refresh_token_hash) or used as a cache key. */
+final class TokenHashes {
+
+    private TokenHashes() {
+    }
+
+    /** Base64 of SHA-256 over the UTF-8 bytes: 44 chars. */
+    static String sha256Base64(String input) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] hash = md.digest(input.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
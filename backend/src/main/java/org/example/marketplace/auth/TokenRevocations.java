@@ -0,0 +1,185 @@
+package org.example.marketplace.auth;
+
+import org.example.marketplace.config.PgNotifications;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Revoked access tokens, checked by JwtAuthFilter without SQL.
+ *
+ * Purpose:
+ * - Access tokens are self-contained and live up to an hour; without this,
+ * logging out, a detected refresh-token replay or disabling a user only took
+ * effect once the token expired.
+ *
+ * How it works:
+ * - A token is revoked when its session family ({@code sid}) has no live
+ * session left, or its user ({@code uid}) is disabled or deleted.
+ * - Both sets are kept exactly, behind a Bloom filter: nearly every request is
+ * for a non-revoked token and is answered by a few bit probes; only Bloom hits
+ * go to the exact sets. Re-enabled users are removed from the exact set only;
+ * the stale Bloom bits cost a set lookup until the next rebuild.
+ * - Loaded at startup and rebuilt periodically (families revoked longer than an
+ * access-token lifetime ago fall out). Changes arrive on the "auth_revoked"
+ * NOTIFY channel: session families from AuthSessionRotationRepositoryImpl,
+ * users from the V14 trigger. After a LISTEN reconnect everything is reloaded.
+ */
+@Service
+public class TokenRevocations {
+
+    static final String CHANNEL = "auth_revoked";
+
+    private static final String REVOKED_FAMILIES_SQL = """
+            SELECT family_id FROM auth_sessions
+            GROUP BY family_id
+            HAVING bool_and(revoked_at IS NOT NULL)
+               AND max(revoked_at) > now() - make_interval(secs => ?)
+            """;
+
+    private static final String DISABLED_USERS_SQL = "SELECT id FROM users WHERE NOT is_active";
+
+    /** Immutable filter sizing plus the mutable sets it fronts; replaced as a whole on reload. */
+    private record State(BloomFilter bloom, Set<UUID> sessions, Set<UUID> users) {
+    }
+
+    private final JdbcTemplate jdbc;
+    private final long accessTtlSeconds;
+    private final int minBloomCapacity;
+
+    private volatile State state;
+
+    public TokenRevocations(
+            JdbcTemplate jdbc,
+            JwtService jwt,
+            PgNotifications notifications,
+            @Value("${app.auth.revocations.min-capacity:10000}") int minBloomCapacity) {
+        this.jdbc = jdbc;
+        this.accessTtlSeconds = jwt.getExpiresSeconds();
+        this.minBloomCapacity = Math.max(64, minBloomCapacity);
+        this.state = new State(new BloomFilter(this.minBloomCapacity),
+                ConcurrentHashMap.newKeySet(), ConcurrentHashMap.newKeySet());
+
+        notifications.subscribe(CHANNEL, new PgNotifications.Listener() {
+            @Override
+            public void onNotification(String payload) {
+                onChange(payload);
+            }
+
+            @Override
+            public void onResync() {
+                reload();
+            }
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        reload();
+    }
+
+    @Scheduled(initialDelayString = "${app.auth.revocations.reload-ms:600000}",
+            fixedDelayString = "${app.auth.revocations.reload-ms:600000}")
+    public synchronized void reload() {
+        // a little slack so tokens minted just before the revocation are still covered
+        List<UUID> families = jdbc.queryForList(REVOKED_FAMILIES_SQL, UUID.class, accessTtlSeconds + 60);
+        List<UUID> users = jdbc.queryForList(DISABLED_USERS_SQL, UUID.class);
+
+        var bloom = new BloomFilter(Math.max(minBloomCapacity, 2 * (families.size() + users.size())));
+        Set<UUID> s = ConcurrentHashMap.newKeySet();
+        Set<UUID> u = ConcurrentHashMap.newKeySet();
+        families.forEach(id -> { s.add(id); bloom.add(id); });
+        users.forEach(id -> { u.add(id); bloom.add(id); });
+        state = new State(bloom, s, u);
+    }
+
+    /** True if the token's session family or user has been revoked. */
+    public boolean isRevoked(JwtPrincipal p) {
+        State st = state;
+        return (p.sid() != null && st.bloom().mightContain(p.sid()) && st.sessions().contains(p.sid()))
+                || (p.uid() != null && st.bloom().mightContain(p.uid()) && st.users().contains(p.uid()));
+    }
+
+    /**
+     * Payload: "session:{family id}", "user:{id}" (disabled / deleted) or "user-restored:{id}".
+     * Synchronized with reload() so a change arriving mid-reload lands in the new state.
+     */
+    synchronized void onChange(String payload) {
+        if (payload == null) return;
+        try {
+            State st = state;
+            if (payload.startsWith("session:")) {
+                UUID id = UUID.fromString(payload.substring("session:".length()));
+                st.bloom().add(id);
+                st.sessions().add(id);
+            } else if (payload.startsWith("user:")) {
+                UUID id = UUID.fromString(payload.substring("user:".length()));
+                st.bloom().add(id);
+                st.users().add(id);
+            } else if (payload.startsWith("user-restored:")) {
+                st.users().remove(UUID.fromString(payload.substring("user-restored:".length())));
+            }
+        } catch (IllegalArgumentException e) {
+            reload();
+        }
+    }
+
+    /**
+     * Insert-only Bloom filter over UUIDs, ~1% false positives at capacity.
+     * Bits are set with CAS so concurrent adds never lose each other.
+     */
+    static final class BloomFilter {
+        private static final int HASHES = 7;
+
+        private final AtomicLongArray bits;
+        private final int mask;
+
+        BloomFilter(int capacity) {
+            // ~9.6 bits per element for 1%, rounded up to a power of two
+            long wanted = Math.min(1L << 30, Math.max(64L, (long) capacity * 10));
+            int size = Integer.highestOneBit((int) wanted - 1) << 1;
+            this.bits = new AtomicLongArray(size >>> 6);
+            this.mask = size - 1;
+        }
+
+        void add(UUID id) {
+            long h1 = mix(id.getMostSignificantBits() ^ id.getLeastSignificantBits());
+            long h2 = mix(id.getLeastSignificantBits() + 0x9E3779B97F4A7C15L) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                int bit = (int) (h1 + i * h2) & mask;
+                int word = bit >>> 6;
+                long m = 1L << bit;
+                long cur;
+                while (((cur = bits.get(word)) & m) == 0 && !bits.compareAndSet(word, cur, cur | m)) {
+                    // retry
+                }
+            }
+        }
+
+        boolean mightContain(UUID id) {
+            long h1 = mix(id.getMostSignificantBits() ^ id.getLeastSignificantBits());
+            long h2 = mix(id.getLeastSignificantBits() + 0x9E3779B97F4A7C15L) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                int bit = (int) (h1 + i * h2) & mask;
+                if ((bits.get(bit >>> 6) & (1L << bit)) == 0) return false;
+            }
+            return true;
+        }
+
+        // SplitMix64 finalizer
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
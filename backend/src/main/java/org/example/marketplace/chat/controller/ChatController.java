@@ -1,21 +1,41 @@
 package org.example.marketplace.chat.controller;
 
+import org.example.marketplace.auth.JwtPrincipal;
 import org.example.marketplace.chat.dto.*;
+import org.example.marketplace.chat.service.ChatHub;
 import org.example.marketplace.chat.service.ChatService;
+import org.example.marketplace.chat.service.PresenceService;
+import org.example.marketplace.chat.service.ReadReceiptService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import jakarta.validation.Valid;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/chat")
 public class ChatController {
 
+    private static final int MAX_PRESENCE_IDS = 200;
+
     private final ChatService service;
-    public ChatController(ChatService service) { this.service = service; }
+    private final ChatHub hub;
+    private final ReadReceiptService reads;
+    private final PresenceService presence;
+    public ChatController(ChatService service, ChatHub hub, ReadReceiptService reads, PresenceService presence) {
+        this.service = service;
+        this.hub = hub;
+        this.reads = reads;
+        this.presence = presence;
+    }
 
 
     @PostMapping("/conversations/start")
@@ -30,13 +50,23 @@ public class ChatController {
         return ResponseEntity.ok(service.getUserConversations(userId));
     }
 
+    @PreAuthorize("@chatSecurity.canAccessConversations(authentication, #userId)")
+    @GetMapping("/inbox")
+    public ResponseEntity<InboxPageDTO> inbox(
+            @RequestParam UUID userId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "30") int size
+    ) {
+        return ResponseEntity.ok(service.getInbox(userId, cursor, size));
+    }
+
     @PreAuthorize("@chatSecurity.canSendToConversation(authentication, #req.conversationId)")
     @PostMapping("/send")
-    public ResponseEntity<MessageDTO> send(
+    public CompletableFuture<ResponseEntity<MessageDTO>> send(
             @RequestBody @Valid SendMessageRequest req,
-            org.springframework.security.core.Authentication auth
+            @AuthenticationPrincipal JwtPrincipal principal
     ) {
-        return ResponseEntity.ok(service.send(auth, req));
+        return service.send(principal.uid(), req).thenApply(ResponseEntity::ok);
     }
 
 
@@ -44,9 +74,90 @@ public class ChatController {
     @GetMapping("/messages")
     public ResponseEntity<List<MessageDTO>> list(
             @RequestParam UUID conversationId,
-            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) Integer page,
+            @RequestParam(required = false) UUID before,
+            @RequestParam(required = false) UUID after,
             @RequestParam(defaultValue = "50") int size
     ) {
-        return ResponseEntity.ok(service.listMessages(conversationId, page, size));
+        if (page != null && before == null && after == null)
+            return ResponseEntity.ok(service.listMessages(conversationId, page, size));
+        return ResponseEntity.ok(service.listMessages(conversationId, before, after, size));
+    }
+
+    @PreAuthorize("@chatSecurity.canAccessConversation(authentication, #req.conversationId)")
+    @PostMapping("/read")
+    public ResponseEntity<Void> markRead(
+            @RequestBody @Valid MarkReadRequest req,
+            @AuthenticationPrincipal JwtPrincipal principal
+    ) {
+        var me = principal.uid();
+        reads.markRead(me, req.conversationId(), req.messageId());
+        return ResponseEntity.noContent().build();
+    }
+
+    /** Search the caller's messages, optionally within one conversation. */
+    @GetMapping("/search")
+    public ResponseEntity<MessageSearchPageDTO> search(
+            @RequestParam String q,
+            @RequestParam(required = false) UUID conversationId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size,
+            @AuthenticationPrincipal JwtPrincipal principal
+    ) {
+        var me = principal.uid();
+        return ResponseEntity.ok(service.search(me, q, conversationId, cursor, size));
+    }
+
+    /** Unread badge of the caller, served from memory. */
+    @GetMapping("/unread")
+    public ResponseEntity<UnreadCountsDTO> unread(@AuthenticationPrincipal JwtPrincipal principal) {
+        var me = principal.uid();
+        return ResponseEntity.ok(reads.unreadCounts(me));
+    }
+
+    /** Keeps the caller "online"; clients call it every ~30 s while the app is open. */
+    @PostMapping("/presence/heartbeat")
+    public ResponseEntity<Void> heartbeat(@AuthenticationPrincipal JwtPrincipal principal) {
+        var me = principal.uid();
+        presence.touch(me);
+        return ResponseEntity.noContent().build();
+    }
+
+    /** Presence of the given users; only those who share a conversation with the caller are returned. */
+    @GetMapping("/presence")
+    public ResponseEntity<List<PresenceDTO>> presence(
+            @RequestParam List<UUID> userIds,
+            @AuthenticationPrincipal JwtPrincipal principal
+    ) {
+        var me = principal.uid();
+        if (userIds.size() > MAX_PRESENCE_IDS)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Too many user ids");
+        var visible = service.contactsAmong(me, userIds);
+        return ResponseEntity.ok(presence.presence(userIds.stream().filter(visible::contains).toList()));
+    }
+
+    @PreAuthorize("@chatSecurity.canSendToConversation(authentication, #req.conversationId)")
+    @PostMapping("/typing")
+    public ResponseEntity<Void> typing(
+            @RequestBody @Valid TypingRequest req,
+            @AuthenticationPrincipal JwtPrincipal principal
+    ) {
+        var me = principal.uid();
+        presence.typing(me, req.conversationId());
+        return ResponseEntity.noContent().build();
+    }
+
+    @PreAuthorize("@chatSecurity.canAccessConversation(authentication, #conversationId)")
+    @GetMapping("/typing")
+    public ResponseEntity<List<UUID>> typingIn(@RequestParam UUID conversationId) {
+        return ResponseEntity.ok(presence.typingIn(conversationId));
+    }
+
+    /** Server-Sent Events stream of new messages in all of the caller's conversations. */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@AuthenticationPrincipal JwtPrincipal principal) {
+        var me = principal.uid();
+        presence.touch(me);
+        return hub.connect(me, service.conversationIdsOf(me));
     }
 }
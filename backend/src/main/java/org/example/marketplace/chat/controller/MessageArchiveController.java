@@ -0,0 +1,30 @@
+package org.example.marketplace.chat.controller;
+
+import org.example.marketplace.chat.dto.MessageArchiveDTO;
+import org.example.marketplace.chat.service.MessageArchiver;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/admin/chat/archives")
+@PreAuthorize("hasRole('ADMIN')")
+public class MessageArchiveController {
+
+    private final MessageArchiver archiver;
+    public MessageArchiveController(MessageArchiver archiver) { this.archiver = archiver; }
+
+    @GetMapping
+    public ResponseEntity<List<MessageArchiveDTO>> list() {
+        return ResponseEntity.ok(archiver.list());
+    }
+
+    /** Re-attach an archived month (e.g. messages_p2024_01) from its archive files. */
+    @PostMapping("/{partition}/restore")
+    public ResponseEntity<Void> restore(@PathVariable String partition) {
+        archiver.restore(partition);
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -0,0 +1,15 @@
+package org.example.marketplace.chat.dto;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/** One inbox row: who is in the conversation, what was said last and how much is unread. */
+public record InboxEntryDTO(
+        UUID conversationId,
+        List<ParticipantInfo> participants,
+        String lastMessagePreview,
+        UUID lastMessageSenderId,
+        OffsetDateTime lastActivityAt,
+        long unreadCount
+) {}
@@ -0,0 +1,9 @@
+package org.example.marketplace.chat.dto;
+
+import java.util.List;
+
+/**
+ * Inbox page, most recent activity first. Pass {@code nextCursor} back as
+ * {@code cursor} to get the next page; null when there is none.
+ */
+public record InboxPageDTO(List<InboxEntryDTO> items, String nextCursor) {}
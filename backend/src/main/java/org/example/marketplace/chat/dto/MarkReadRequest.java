@@ -0,0 +1,15 @@
+package org.example.marketplace.chat.dto;
+
+import jakarta.validation.constraints.NotNull;
+import java.util.UUID;
+
+/**
+ * Everything up to and including {@code messageId} has been read;
+ * without a message id the whole conversation counts as read.
+ */
+public record MarkReadRequest(
+        @NotNull(message = "Conversation ID is required")
+        UUID conversationId,
+
+        UUID messageId
+) {}
@@ -0,0 +1,14 @@
+package org.example.marketplace.chat.dto;
+
+import java.time.OffsetDateTime;
+
+/** One archived monthly partition of messages (restoredAt set while it is attached again). */
+public record MessageArchiveDTO(
+        String partitionName,
+        OffsetDateTime rangeFrom,
+        OffsetDateTime rangeTo,
+        long messageCount,
+        long readCount,
+        OffsetDateTime archivedAt,
+        OffsetDateTime restoredAt
+) {}
@@ -0,0 +1,20 @@
+package org.example.marketplace.chat.dto;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * One search hit. {@code highlights} are [start, end) character ranges of the
+ * matched term inside {@code snippet}; clients mark them up themselves.
+ */
+public record MessageSearchHitDTO(
+        UUID messageId,
+        UUID conversationId,
+        UUID senderId,
+        OffsetDateTime createdAt,
+        String snippet,
+        List<Highlight> highlights
+) {
+    public record Highlight(int start, int end) {}
+}
@@ -0,0 +1,9 @@
+package org.example.marketplace.chat.dto;
+
+import java.util.List;
+
+/**
+ * Search page, newest first. Pass {@code nextCursor} back as {@code cursor}
+ * to get the next page; null when there is none.
+ */
+public record MessageSearchPageDTO(List<MessageSearchHitDTO> items, String nextCursor) {}
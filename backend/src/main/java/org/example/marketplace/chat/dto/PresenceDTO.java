@@ -0,0 +1,7 @@
+package org.example.marketplace.chat.dto;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/** "Online now" state of a user; lastSeenAt is null if the user was never seen. */
+public record PresenceDTO(UUID userId, boolean online, OffsetDateTime lastSeenAt) {}
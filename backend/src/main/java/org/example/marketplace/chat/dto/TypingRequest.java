@@ -0,0 +1,9 @@
+package org.example.marketplace.chat.dto;
+
+import jakarta.validation.constraints.NotNull;
+import java.util.UUID;
+
+public record TypingRequest(
+        @NotNull(message = "Conversation ID is required")
+        UUID conversationId
+) {}
@@ -0,0 +1,7 @@
+package org.example.marketplace.chat.dto;
+
+import java.util.Map;
+import java.util.UUID;
+
+/** Unread badge: total plus per-conversation counts (conversations with 0 are omitted). */
+public record UnreadCountsDTO(long total, Map<UUID, Long> conversations) {}
@@ -4,10 +4,12 @@ import jakarta.persistence.*;
 import java.time.OffsetDateTime;
 import java.util.UUID;
 
+// Partitioned by month on created_at (V10); the table key is (id, created_at) and
+// new ids are time-ordered (MessageIds). Rows are inserted by MessageIngestor.
 @Entity
 @Table(name = "messages",
        indexes = {
-         @Index(name = "idx_messages_conversation_created", columnList = "conversation_id,created_at"),
+         @Index(name = "idx_messages_conversation_created_id", columnList = "conversation_id,created_at,id"),
          @Index(name = "idx_messages_sender", columnList = "sender_user_id")
        })
 public class Message {
@@ -0,0 +1,21 @@
+package org.example.marketplace.chat.repository;
+
+import org.example.marketplace.chat.dto.InboxEntryDTO;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Custom fragment of {@link ConversationParticipantRepository}: the paged inbox
+ * query, implemented with plain JDBC in {@link ConversationInboxRepositoryImpl}.
+ */
+public interface ConversationInboxRepository {
+
+    /**
+     * One page of the user's conversations ordered by (last activity, id) desc.
+     * Keyset: pass the last row's lastActivityAt/conversationId to get the rows
+     * after it (both null for the first page).
+     */
+    List<InboxEntryDTO> findInbox(UUID userId, OffsetDateTime beforeActivity, UUID beforeId, int limit);
+}
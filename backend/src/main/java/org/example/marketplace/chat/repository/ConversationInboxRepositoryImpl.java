@@ -0,0 +1,101 @@
+package org.example.marketplace.chat.repository;
+
+import org.example.marketplace.chat.dto.InboxEntryDTO;
+import org.example.marketplace.chat.dto.ParticipantInfo;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Inbox in a single statement:
+ * - the page is picked from the user's own participant rows (idx_conv_part_user)
+ * ordered by conversations.last_message_at, kept up to date by a trigger (V6);
+ * - only for the rows of that page: participants + display names, the last
+ * message (idx_messages_conversation_created_id, backwards, LIMIT 1) and the
+ * unread count above the user's last_read_at watermark.
+ */
+public class ConversationInboxRepositoryImpl implements ConversationInboxRepository {
+
+    private static final int PREVIEW_CHARS = 120;
+
+    private static final String INBOX_SQL = """
+            WITH page AS (
+                SELECT c.id,
+                       COALESCE(c.last_message_at, c.created_at) AS last_activity,
+                       cp.last_read_at
+                FROM conversation_participants cp
+                JOIN conversations c ON c.id = cp.conversation_id
+                WHERE cp.user_id = :userId
+                  AND (CAST(:beforeActivity AS timestamptz) IS NULL
+                       OR (COALESCE(c.last_message_at, c.created_at), c.id)
+                          < (CAST(:beforeActivity AS timestamptz), CAST(:beforeId AS uuid)))
+                ORDER BY last_activity DESC, c.id DESC
+                LIMIT :limit
+            )
+            SELECT p.id AS conversation_id,
+                   p.last_activity,
+                   who.ids   AS participant_ids,
+                   who.names AS participant_names,
+                   lm.preview,
+                   lm.sender_user_id,
+                   (SELECT count(*)
+                    FROM messages m
+                    WHERE m.conversation_id = p.id
+                      AND (p.last_read_at IS NULL OR m.created_at > p.last_read_at)
+                      AND m.sender_user_id <> :userId
+                      AND NOT m.is_deleted) AS unread
+            FROM page p
+            CROSS JOIN LATERAL (
+                SELECT array_agg(op.user_id ORDER BY op.user_id) AS ids,
+                       array_agg(COALESCE(u.display_name, 'Unknown User') ORDER BY op.user_id) AS names
+                FROM conversation_participants op
+                LEFT JOIN users u ON u.id = op.user_id
+                WHERE op.conversation_id = p.id
+            ) who
+            LEFT JOIN LATERAL (
+                SELECT left(m.body, :previewChars) AS preview, m.sender_user_id
+                FROM messages m
+                WHERE m.conversation_id = p.id
+                  AND NOT m.is_deleted
+                ORDER BY m.created_at DESC
+                LIMIT 1
+            ) lm ON TRUE
+            ORDER BY p.last_activity DESC, p.id DESC
+            """;
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public ConversationInboxRepositoryImpl(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    @Override
+    public List<InboxEntryDTO> findInbox(UUID userId, OffsetDateTime beforeActivity, UUID beforeId, int limit) {
+        var p = new MapSqlParameterSource()
+                .addValue("userId", userId)
+                .addValue("beforeActivity", beforeId == null ? null : beforeActivity)
+                .addValue("beforeId", beforeId)
+                .addValue("limit", Math.max(1, limit))
+                .addValue("previewChars", PREVIEW_CHARS);
+
+        return jdbc.query(INBOX_SQL, p, (rs, i) -> {
+            UUID[] ids = (UUID[]) rs.getArray("participant_ids").getArray();
+            String[] names = (String[]) rs.getArray("participant_names").getArray();
+            List<ParticipantInfo> participants = new ArrayList<>(ids.length);
+            for (int k = 0; k < ids.length; k++) {
+                participants.add(new ParticipantInfo(ids[k], names[k]));
+            }
+            return new InboxEntryDTO(
+                    rs.getObject("conversation_id", UUID.class),
+                    participants,
+                    rs.getString("preview"),
+                    rs.getObject("sender_user_id", UUID.class),
+                    rs.getObject("last_activity", OffsetDateTime.class),
+                    rs.getLong("unread"));
+        });
+    }
+}
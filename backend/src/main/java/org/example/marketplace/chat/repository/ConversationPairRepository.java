@@ -0,0 +1,21 @@
+package org.example.marketplace.chat.repository;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Custom fragment of {@link ConversationRepository}: one-to-one conversations by
+ * their ordered user pair (uq_conversations_pair, V12), implemented with plain
+ * JDBC in {@link ConversationPairRepositoryImpl}.
+ */
+public interface ConversationPairRepository {
+
+    /** The conversation of the pair, if any (argument order does not matter). */
+    Optional<UUID> findOneToOne(UUID a, UUID b);
+
+    /**
+     * Creates the pair's conversation with both participants unless it exists;
+     * empty if another transaction created it first (visible once it commits).
+     */
+    Optional<UUID> insertOneToOne(UUID a, UUID b);
+}
@@ -0,0 +1,47 @@
+package org.example.marketplace.chat.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Optional;
+import java.util.UUID;
+
+public class ConversationPairRepositoryImpl implements ConversationPairRepository {
+
+    // LEAST/GREATEST in SQL so the order is Postgres' uuid order, whatever Java thinks
+    private static final String FIND_SQL = """
+            SELECT id FROM conversations
+            WHERE user_low = LEAST(CAST(? AS uuid), CAST(? AS uuid))
+              AND user_high = GREATEST(CAST(? AS uuid), CAST(? AS uuid))
+            """;
+
+    // conversation + both participant rows in one statement; nothing at all if the pair exists
+    private static final String INSERT_SQL = """
+            WITH c AS (
+                INSERT INTO conversations (user_low, user_high)
+                VALUES (LEAST(CAST(? AS uuid), CAST(? AS uuid)), GREATEST(CAST(? AS uuid), CAST(? AS uuid)))
+                ON CONFLICT (user_low, user_high) DO NOTHING
+                RETURNING id
+            ), p AS (
+                INSERT INTO conversation_participants (conversation_id, user_id)
+                SELECT c.id, u.user_id
+                FROM c, unnest(ARRAY[CAST(? AS uuid), CAST(? AS uuid)]) AS u(user_id)
+            )
+            SELECT id FROM c
+            """;
+
+    private final JdbcTemplate jdbc;
+
+    public ConversationPairRepositoryImpl(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    @Override
+    public Optional<UUID> findOneToOne(UUID a, UUID b) {
+        return jdbc.queryForList(FIND_SQL, UUID.class, a, b, a, b).stream().findFirst();
+    }
+
+    @Override
+    public Optional<UUID> insertOneToOne(UUID a, UUID b) {
+        return jdbc.queryForList(INSERT_SQL, UUID.class, a, b, a, b, a, b).stream().findFirst();
+    }
+}
@@ -8,18 +8,13 @@ import org.springframework.data.jpa.repository.Query;
 import java.util.List;
 import java.util.UUID;
 
-public interface ConversationParticipantRepository extends JpaRepository<ConversationParticipant, ParticipantKey> {
-
-    @Query("""
-           select cp.conversationId
-           from ConversationParticipant cp
-           where cp.userId in (:a, :b)
-           group by cp.conversationId
-           having count(distinct cp.userId) = 2
-           """)
-    List<UUID> findOneToOneConversationIds(UUID a, UUID b);
+public interface ConversationParticipantRepository
+        extends JpaRepository<ConversationParticipant, ParticipantKey>, ConversationInboxRepository {
 
     List<ConversationParticipant> findByConversationId(UUID conversationId);
 
+    @Query("select cp.conversationId from ConversationParticipant cp where cp.userId = :userId")
+    List<UUID> findConversationIdsByUserId(UUID userId);
+
     boolean existsByConversationIdAndUserId(UUID conversationId, UUID userId);
 }
@@ -4,5 +4,5 @@ import org.example.marketplace.chat.entity.Conversation;
 import org.springframework.data.jpa.repository.JpaRepository;
 import java.util.UUID;
 
-public interface ConversationRepository extends JpaRepository<Conversation, UUID> {
+public interface ConversationRepository extends JpaRepository<Conversation, UUID>, ConversationPairRepository {
 }
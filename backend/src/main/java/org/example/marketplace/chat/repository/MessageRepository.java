@@ -3,17 +3,57 @@ package org.example.marketplace.chat.repository;
 import org.example.marketplace.chat.entity.Message;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
-import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.UUID;
 
-public interface MessageRepository extends JpaRepository<Message, UUID> {
+public interface MessageRepository extends JpaRepository<Message, UUID>, MessageSearchRepository {
     List<Message> findByConversationIdOrderByCreatedAtAsc(UUID conversationId, Pageable pageable);
 
-    // Keyset pagination by createdAt (and optionally tie-break by id if needed)
-    List<Message> findByConversationIdAndCreatedAtLessThanOrderByCreatedAtDesc(
-            UUID conversationId, OffsetDateTime before, org.springframework.data.domain.Pageable pageable
-    );
+    // Keyset pagination on (created_at, id), served by idx_messages_conversation_created_id.
+    // The cursor is a message id; its row is resolved inside the statement, bounded by
+    // [cursorFrom, cursorTo) (see MessageIds) so the probe hits a single partition, and
+    // the explicit created_at bound lets the executor skip partitions on the far side.
+
+    @Query(value = """
+            SELECT m.* FROM messages m
+            WHERE m.conversation_id = :conversationId
+            ORDER BY m.created_at DESC, m.id DESC
+            LIMIT :limit
+            """, nativeQuery = true)
+    List<Message> findLatest(UUID conversationId, int limit);
+
+    @Query(value = """
+            WITH cursor_row AS (
+                SELECT c.created_at, c.id FROM messages c
+                WHERE c.id = :before AND c.conversation_id = :conversationId
+                  AND c.created_at >= CAST(:cursorFrom AS timestamptz)
+                  AND c.created_at < CAST(:cursorTo AS timestamptz)
+            )
+            SELECT m.* FROM messages m
+            WHERE m.conversation_id = :conversationId
+              AND m.created_at <= (SELECT created_at FROM cursor_row)
+              AND (m.created_at, m.id) < (SELECT created_at, id FROM cursor_row)
+            ORDER BY m.created_at DESC, m.id DESC
+            LIMIT :limit
+            """, nativeQuery = true)
+    List<Message> findBefore(UUID conversationId, UUID before, String cursorFrom, String cursorTo, int limit);
+
+    @Query(value = """
+            WITH cursor_row AS (
+                SELECT c.created_at, c.id FROM messages c
+                WHERE c.id = :after AND c.conversation_id = :conversationId
+                  AND c.created_at >= CAST(:cursorFrom AS timestamptz)
+                  AND c.created_at < CAST(:cursorTo AS timestamptz)
+            )
+            SELECT m.* FROM messages m
+            WHERE m.conversation_id = :conversationId
+              AND m.created_at >= (SELECT created_at FROM cursor_row)
+              AND (m.created_at, m.id) > (SELECT created_at, id FROM cursor_row)
+            ORDER BY m.created_at, m.id
+            LIMIT :limit
+            """, nativeQuery = true)
+    List<Message> findAfter(UUID conversationId, UUID after, String cursorFrom, String cursorTo, int limit);
 
 }
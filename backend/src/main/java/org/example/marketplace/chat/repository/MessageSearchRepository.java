@@ -0,0 +1,22 @@
+package org.example.marketplace.chat.repository;
+
+import org.example.marketplace.chat.dto.MessageDTO;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Custom fragment of {@link MessageRepository}: message search, implemented with
+ * plain JDBC in {@link MessageSearchRepositoryImpl}.
+ */
+public interface MessageSearchRepository {
+
+    /**
+     * Messages containing {@code term} (case-insensitive) in conversations of
+     * {@code userId}, optionally only one conversation, newest first.
+     * Keyset: pass the last row's createdAt/id (both null for the first page).
+     */
+    List<MessageDTO> search(UUID userId, String term, UUID conversationId,
+                            OffsetDateTime beforeCreated, UUID beforeId, int limit);
+}
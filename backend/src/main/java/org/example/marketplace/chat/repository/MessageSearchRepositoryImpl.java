@@ -0,0 +1,73 @@
+package org.example.marketplace.chat.repository;
+
+import org.example.marketplace.chat.dto.MessageDTO;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Search in one statement, driven from the caller's participant rows
+ * (idx_conv_part_user): every index probe is restricted to one of the caller's
+ * conversations, so other users' messages are never read.
+ * - per conversation, the newest `limit` matches come either from the composite
+ * (conversation_id, body trigram) GIN index (V19, rare terms) or from walking
+ * idx_messages_conversation_created_id backwards until `limit` match (common
+ * terms); the planner picks per conversation;
+ * - the per-conversation tops are merged and cut to one page.
+ */
+public class MessageSearchRepositoryImpl implements MessageSearchRepository {
+
+    private static final String SEARCH_SQL = """
+            SELECT m.id, m.conversation_id, m.sender_user_id, m.body, m.created_at, m.read_at
+            FROM conversation_participants cp
+            CROSS JOIN LATERAL (
+                SELECT m.id, m.conversation_id, m.sender_user_id, m.body, m.created_at, m.read_at
+                FROM messages m
+                WHERE m.conversation_id = cp.conversation_id
+                  AND m.body ILIKE :pattern ESCAPE '\\'
+                  AND NOT m.is_deleted
+                  AND (m.created_at, m.id)
+                      < (COALESCE(CAST(:beforeCreated AS timestamptz), 'infinity'),
+                         COALESCE(CAST(:beforeId AS uuid), 'ffffffff-ffff-ffff-ffff-ffffffffffff'))
+                ORDER BY m.created_at DESC, m.id DESC
+                LIMIT :limit
+            ) m
+            WHERE cp.user_id = :userId
+              AND (CAST(:conversationId AS uuid) IS NULL OR cp.conversation_id = CAST(:conversationId AS uuid))
+            ORDER BY m.created_at DESC, m.id DESC
+            LIMIT :limit
+            """;
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    public MessageSearchRepositoryImpl(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    @Override
+    public List<MessageDTO> search(UUID userId, String term, UUID conversationId,
+                                   OffsetDateTime beforeCreated, UUID beforeId, int limit) {
+        var p = new MapSqlParameterSource()
+                .addValue("userId", userId)
+                .addValue("pattern", "%" + escapeLike(term) + "%")
+                .addValue("conversationId", conversationId)
+                .addValue("beforeCreated", beforeId == null ? null : beforeCreated)
+                .addValue("beforeId", beforeId)
+                .addValue("limit", Math.max(1, limit));
+
+        return jdbc.query(SEARCH_SQL, p, (rs, i) -> new MessageDTO(
+                rs.getObject("id", UUID.class),
+                rs.getObject("conversation_id", UUID.class),
+                rs.getObject("sender_user_id", UUID.class),
+                rs.getString("body"),
+                rs.getObject("created_at", OffsetDateTime.class),
+                rs.getObject("read_at", OffsetDateTime.class)));
+    }
+
+    private static String escapeLike(String s) {
+        return s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
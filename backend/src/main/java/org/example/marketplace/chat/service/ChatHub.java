@@ -0,0 +1,197 @@
+package org.example.marketplace.chat.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-process fan-out of chat events to connected clients (Server-Sent Events).
+ *
+ * Purpose:
+ * - Replaces polling GET /api/chat/messages: a saved message is pushed once to
+ * every open connection of every participant.
+ *
+ * How it works:
+ * - Connections are indexed by conversation and by user in concurrent maps;
+ * publishing is a lock-free lookup plus a non-blocking offer() per connection.
+ * - Each connection has a bounded queue drained by its own virtual thread, so a
+ * slow client never blocks the sender or other clients. If the queue is full
+ * the connection is closed; the client reconnects and catches up with
+ * GET /api/chat/messages?after=... .
+ * - Idle connections get a heartbeat comment so proxies keep them open.
+ * - Metrics: chat.push.connections (gauge), chat.push.delivery (timer, enqueue
+ * to write), chat.push.dropped (connections closed for being too slow).
+ */
+@Component
+public class ChatHub {
+
+    private final Map<UUID, Set<Connection>> byConversation = new ConcurrentHashMap<>();
+    private final Map<UUID, Set<Connection>> byUser = new ConcurrentHashMap<>();
+
+    private final int queueCapacity;
+    private final long heartbeatMs;
+    private final long timeoutMs;
+
+    private final Timer delivery;
+    private final Counter dropped;
+
+    public ChatHub(
+            MeterRegistry meters,
+            @Value("${app.chat.push.queue-capacity:256}") int queueCapacity,
+            @Value("${app.chat.push.heartbeat-ms:15000}") long heartbeatMs,
+            @Value("${app.chat.push.timeout-ms:1800000}") long timeoutMs) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.heartbeatMs = Math.max(1000, heartbeatMs);
+        this.timeoutMs = timeoutMs;
+
+        this.delivery = Timer.builder("chat.push.delivery").register(meters);
+        this.dropped = meters.counter("chat.push.dropped");
+        meters.gauge("chat.push.connections", byUser,
+                m -> m.values().stream().mapToInt(Set::size).sum());
+    }
+
+    /** Opens a stream for {@code userId}, subscribed to the given conversations. */
+    public SseEmitter connect(UUID userId, Collection<UUID> conversationIds) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Connection c = new Connection(userId, emitter);
+
+        add(byUser, userId, c);
+        for (UUID conversationId : conversationIds) {
+            c.conversations.add(conversationId);
+            add(byConversation, conversationId, c);
+        }
+
+        emitter.onCompletion(c::close);
+        emitter.onTimeout(c::close);
+        emitter.onError(e -> c.close());
+
+        Thread.ofVirtual().name("chat-push-" + userId).start(c::drain);
+        return emitter;
+    }
+
+    /** Open connections of a user (for other pushers, e.g. notifications). */
+    public void publishToUser(UUID userId, String eventName, Object data) {
+        Set<Connection> conns = byUser.get(userId);
+        if (conns == null)
+            return;
+        var event = new PushEvent(eventName, data, System.nanoTime());
+        for (Connection c : conns)
+            c.offer(event);
+    }
+
+    public void publishToConversation(UUID conversationId, String eventName, Object data) {
+        Set<Connection> conns = byConversation.get(conversationId);
+        if (conns == null)
+            return;
+        var event = new PushEvent(eventName, data, System.nanoTime());
+        for (Connection c : conns)
+            c.offer(event);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMessageSent(MessageSentEvent e) {
+        publishToConversation(e.message().conversationId(), "message", e.message());
+    }
+
+    /** Already-connected participants start receiving a conversation created after they connected. */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onConversationStarted(ConversationStartedEvent e) {
+        for (UUID userId : e.participantIds()) {
+            Set<Connection> conns = byUser.get(userId);
+            if (conns == null)
+                continue;
+            for (Connection c : conns) {
+                if (c.conversations.add(e.conversationId()))
+                    add(byConversation, e.conversationId(), c);
+            }
+        }
+    }
+
+    private static void add(Map<UUID, Set<Connection>> index, UUID key, Connection c) {
+        index.compute(key, (k, set) -> {
+            if (set == null)
+                set = ConcurrentHashMap.newKeySet();
+            set.add(c);
+            return set;
+        });
+    }
+
+    private static void remove(Map<UUID, Set<Connection>> index, UUID key, Connection c) {
+        index.computeIfPresent(key, (k, set) -> {
+            set.remove(c);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private record PushEvent(String name, Object data, long enqueuedNanos) {
+    }
+
+    private final class Connection {
+        final UUID userId;
+        final SseEmitter emitter;
+        final BlockingQueue<PushEvent> queue = new ArrayBlockingQueue<>(queueCapacity);
+        final Set<UUID> conversations = ConcurrentHashMap.newKeySet();
+        final AtomicBoolean closed = new AtomicBoolean();
+        volatile Thread drainer;
+
+        Connection(UUID userId, SseEmitter emitter) {
+            this.userId = userId;
+            this.emitter = emitter;
+        }
+
+        void offer(PushEvent event) {
+            if (!queue.offer(event)) {
+                // slow consumer: cut it loose instead of buffering without bound
+                dropped.increment();
+                close();
+                emitter.complete();
+            }
+        }
+
+        void drain() {
+            drainer = Thread.currentThread();
+            try {
+                while (!closed.get()) {
+                    PushEvent event = queue.poll(heartbeatMs, TimeUnit.MILLISECONDS);
+                    if (event == null) {
+                        emitter.send(SseEmitter.event().comment("hb"));
+                        continue;
+                    }
+                    emitter.send(SseEmitter.event().name(event.name()).data(event.data()));
+                    delivery.record(System.nanoTime() - event.enqueuedNanos(), TimeUnit.NANOSECONDS);
+                }
+            } catch (IOException | IllegalStateException e) {
+                // client went away / emitter already completed
+                close();
+            } catch (InterruptedException e) {
+                close();
+            }
+        }
+
+        void close() {
+            if (!closed.compareAndSet(false, true))
+                return;
+            remove(byUser, userId, this);
+            for (UUID conversationId : conversations)
+                remove(byConversation, conversationId, this);
+            Thread t = drainer;
+            if (t != null && t != Thread.currentThread())
+                t.interrupt();
+        }
+    }
+}
@@ -1,41 +1,55 @@
 package org.example.marketplace.chat.service;
 
+import org.example.marketplace.auth.JwtPrincipal;
 import org.example.marketplace.chat.dto.*;
-import org.example.marketplace.chat.entity.Conversation;
-import org.example.marketplace.chat.entity.ConversationParticipant;
 import org.example.marketplace.chat.entity.Message;
 import org.example.marketplace.chat.repository.ConversationParticipantRepository;
 import org.example.marketplace.chat.repository.ConversationRepository;
 import org.example.marketplace.chat.repository.MessageRepository;
+import org.example.marketplace.config.KeysetCursor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.example.marketplace.user.UserRepository;
-import org.example.marketplace.user.UserEntity;
+import org.example.marketplace.user.DisplayNameLoader;
 import org.springframework.security.core.Authentication;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.userdetails.User;
-import java.util.UUID;
-
-
+import org.springframework.web.server.ResponseStatusException;
+import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class ChatService {
 
+    private static final int MAX_INBOX_PAGE = 100;
+    private static final int MAX_MESSAGE_PAGE = 200;
+    private static final int MAX_SEARCH_PAGE = 50;
+    private static final int MIN_SEARCH_CHARS = 3; // shorter terms have no trigram to use the index
+    private static final int SNIPPET_CONTEXT = 60;
+
     private final ConversationRepository conversationRepo;
     private final ConversationParticipantRepository participantRepo;
     private final MessageRepository messageRepo;
-    private final UserRepository userRepo;
+    private final ApplicationEventPublisher events;
+    private final MessageIngestor ingestor;
+    private final ConversationMembershipCache membership;
+    private final DisplayNameLoader names;
 
     public ChatService(ConversationRepository conversationRepo,
                        ConversationParticipantRepository participantRepo,
                        MessageRepository messageRepo,
-                       UserRepository userRepo) {
+                       ApplicationEventPublisher events,
+                       MessageIngestor ingestor,
+                       ConversationMembershipCache membership,
+                       DisplayNameLoader names) {
         this.conversationRepo = conversationRepo;
         this.participantRepo = participantRepo;
         this.messageRepo = messageRepo;
-        this.userRepo = userRepo;
+        this.events = events;
+        this.ingestor = ingestor;
+        this.membership = membership;
+        this.names = names;
     }
 
 
@@ -45,101 +59,193 @@ public class ChatService {
             throw new IllegalArgumentException("Cannot start a conversation with yourself.");
         }
 
-        var ids = participantRepo.findOneToOneConversationIds(userA, userB);
-        UUID conversationId;
-        if (!ids.isEmpty()) {
-            conversationId = ids.get(0);
-        } else {
-            Conversation c = conversationRepo.save(new Conversation());
-            conversationId = c.getId();
-            participantRepo.saveAll(List.of(
-                new ConversationParticipant(conversationId, userA),
-                new ConversationParticipant(conversationId, userB)
-            ));
+        // one index probe on the ordered pair key; the upsert is safe against concurrent starts
+        UUID conversationId = conversationRepo.findOneToOne(userA, userB).orElse(null);
+        boolean created = false;
+        if (conversationId == null) {
+            var inserted = conversationRepo.insertOneToOne(userA, userB);
+            if (inserted.isPresent()) {
+                conversationId = inserted.get();
+                created = true;
+                events.publishEvent(new ConversationStartedEvent(conversationId, List.of(userA, userB)));
+            } else {
+                // lost the race: the winner committed before ON CONFLICT returned, a new statement sees it
+                conversationId = conversationRepo.findOneToOne(userA, userB).orElseThrow();
+            }
         }
-        var participantIds = participantRepo.findByConversationId(conversationId)
-                                          .stream().map(ConversationParticipant::getUserId).toList();
+        var participantIds = created ? List.of(userA, userB) : membership.participants(conversationId);
         var participants = buildParticipantInfo(participantIds);
         return new ConversationDTO(conversationId, participantIds, participants);
     }
 
+    /** Legacy (non-paged) list: walks the inbox pages, one query each. */
     @Transactional(readOnly = true)
     public List<ConversationDTO> getUserConversations(UUID userId) {
-        var cps = participantRepo.findAll().stream()
-                .filter(cp -> cp.getUserId().equals(userId))
-                .toList();
-
         List<ConversationDTO> result = new ArrayList<>();
-        for (var cp : cps) {
-            var participantIds = participantRepo.findByConversationId(cp.getConversationId())
-                    .stream().map(ConversationParticipant::getUserId).toList();
-            var participants = buildParticipantInfo(participantIds);
-            result.add(new ConversationDTO(cp.getConversationId(), participantIds, participants));
+        OffsetDateTime beforeActivity = null;
+        UUID beforeId = null;
+        while (true) {
+            var page = participantRepo.findInbox(userId, beforeActivity, beforeId, MAX_INBOX_PAGE);
+            for (var e : page) {
+                var ids = e.participants().stream().map(ParticipantInfo::id).toList();
+                result.add(new ConversationDTO(e.conversationId(), ids, e.participants()));
+            }
+            if (page.size() < MAX_INBOX_PAGE)
+                return result;
+            var last = page.get(page.size() - 1);
+            beforeActivity = last.lastActivityAt();
+            beforeId = last.conversationId();
         }
-        return result;
     }
 
-    @Transactional
-    public MessageDTO send(Authentication auth, SendMessageRequest req) {
-        UUID me = currentUserId(auth);
-        if (me == null) throw new IllegalStateException("Unauthenticated");
+    /** One inbox page (most recent activity first) in a single SQL statement. */
+    @Transactional(readOnly = true)
+    public InboxPageDTO getInbox(UUID userId, String cursor, int size) {
+        int limit = Math.min(Math.max(size, 1), MAX_INBOX_PAGE);
+        KeysetCursor before = KeysetCursor.decode(cursor);
+        OffsetDateTime beforeActivity = before == null ? null : before.at();
+        UUID beforeId = before == null ? null : before.id();
+
+        var items = participantRepo.findInbox(userId, beforeActivity, beforeId, limit);
+        String next = null;
+        if (items.size() == limit) {
+            var last = items.get(items.size() - 1);
+            next = new KeysetCursor(last.lastActivityAt(), last.conversationId()).encode();
+        }
+        return new InboxPageDTO(items, next);
+    }
+
+    /** Search the user's messages (optionally one conversation), newest first. */
+    @Transactional(readOnly = true)
+    public MessageSearchPageDTO search(UUID userId, String q, UUID conversationId, String cursor, int size) {
+        String term = q == null ? "" : q.strip();
+        if (term.length() < MIN_SEARCH_CHARS)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Search term must have at least " + MIN_SEARCH_CHARS + " characters");
+        int limit = Math.min(Math.max(size, 1), MAX_SEARCH_PAGE);
+        KeysetCursor before = KeysetCursor.decode(cursor);
+        OffsetDateTime beforeCreated = before == null ? null : before.at();
+        UUID beforeId = before == null ? null : before.id();
+
+        var rows = messageRepo.search(userId, term, conversationId, beforeCreated, beforeId, limit);
+        var items = rows.stream().map(m -> toHit(m, term)).toList();
+        String next = null;
+        if (rows.size() == limit) {
+            var last = rows.get(rows.size() - 1);
+            next = new KeysetCursor(last.createdAt(), last.id()).encode();
+        }
+        return new MessageSearchPageDTO(items, next);
+    }
+
+    // Snippet around the first match, highlights = every match inside the snippet
+    private static MessageSearchHitDTO toHit(MessageDTO m, String term) {
+        String body = m.body() == null ? "" : m.body();
+        int first = indexOfIgnoreCase(body, term, 0);
+        int from = Math.max(0, (first < 0 ? 0 : first) - SNIPPET_CONTEXT);
+        int to = Math.min(body.length(), (first < 0 ? 0 : first + term.length()) + SNIPPET_CONTEXT);
+        String prefix = from > 0 ? "…" : "";
+        String snippet = prefix + body.substring(from, to) + (to < body.length() ? "…" : "");
+
+        var highlights = new ArrayList<MessageSearchHitDTO.Highlight>();
+        for (int i = indexOfIgnoreCase(body, term, from); i >= 0 && i + term.length() <= to;
+             i = indexOfIgnoreCase(body, term, i + term.length())) {
+            int start = prefix.length() + i - from;
+            highlights.add(new MessageSearchHitDTO.Highlight(start, start + term.length()));
+        }
+        return new MessageSearchHitDTO(m.id(), m.conversationId(), m.senderId(), m.createdAt(), snippet, highlights);
+    }
+
+    private static int indexOfIgnoreCase(String s, String term, int from) {
+        for (int i = from; i + term.length() <= s.length(); i++) {
+            if (s.regionMatches(true, i, term, 0, term.length()))
+                return i;
+        }
+        return -1;
+    }
 
+    /**
+     * Queues the message for group commit (MessageIngestor); the future completes
+     * once the batch holding it has committed.
+     */
+    public CompletableFuture<MessageDTO> send(UUID me, SendMessageRequest req) {
         UUID conversationId = req.conversationId();
-        if (!participantRepo.existsByConversationIdAndUserId(conversationId, me)) {
+        if (!membership.isParticipant(conversationId, me)) {
             throw new SecurityException("Not a participant in this conversation");
         }
 
-        Message m = new Message();
-        m.setConversationId(conversationId);
-        m.setSenderUserId(me);
-        m.setBody(req.body());
-        m.setCreatedAt(java.time.OffsetDateTime.now());
-        m = messageRepo.save(m);
+        return ingestor.submit(conversationId, me, req.body());
+    }
 
-        return new MessageDTO(
-                m.getId(), m.getConversationId(), m.getSenderUserId(),
-                m.getBody(), m.getCreatedAt(), m.getReadAt()
-        );
+    /** Conversation ids the user takes part in (subscriptions of a push stream). */
+    @Transactional(readOnly = true)
+    public List<UUID> conversationIdsOf(UUID userId) {
+        return participantRepo.findConversationIdsByUserId(userId);
+    }
+
+    /** Those of {@code userIds} who share a conversation with {@code userId} (plus the user themself). */
+    public Set<UUID> contactsAmong(UUID userId, Collection<UUID> userIds) {
+        Set<UUID> wanted = new HashSet<>(userIds);
+        Set<UUID> found = new HashSet<>();
+        if (wanted.remove(userId))
+            found.add(userId);
+        // one indexed query, then membership lookups from memory
+        for (UUID conversationId : conversationIdsOf(userId)) {
+            if (wanted.isEmpty())
+                break;
+            for (UUID participant : membership.participants(conversationId)) {
+                if (wanted.remove(participant))
+                    found.add(participant);
+            }
+        }
+        return found;
     }
 
 
 
+    /** Legacy offset paging (oldest first); kept for clients that still send ?page=. */
     @Transactional(readOnly = true)
     public List<MessageDTO> listMessages(UUID conversationId, int page, int size) {
         var msgs = messageRepo.findByConversationIdOrderByCreatedAtAsc(conversationId, PageRequest.of(page, size));
-        return msgs.stream().map(m -> new MessageDTO(
+        return msgs.stream().map(ChatService::toDto).toList();
+    }
+
+    /**
+     * Keyset history, always returned in chronological order:
+     * - no cursor: the newest {@code size} messages
+     * - before: the {@code size} messages just older than message {@code before} (scroll back)
+     * - after: up to {@code size} messages newer than message {@code after} (catch-up, cost O(new))
+     */
+    @Transactional(readOnly = true)
+    public List<MessageDTO> listMessages(UUID conversationId, UUID before, UUID after, int size) {
+        int limit = Math.min(Math.max(size, 1), MAX_MESSAGE_PAGE);
+        if (after != null)
+            return messageRepo.findAfter(conversationId, after,
+                            MessageIds.createdAtFrom(after), MessageIds.createdAtTo(after), limit)
+                    .stream().map(ChatService::toDto).toList();
+
+        var newestFirst = before != null
+                ? messageRepo.findBefore(conversationId, before,
+                        MessageIds.createdAtFrom(before), MessageIds.createdAtTo(before), limit)
+                : messageRepo.findLatest(conversationId, limit);
+        var result = new ArrayList<MessageDTO>(newestFirst.size());
+        for (int i = newestFirst.size() - 1; i >= 0; i--)
+            result.add(toDto(newestFirst.get(i)));
+        return result;
+    }
+
+    private static MessageDTO toDto(Message m) {
+        return new MessageDTO(
                 m.getId(), m.getConversationId(), m.getSenderUserId(),
                 m.getBody(), m.getCreatedAt(), m.getReadAt()
-        )).toList();
+        );
     }
 
     // Security helper
 
-    /** Resolve authenticated user's UUID from Authentication (principal name = email). */
-    // imports needed:
-
-    // make sure you have this injected in the service:
-    // helper: email (principal) -> UserEntity.id
-    private UUID currentUserId(Authentication auth) {
+    /** Authenticated user's id, straight from the token (JwtAuthFilter publishes a JwtPrincipal). */
+    public UUID currentUserId(Authentication auth) {
         if (auth == null || !auth.isAuthenticated()) return null;
-
-        String username = null;
-        Object principal = auth.getPrincipal();
-
-        // Case A: principal is Spring Security UserDetails
-        if (principal instanceof User u) {
-            username = u.getUsername(); // your email
-        }
-        // Case B: principal is just a String (some setups store the username/email directly)
-        else if (principal instanceof String s) {
-            username = s; // email
-        }
-
-        if (username == null) return null;
-
-        return userRepo.findByEmailIgnoreCase(username)
-                .map(u -> u.getId())
-                .orElse(null);
+        return auth.getPrincipal() instanceof JwtPrincipal p ? p.uid() : null;
     }
 
     /** True if the authenticated user matches the provided userId OR is ADMIN (checked in @PreAuthorize). */
@@ -152,18 +258,14 @@ public class ChatService {
     public boolean isParticipant(Authentication auth, UUID conversationId) {
         UUID me = currentUserId(auth);
         if (me == null) return false;
-        return participantRepo.existsByConversationIdAndUserId(conversationId, me);
+        return membership.isParticipant(conversationId, me);
     }
 
-    /** Build participant info list with display names from user IDs. */
+    /** Build participant info list with display names from user IDs (one batched lookup). */
     private List<ParticipantInfo> buildParticipantInfo(List<UUID> participantIds) {
+        names.want(participantIds);
         return participantIds.stream()
-                .map(userId -> {
-                    String displayName = userRepo.findById(userId)
-                            .map(UserEntity::getDisplayName)
-                            .orElse("Unknown User");
-                    return new ParticipantInfo(userId, displayName);
-                })
+                .map(userId -> new ParticipantInfo(userId, names.name(userId)))
                 .toList();
     }
 
@@ -0,0 +1,89 @@
+package org.example.marketplace.chat.service;
+
+import org.example.marketplace.config.BoundedCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * conversation id -> participant user ids, so chat authorization is a memory lookup.
+ *
+ * How it works:
+ * - Loaded with one indexed query on first access; conversations without
+ * participants (unknown ids) are not cached.
+ * - Members are kept as a flat long[] of (msb, lsb) pairs: 16 bytes per member
+ * and a linear scan, which beats hashing for the usual two-person chat.
+ * - New conversations are seeded from ConversationStartedEvent. Participants
+ * are only ever written together with their conversation
+ * (ConversationPairRepositoryImpl) and never removed, so an entry never goes
+ * stale, on this node or any other.
+ * - Bounded by app.chat.membership.max-entries (BoundedCache).
+ */
+@Component
+public class ConversationMembershipCache {
+
+    private final JdbcTemplate jdbc;
+    private final BoundedCache<UUID, long[]> members;
+
+    public ConversationMembershipCache(
+            JdbcTemplate jdbc,
+            @Value("${app.chat.membership.max-entries:100000}") int maxEntries) {
+        this.jdbc = jdbc;
+        this.members = new BoundedCache<>(maxEntries);
+    }
+
+    public boolean isParticipant(UUID conversationId, UUID userId) {
+        long[] m = load(conversationId);
+        if (m == null)
+            return false;
+        long msb = userId.getMostSignificantBits();
+        long lsb = userId.getLeastSignificantBits();
+        for (int i = 0; i < m.length; i += 2) {
+            if (m[i] == msb && m[i + 1] == lsb)
+                return true;
+        }
+        return false;
+    }
+
+    public List<UUID> participants(UUID conversationId) {
+        long[] m = load(conversationId);
+        if (m == null)
+            return List.of();
+        List<UUID> ids = new ArrayList<>(m.length / 2);
+        for (int i = 0; i < m.length; i += 2)
+            ids.add(new UUID(m[i], m[i + 1]));
+        return ids;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onConversationStarted(ConversationStartedEvent e) {
+        members.put(e.conversationId(), pack(e.participantIds()));
+    }
+
+    private long[] load(UUID conversationId) {
+        long[] m = members.get(conversationId);
+        if (m != null)
+            return m;
+        List<UUID> ids = jdbc.queryForList(
+                "SELECT user_id FROM conversation_participants WHERE conversation_id = ?", UUID.class, conversationId);
+        if (ids.isEmpty())
+            return null;
+        m = pack(ids);
+        members.put(conversationId, m);
+        return m;
+    }
+
+    private static long[] pack(List<UUID> ids) {
+        long[] m = new long[ids.size() * 2];
+        for (int i = 0; i < ids.size(); i++) {
+            m[2 * i] = ids.get(i).getMostSignificantBits();
+            m[2 * i + 1] = ids.get(i).getLeastSignificantBits();
+        }
+        return m;
+    }
+}
@@ -0,0 +1,7 @@
+package org.example.marketplace.chat.service;
+
+import java.util.List;
+import java.util.UUID;
+
+/** Published by ChatService when a new conversation is created. */
+public record ConversationStartedEvent(UUID conversationId, List<UUID> participantIds) {}
@@ -0,0 +1,390 @@
+package org.example.marketplace.chat.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.marketplace.chat.dto.MessageArchiveDTO;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Monthly partitions of messages (V10): creation ahead of time, archival, restore.
+ *
+ * How it works:
+ * - At startup and every app.chat.archive.interval-ms, partitions for the
+ * current month and app.chat.archive.months-ahead months are created.
+ * - Partitions older than app.chat.archive.retain-months are detached
+ * (CONCURRENTLY, so writers are not blocked), their rows and the
+ * message_reads, message_attachments and reports of those messages are exported
+ * with COPY to gzip'd CSV files in app.chat.archive.dir, then the table and the
+ * exported rows are dropped and a message_archives row records where the files
+ * are. Dropped attachments no longer pin their media_assets (MediaGarbageCollector).
+ * - restore() re-creates the partition from the files and attaches it again,
+ * with the rows that still have their targets (attachments whose media was
+ * collected meanwhile are skipped, reports follow their old ON DELETE rules);
+ * it stays for app.chat.archive.restored-keep-days before being archived again.
+ * - Deleting messages (e.g. a conversation) removes the same rows through the
+ * V21 trigger; dropping a partition does not fire it, hence the above.
+ * - All work runs on one connection holding a session advisory lock, so only
+ * one node does it at a time and a crash half-way is resumed by the next run
+ * (detached tables without an archive row are picked up again).
+ */
+@Component
+public class MessageArchiver {
+
+    private static final long LOCK_KEY = 0x6d73675f61726368L; // "msg_arch"
+    private static final Pattern PARTITION = Pattern.compile("messages_p(\\d{4})_(\\d{2})");
+
+    // attachments whose media was garbage-collected while archived are gone for good
+    private static final String RESTORE_ATTACHMENTS_SQL = """
+            INSERT INTO message_attachments
+            SELECT a.* FROM restore_attachments a
+            WHERE EXISTS (SELECT 1 FROM media_assets ma WHERE ma.id = a.media_asset_id)
+            ON CONFLICT DO NOTHING
+            """;
+
+    // the old foreign keys' rules: no reporter => no report, other targets become NULL
+    private static final String RESTORE_REPORTS_SQL = """
+            INSERT INTO reports (id, reporter_id, target_user_id, conversation_id, message_id, reason,
+                                 created_at, resolved_at)
+            SELECT p.id, p.reporter_id, tu.id, c.id, p.message_id, p.reason, p.created_at, p.resolved_at
+            FROM restore_reports p
+            JOIN users ru ON ru.id = p.reporter_id
+            LEFT JOIN users tu ON tu.id = p.target_user_id
+            LEFT JOIN conversations c ON c.id = p.conversation_id
+            ON CONFLICT DO NOTHING
+            """;
+
+    private final JdbcTemplate jdbc;
+    private final boolean enabled;
+    private final Path dir;
+    private final int retainMonths;
+    private final int monthsAhead;
+    private final int restoredKeepDays;
+
+    private final Counter partitionsArchived;
+    private final Counter messagesArchived;
+
+    public MessageArchiver(
+            JdbcTemplate jdbc,
+            MeterRegistry meters,
+            @Value("${app.chat.archive.enabled:true}") boolean enabled,
+            @Value("${app.chat.archive.dir:./archive/messages}") String dir,
+            @Value("${app.chat.archive.retain-months:24}") int retainMonths,
+            @Value("${app.chat.archive.months-ahead:3}") int monthsAhead,
+            @Value("${app.chat.archive.restored-keep-days:30}") int restoredKeepDays) {
+        this.jdbc = jdbc;
+        this.enabled = enabled;
+        this.dir = Paths.get(dir).toAbsolutePath().normalize();
+        this.retainMonths = Math.max(1, retainMonths);
+        this.monthsAhead = Math.max(1, monthsAhead);
+        this.restoredKeepDays = Math.max(0, restoredKeepDays);
+
+        this.partitionsArchived = meters.counter("chat.archive.partitions");
+        this.messagesArchived = meters.counter("chat.archive.messages");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        maintain(false);
+    }
+
+    @Scheduled(fixedDelayString = "${app.chat.archive.interval-ms:86400000}",
+               initialDelayString = "${app.chat.archive.interval-ms:86400000}")
+    public void run() {
+        maintain(enabled);
+    }
+
+    private void maintain(boolean archive) {
+        try {
+            withLock(c -> {
+                ensurePartitions(c);
+                if (archive) {
+                    for (String name : archivable(c))
+                        archive(c, name);
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            System.out.println("Message partition maintenance failed: " + e.getMessage());
+        }
+    }
+
+    public List<MessageArchiveDTO> list() {
+        return jdbc.query("""
+                SELECT partition_name, range_from, range_to, message_count, read_count, archived_at, restored_at
+                FROM message_archives
+                ORDER BY range_from DESC
+                """, (rs, i) -> new MessageArchiveDTO(
+                rs.getString("partition_name"),
+                rs.getObject("range_from", OffsetDateTime.class),
+                rs.getObject("range_to", OffsetDateTime.class),
+                rs.getLong("message_count"),
+                rs.getLong("read_count"),
+                rs.getObject("archived_at", OffsetDateTime.class),
+                rs.getObject("restored_at", OffsetDateTime.class)));
+    }
+
+    /** Re-attaches an archived month from its files. */
+    public void restore(String name) {
+        if (!PARTITION.matcher(name).matches())
+            throw new IllegalArgumentException("Invalid partition name");
+
+        withLock(c -> {
+            String messagesFile;
+            String readsFile;
+            String attachmentsFile;
+            String reportsFile;
+            OffsetDateTime from;
+            OffsetDateTime to;
+            try (PreparedStatement ps = c.prepareStatement("""
+                    SELECT messages_file, reads_file, attachments_file, reports_file, range_from, range_to
+                    FROM message_archives WHERE partition_name = ? AND restored_at IS NULL
+                    """)) {
+                ps.setString(1, name);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next())
+                        throw new IllegalArgumentException("No archived partition " + name);
+                    messagesFile = rs.getString(1);
+                    readsFile = rs.getString(2);
+                    attachmentsFile = rs.getString(3); // null: archived before V21, never moved out
+                    reportsFile = rs.getString(4);
+                    from = rs.getObject(5, OffsetDateTime.class);
+                    to = rs.getObject(6, OffsetDateTime.class);
+                }
+            }
+
+            CopyManager copy = c.unwrap(PGConnection.class).getCopyAPI();
+            c.setAutoCommit(false);
+            try {
+                try (Statement st = c.createStatement()) {
+                    st.execute("CREATE TABLE " + quote(name) + " (LIKE messages INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+                    st.execute("CREATE TEMP TABLE restore_reads (LIKE message_reads) ON COMMIT DROP");
+                    st.execute("CREATE TEMP TABLE restore_attachments (LIKE message_attachments) ON COMMIT DROP");
+                    st.execute("CREATE TEMP TABLE restore_reports (LIKE reports) ON COMMIT DROP");
+                }
+                importFile(copy, quote(name), messagesFile);
+                importFile(copy, "restore_reads", readsFile);
+                importFile(copy, "restore_attachments", attachmentsFile);
+                importFile(copy, "restore_reports", reportsFile);
+                try (Statement st = c.createStatement()) {
+                    st.execute("ALTER TABLE messages ATTACH PARTITION " + quote(name)
+                            + " FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+                    st.execute("INSERT INTO message_reads SELECT * FROM restore_reads ON CONFLICT DO NOTHING");
+                    st.execute(RESTORE_ATTACHMENTS_SQL);
+                    st.execute(RESTORE_REPORTS_SQL);
+                }
+                try (PreparedStatement ps = c.prepareStatement(
+                        "UPDATE message_archives SET restored_at = now() WHERE partition_name = ?")) {
+                    ps.setString(1, name);
+                    ps.executeUpdate();
+                }
+                c.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                c.rollback();
+                throw new IllegalStateException("Restore of " + name + " failed: " + e.getMessage(), e);
+            } finally {
+                c.setAutoCommit(true);
+            }
+            System.out.println("Restored message partition " + name);
+            return null;
+        });
+    }
+
+    private static void importFile(CopyManager copy, String table, String file) throws SQLException, IOException {
+        if (file == null)
+            return;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(Path.of(file)))) {
+            copy.copyIn("COPY " + table + " FROM STDIN (FORMAT csv)", in);
+        }
+    }
+
+    private void ensurePartitions(Connection c) throws SQLException {
+        YearMonth now = YearMonth.now(ZoneOffset.UTC);
+        try (PreparedStatement ps = c.prepareStatement("SELECT ensure_message_partition(CAST(? AS date))")) {
+            for (int i = 0; i <= monthsAhead; i++) {
+                ps.setString(1, now.plusMonths(i).atDay(1).toString());
+                ps.execute();
+            }
+        }
+    }
+
+    // Old attached partitions, restored ones past their keep time, and leftovers of an interrupted run
+    private List<String> archivable(Connection c) throws SQLException {
+        YearMonth oldestKept = YearMonth.now(ZoneOffset.UTC).minusMonths(retainMonths);
+        TreeSet<String> names = new TreeSet<>();
+        try (PreparedStatement ps = c.prepareStatement("""
+                SELECT t.relname
+                FROM pg_class t
+                WHERE t.relkind = 'r'
+                  AND t.relname ~ '^messages_p[0-9]{4}_[0-9]{2}$'
+                  AND NOT EXISTS (SELECT 1 FROM message_archives a
+                                  WHERE a.partition_name = t.relname
+                                    AND a.restored_at > now() - make_interval(days => ?))
+                """)) {
+            ps.setInt(1, restoredKeepDays);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String name = rs.getString(1);
+                    if (month(name).isBefore(oldestKept))
+                        names.add(name);
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    private void archive(Connection c, String name) throws SQLException {
+        boolean attached;
+        try (PreparedStatement ps = c.prepareStatement(
+                "SELECT relispartition FROM pg_class WHERE relname = ? AND relkind = 'r'")) {
+            ps.setString(1, name);
+            try (ResultSet rs = ps.executeQuery()) {
+                attached = rs.next() && rs.getBoolean(1);
+            }
+        }
+        if (attached) {
+            try (Statement st = c.createStatement()) {
+                st.execute("ALTER TABLE messages DETACH PARTITION " + quote(name) + " CONCURRENTLY");
+            }
+        }
+
+        YearMonth month = month(name);
+        OffsetDateTime from = month.atDay(1).atStartOfDay().atOffset(ZoneOffset.UTC);
+        OffsetDateTime to = month.plusMonths(1).atDay(1).atStartOfDay().atOffset(ZoneOffset.UTC);
+        Path messagesFile = dir.resolve(name + ".csv.gz");
+        Path readsFile = dir.resolve(name + "_reads.csv.gz");
+        Path attachmentsFile = dir.resolve(name + "_attachments.csv.gz");
+        Path reportsFile = dir.resolve(name + "_reports.csv.gz");
+
+        CopyManager copy = c.unwrap(PGConnection.class).getCopyAPI();
+        long messages;
+        long reads;
+        try {
+            Files.createDirectories(dir);
+            messages = export(copy, "COPY " + quote(name) + " TO STDOUT (FORMAT csv)", messagesFile);
+            reads = export(copy, "COPY (SELECT r.* FROM message_reads r WHERE r.message_id IN (SELECT id FROM "
+                    + quote(name) + ")) TO STDOUT (FORMAT csv)", readsFile);
+            export(copy, "COPY (SELECT a.* FROM message_attachments a WHERE a.message_id IN (SELECT id FROM "
+                    + quote(name) + ")) TO STDOUT (FORMAT csv)", attachmentsFile);
+            export(copy, "COPY (SELECT p.* FROM reports p WHERE p.message_id IN (SELECT id FROM "
+                    + quote(name) + ")) TO STDOUT (FORMAT csv)", reportsFile);
+        } catch (IOException e) {
+            throw new IllegalStateException("Export of " + name + " failed: " + e.getMessage(), e);
+        }
+
+        c.setAutoCommit(false);
+        try {
+            try (PreparedStatement ps = c.prepareStatement("""
+                    INSERT INTO message_archives (partition_name, range_from, range_to, messages_file, reads_file,
+                                                  attachments_file, reports_file, message_count, read_count)
+                    VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+                    ON CONFLICT (partition_name) DO UPDATE
+                    SET messages_file = EXCLUDED.messages_file, reads_file = EXCLUDED.reads_file,
+                        attachments_file = EXCLUDED.attachments_file, reports_file = EXCLUDED.reports_file,
+                        message_count = EXCLUDED.message_count, read_count = EXCLUDED.read_count,
+                        archived_at = now(), restored_at = NULL
+                    """)) {
+                ps.setString(1, name);
+                ps.setObject(2, from);
+                ps.setObject(3, to);
+                ps.setString(4, messagesFile.toString());
+                ps.setString(5, readsFile.toString());
+                ps.setString(6, attachmentsFile.toString());
+                ps.setString(7, reportsFile.toString());
+                ps.setLong(8, messages);
+                ps.setLong(9, reads);
+                ps.executeUpdate();
+            }
+            try (Statement st = c.createStatement()) {
+                st.execute("DELETE FROM message_reads WHERE message_id IN (SELECT id FROM " + quote(name) + ")");
+                st.execute("DELETE FROM message_attachments WHERE message_id IN (SELECT id FROM " + quote(name) + ")");
+                st.execute("DELETE FROM reports WHERE message_id IN (SELECT id FROM " + quote(name) + ")");
+                st.execute("DROP TABLE " + quote(name));
+            }
+            c.commit();
+        } catch (SQLException | RuntimeException e) {
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(true);
+        }
+
+        partitionsArchived.increment();
+        messagesArchived.increment(messages);
+        System.out.println("Archived message partition " + name + " (" + messages + " messages) to " + messagesFile);
+    }
+
+    // Written to a temp file first so a crash never leaves a truncated archive under the final name
+    private static long export(CopyManager copy, String sql, Path target) throws SQLException, IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        long rows;
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+            rows = copy.copyOut(sql, out);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return rows;
+    }
+
+    private <T> T withLock(ConnectionCallback<T> work) {
+        return jdbc.execute((ConnectionCallback<T>) c -> {
+            boolean locked;
+            try (PreparedStatement ps = c.prepareStatement("SELECT pg_try_advisory_lock(?)")) {
+                ps.setLong(1, LOCK_KEY);
+                try (ResultSet rs = ps.executeQuery()) {
+                    locked = rs.next() && rs.getBoolean(1);
+                }
+            }
+            if (!locked)
+                throw new IllegalStateException("Message partition maintenance is running on another node");
+            try {
+                return work.doInConnection(c);
+            } finally {
+                try (PreparedStatement ps = c.prepareStatement("SELECT pg_advisory_unlock(?)")) {
+                    ps.setLong(1, LOCK_KEY);
+                    ps.execute();
+                }
+            }
+        });
+    }
+
+    private static YearMonth month(String name) {
+        Matcher m = PARTITION.matcher(name);
+        if (!m.matches())
+            throw new IllegalArgumentException("Invalid partition name " + name);
+        return YearMonth.of(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)));
+    }
+
+    private static String quote(String name) {
+        return "\"" + name + "\"";
+    }
+}
@@ -0,0 +1,48 @@
+package org.example.marketplace.chat.service;
+
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * Time-ordered (version 7) message ids.
+ *
+ * The first 48 bits are the message's created_at in epoch milliseconds, so a
+ * message id alone tells which monthly partition holds the row. Cursor lookups
+ * by id use {@link #createdAtFrom}/{@link #createdAtTo} to stay inside one
+ * partition. Ids written before V10 are random (version 4); they get an
+ * unbounded window and the lookup probes every partition.
+ */
+public final class MessageIds {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private MessageIds() {
+    }
+
+    public static UUID newId(OffsetDateTime createdAt) {
+        long ms = createdAt.toInstant().toEpochMilli();
+        long msb = (ms << 16) | 0x7000L | (RANDOM.nextInt() & 0x0FFFL);
+        long lsb = (RANDOM.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    /** Inclusive lower bound of the row's created_at, as a timestamptz literal. */
+    public static String createdAtFrom(UUID id) {
+        if (id.version() != 7)
+            return "-infinity";
+        return millis(id).toString();
+    }
+
+    /** Exclusive upper bound of the row's created_at, as a timestamptz literal. */
+    public static String createdAtTo(UUID id) {
+        if (id.version() != 7)
+            return "infinity";
+        return millis(id).plusMillis(1).toString();
+    }
+
+    private static Instant millis(UUID id) {
+        return Instant.ofEpochMilli(id.getMostSignificantBits() >>> 16);
+    }
+}
@@ -0,0 +1,219 @@
+package org.example.marketplace.chat.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.marketplace.chat.dto.MessageDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit for chat messages.
+ *
+ * Purpose:
+ * - One transaction (and one WAL flush) per message caps chat throughput at
+ * peak; here all messages that arrive while a commit is in flight share the
+ * next one.
+ *
+ * How it works:
+ * - submit() puts the message on a bounded queue and returns a future; when the
+ * queue is full the caller gets 503 instead of piling up.
+ * - A single writer thread takes whatever is queued (up to max-batch), assigns
+ * strictly increasing created_at values and time-ordered ids (MessageIds), and writes the batch with one
+ * JDBC batch insert in one transaction. One writer in FIFO order means messages
+ * of a conversation are stored in the order they were accepted.
+ * - Futures complete only after the commit. If the batch fails, its rows are
+ * retried one by one so a single bad row (e.g. a conversation deleted
+ * meanwhile) only fails its own sender.
+ * - MessageSentEvent listeners (push, presence, membership, notifications) run
+ * on a separate "chat-fanout" thread, so they never hold up the next commit.
+ * It is a single thread, so events keep the commit order; if its queue
+ * (fanout-queue-capacity) is full the writer publishes itself for a while.
+ */
+@Component
+public class MessageIngestor implements SmartLifecycle {
+
+    private static final String INSERT_SQL = """
+            INSERT INTO messages (id, conversation_id, sender_user_id, body, created_at)
+            VALUES (?, ?, ?, ?, ?)
+            """;
+
+    private static final long SHUTDOWN_WAIT_MS = 10_000;
+
+    private record Pending(UUID conversationId, UUID senderId, String body, CompletableFuture<MessageDTO> result) {
+    }
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final ApplicationEventPublisher events;
+    private final BlockingQueue<Pending> queue;
+    private final int maxBatch;
+    private final DistributionSummary batchSize;
+    private final ThreadPoolExecutor fanout;
+
+    private volatile boolean running;
+    private Thread writer;
+    private OffsetDateTime lastCreatedAt = OffsetDateTime.MIN;
+
+    public MessageIngestor(
+            JdbcTemplate jdbc,
+            PlatformTransactionManager txManager,
+            ApplicationEventPublisher events,
+            MeterRegistry meters,
+            @Value("${app.chat.ingest.queue-capacity:10000}") int queueCapacity,
+            @Value("${app.chat.ingest.max-batch:500}") int maxBatch,
+            @Value("${app.chat.ingest.fanout-queue-capacity:10000}") int fanoutQueueCapacity) {
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(txManager);
+        this.events = events;
+        this.queue = new LinkedBlockingQueue<>(Math.max(1, queueCapacity));
+        this.maxBatch = Math.max(1, maxBatch);
+        this.batchSize = DistributionSummary.builder("chat.ingest.batch.size").register(meters);
+        meters.gauge("chat.ingest.queue.depth", queue, BlockingQueue::size);
+        this.fanout = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, fanoutQueueCapacity)),
+                r -> Thread.ofPlatform().name("chat-fanout").daemon().unstarted(r),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        meters.gauge("chat.ingest.fanout.queue.depth", fanout.getQueue(), BlockingQueue::size);
+    }
+
+    /** Completes with the stored message once its batch has committed. */
+    public CompletableFuture<MessageDTO> submit(UUID conversationId, UUID senderId, String body) {
+        var p = new Pending(conversationId, senderId, body, new CompletableFuture<>());
+        if (!running || !queue.offer(p))
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Chat is busy, please retry");
+        return p.result();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        writer = Thread.ofPlatform().name("chat-ingest").start(this::loop);
+    }
+
+    @Override
+    public void stop() {
+        // stop accepting, let the writer drain what was already accepted
+        running = false;
+        if (writer == null)
+            return;
+        try {
+            writer.join(SHUTDOWN_WAIT_MS);
+            fanout.shutdown();
+            fanout.awaitTermination(SHUTDOWN_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void loop() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(500, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                if (!running)
+                    break;
+            } catch (RuntimeException e) {
+                System.out.println("Chat ingest failed: " + e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+        for (Pending p : queue)
+            p.result().completeExceptionally(
+                    new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Chat is shutting down"));
+    }
+
+    private void write(List<Pending> batch) {
+        List<MessageDTO> rows = new ArrayList<>(batch.size());
+        List<Object[]> args = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            OffsetDateTime createdAt = nextCreatedAt();
+            var dto = new MessageDTO(MessageIds.newId(createdAt), p.conversationId(), p.senderId(), p.body(), createdAt, null);
+            rows.add(dto);
+            args.add(new Object[] { dto.id(), dto.conversationId(), dto.senderId(), dto.body(), dto.createdAt() });
+        }
+        batchSize.record(batch.size());
+
+        try {
+            tx.executeWithoutResult(status -> jdbc.batchUpdate(INSERT_SQL, args));
+        } catch (RuntimeException e) {
+            writeOneByOne(batch, rows, args);
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++)
+            batch.get(i).result().complete(rows.get(i));
+        announce(rows);
+    }
+
+    private void writeOneByOne(List<Pending> batch, List<MessageDTO> rows, List<Object[]> args) {
+        List<MessageDTO> stored = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Object[] a = args.get(i);
+            try {
+                tx.executeWithoutResult(status -> jdbc.update(INSERT_SQL, a));
+            } catch (RuntimeException e) {
+                batch.get(i).result().completeExceptionally(e);
+                continue;
+            }
+            batch.get(i).result().complete(rows.get(i));
+            stored.add(rows.get(i));
+        }
+        announce(stored);
+    }
+
+    /** One fan-out task per committed batch. */
+    private void announce(List<MessageDTO> stored) {
+        if (stored.isEmpty())
+            return;
+        List<MessageDTO> copy = List.copyOf(stored);
+        fanout.execute(() -> {
+            for (MessageDTO dto : copy) {
+                try {
+                    events.publishEvent(new MessageSentEvent(dto));
+                } catch (RuntimeException e) {
+                    System.out.println("MessageSentEvent listener failed: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    // Postgres keeps microseconds; strictly increasing values keep (created_at, id) in accept order.
+    private OffsetDateTime nextCreatedAt() {
+        OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.MICROS);
+        if (!now.isAfter(lastCreatedAt))
+            now = lastCreatedAt.plus(1, ChronoUnit.MICROS);
+        lastCreatedAt = now;
+        return now;
+    }
+}
@@ -0,0 +1,9 @@
+package org.example.marketplace.chat.service;
+
+import org.example.marketplace.chat.dto.MessageDTO;
+
+/**
+ * Published by ChatService for every stored message; listeners that need the
+ * message to be durable use @TransactionalEventListener (after commit).
+ */
+public record MessageSentEvent(MessageDTO message) {}
@@ -0,0 +1,188 @@
+package org.example.marketplace.chat.service;
+
+import org.example.marketplace.chat.dto.PresenceDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * "Online now" and "typing…" state, kept in memory only.
+ *
+ * How it works:
+ * - One ConcurrentHashMap per kind of state (seen, typing). After the first
+ * touch of a user a heartbeat is a single atomic write on its entry; expiry
+ * sweeps walk the map, which never blocks writers.
+ * - A user is online while their last heartbeat/activity is younger than
+ * app.chat.presence.online-ms. Typing marks expire after app.chat.presence.typing-ms
+ * and are pushed to the conversation (ChatHub "typing") when they start.
+ * - The only database write is flush(): every app.chat.presence.flush-ms the
+ * users seen since the previous flush get users.last_seen_at in one UPDATE.
+ * Users not in memory (idle, or connected to another node) are answered from
+ * last_seen_at with one batched query.
+ */
+@Service
+public class PresenceService {
+
+    private static final class Seen {
+        final AtomicLong at = new AtomicLong();
+        volatile long flushedAt;
+    }
+
+    private final JdbcTemplate jdbc;
+    private final ChatHub hub;
+    private final long onlineMs;
+    private final long typingMs;
+    private final long forgetMs;
+
+    private final Map<UUID, Seen> seen = new ConcurrentHashMap<>();
+    // conversation -> (user -> typing expiry)
+    private final Map<UUID, Map<UUID, Long>> typing = new ConcurrentHashMap<>();
+
+    public PresenceService(
+            JdbcTemplate jdbc,
+            ChatHub hub,
+            @Value("${app.chat.presence.online-ms:60000}") long onlineMs,
+            @Value("${app.chat.presence.typing-ms:6000}") long typingMs,
+            @Value("${app.chat.presence.forget-ms:600000}") long forgetMs) {
+        this.jdbc = jdbc;
+        this.hub = hub;
+        this.onlineMs = onlineMs;
+        this.typingMs = typingMs;
+        this.forgetMs = Math.max(forgetMs, onlineMs);
+    }
+
+    /** Heartbeat or any other sign of life from the user. */
+    public void touch(UUID userId) {
+        seen.computeIfAbsent(userId, k -> new Seen()).at.set(System.currentTimeMillis());
+    }
+
+    public void typing(UUID userId, UUID conversationId) {
+        touch(userId);
+        long now = System.currentTimeMillis();
+        Long[] previous = new Long[1];
+        // under the conversation's lock, so the sweep cannot drop the map in between
+        typing.compute(conversationId, (k, users) -> {
+            if (users == null)
+                users = new ConcurrentHashMap<>();
+            previous[0] = users.put(userId, now + typingMs);
+            return users;
+        });
+        if (previous[0] == null || previous[0] < now)
+            hub.publishToConversation(conversationId, "typing", Map.of("conversationId", conversationId, "userId", userId));
+    }
+
+    /** Sending counts as activity and ends the sender's typing mark. */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMessageSent(MessageSentEvent e) {
+        var m = e.message();
+        touch(m.senderId());
+        Map<UUID, Long> users = typing.get(m.conversationId());
+        if (users != null)
+            users.remove(m.senderId());
+    }
+
+    /** Users currently typing in the conversation. */
+    public List<UUID> typingIn(UUID conversationId) {
+        Map<UUID, Long> users = typing.get(conversationId);
+        if (users == null)
+            return List.of();
+        long now = System.currentTimeMillis();
+        List<UUID> result = new ArrayList<>();
+        users.forEach((userId, expires) -> {
+            if (expires >= now)
+                result.add(userId);
+        });
+        return result;
+    }
+
+    public List<PresenceDTO> presence(Collection<UUID> userIds) {
+        long now = System.currentTimeMillis();
+        Map<UUID, Long> lastSeen = new HashMap<>();
+        List<UUID> missing = new ArrayList<>();
+        for (UUID id : userIds) {
+            Seen s = seen.get(id);
+            if (s != null)
+                lastSeen.put(id, s.at.get());
+            else
+                missing.add(id);
+        }
+        if (!missing.isEmpty()) {
+            String[] ids = missing.stream().map(UUID::toString).distinct().toArray(String[]::new);
+            jdbc.query("SELECT id, last_seen_at FROM users WHERE id = ANY(CAST(? AS uuid[])) AND last_seen_at IS NOT NULL",
+                    rs -> {
+                        lastSeen.put(rs.getObject("id", UUID.class),
+                                rs.getObject("last_seen_at", OffsetDateTime.class).toInstant().toEpochMilli());
+                    }, (Object) ids);
+        }
+
+        List<PresenceDTO> result = new ArrayList<>(userIds.size());
+        for (UUID id : userIds) {
+            Long at = lastSeen.get(id);
+            result.add(new PresenceDTO(id, at != null && now - at < onlineMs,
+                    at == null ? null : Instant.ofEpochMilli(at).atOffset(ZoneOffset.UTC)));
+        }
+        return result;
+    }
+
+    /** Writes last_seen_at of everybody seen since the previous flush, in one statement. */
+    @Scheduled(fixedDelayString = "${app.chat.presence.flush-ms:60000}")
+    public void flush() {
+        List<String> ids = new ArrayList<>();
+        List<String> times = new ArrayList<>();
+        List<Seen> flushed = new ArrayList<>();
+        List<Long> values = new ArrayList<>();
+        seen.forEach((userId, s) -> {
+            long at = s.at.get();
+            if (at > s.flushedAt) {
+                ids.add(userId.toString());
+                times.add(Instant.ofEpochMilli(at).toString());
+                flushed.add(s);
+                values.add(at);
+            }
+        });
+        if (ids.isEmpty())
+            return;
+
+        try {
+            jdbc.update("""
+                    UPDATE users u
+                    SET last_seen_at = v.seen
+                    FROM unnest(CAST(? AS uuid[]), CAST(? AS timestamptz[])) AS v(id, seen)
+                    WHERE u.id = v.id
+                      AND (u.last_seen_at IS NULL OR u.last_seen_at < v.seen)
+                    """, ids.toArray(String[]::new), times.toArray(String[]::new));
+        } catch (RuntimeException e) {
+            System.out.println("last_seen flush failed: " + e.getMessage());
+            return;
+        }
+        for (int i = 0; i < flushed.size(); i++)
+            flushed.get(i).flushedAt = values.get(i);
+    }
+
+    /** Drops expired typing marks and users idle long enough to have been flushed. */
+    @Scheduled(fixedDelayString = "${app.chat.presence.sweep-ms:5000}")
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        for (UUID conversationId : typing.keySet()) {
+            typing.computeIfPresent(conversationId, (k, users) -> {
+                users.values().removeIf(expires -> expires < now);
+                return users.isEmpty() ? null : users;
+            });
+        }
+        seen.values().removeIf(s -> s.at.get() < now - forgetMs && s.flushedAt >= s.at.get());
+    }
+}
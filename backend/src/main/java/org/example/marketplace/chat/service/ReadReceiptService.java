@@ -0,0 +1,518 @@
+package org.example.marketplace.chat.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.marketplace.chat.dto.UnreadCountsDTO;
+import org.example.marketplace.config.PgNotifications;
+import org.example.marketplace.config.PgSnapshot;
+import org.example.marketplace.config.ReplayLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read receipts and unread badges.
+ *
+ * Purpose:
+ * - Mark-read is a memory write; the database is updated in batches.
+ * - Unread badges are answered from memory (no queries once a user is loaded).
+ *
+ * How it works:
+ * - markRead() stores the newest watermark per (user, conversation) in a pending
+ * map, so rapid reads of the same conversation coalesce into one write.
+ * - flush() (every app.chat.reads.flush-ms) moves conversation_participants.last_read_at
+ * forward and inserts the newly covered messages into message_reads, all pending
+ * entries in one JDBC batch / one transaction. Receipts are only written for the
+ * last app.chat.reads.receipt-days (a first read would otherwise cover the whole
+ * history, in every partition); older messages are read by the watermark alone.
+ * - Per-user counters are loaded with one query on the first badge lookup, then
+ * kept current from the "chat_unread" NOTIFY channel, so every node sees every
+ * change: V18 triggers announce each stored message (+1 for every other loaded
+ * participant) and each new participant; flush() announces the reads it wrote
+ * and the other nodes holding that user recount them. The node that took the
+ * read resets at once and recounts only a read up to an older message.
+ * - A load or recount remembers the snapshot it counted from (PgSnapshot); a
+ * message whose transaction that snapshot saw is not counted again, and one
+ * announced while the query ran is replayed after it (ReplayLog), so a count
+ * neither misses nor doubles a message however the two interleave.
+ * - Counters are locked per user; only numbering a change takes a shared lock.
+ * - Users idle longer than app.chat.reads.idle-minutes are dropped and reloaded
+ * on demand; after a LISTEN reconnect all counters are dropped.
+ */
+@Service
+public class ReadReceiptService {
+
+    static final String CHANNEL = "chat_unread";
+
+    // one key is 73 chars; stays well below the 8000-byte NOTIFY payload limit
+    private static final int READS_PER_NOTIFY = 100;
+
+    private static final String LOAD_SQL = """
+            SELECT pg_current_snapshot()::text AS snap,
+                   cp.conversation_id,
+                   (SELECT count(*)
+                    FROM messages m
+                    WHERE m.conversation_id = cp.conversation_id
+                      AND (cp.last_read_at IS NULL OR m.created_at > cp.last_read_at)
+                      AND m.sender_user_id <> cp.user_id
+                      AND NOT m.is_deleted) AS unread
+            FROM conversation_participants cp
+            WHERE cp.user_id = ?
+            """;
+
+    // One pending read: resolves the watermark (the message's created_at, or the mark
+    // time), records message_reads for the newly covered range (not before the receipt
+    // floor), then moves last_read_at.
+    private static final String FLUSH_SQL = """
+            WITH mark AS (
+                SELECT cp.conversation_id, cp.user_id, cp.last_read_at AS old_at,
+                       COALESCE((SELECT m.created_at FROM messages m
+                                 WHERE m.id = ? AND m.conversation_id = cp.conversation_id
+                                   AND m.created_at >= CAST(? AS timestamptz)
+                                   AND m.created_at < CAST(? AS timestamptz)), ?) AS new_at
+                FROM conversation_participants cp
+                WHERE cp.conversation_id = ? AND cp.user_id = ?
+                FOR UPDATE
+            ), receipts AS (
+                INSERT INTO message_reads (message_id, user_id, read_at)
+                SELECT m.id, mark.user_id, ?
+                FROM mark
+                JOIN messages m ON m.conversation_id = mark.conversation_id
+                WHERE m.sender_user_id <> mark.user_id
+                  AND NOT m.is_deleted
+                  AND m.created_at > CAST(? AS timestamptz)
+                  AND (mark.old_at IS NULL OR m.created_at > mark.old_at)
+                  AND m.created_at <= mark.new_at
+                ON CONFLICT DO NOTHING
+            )
+            UPDATE conversation_participants cp
+            SET last_read_at = mark.new_at
+            FROM mark
+            WHERE cp.conversation_id = mark.conversation_id
+              AND cp.user_id = mark.user_id
+              AND (cp.last_read_at IS NULL OR cp.last_read_at < mark.new_at)
+            """;
+
+    private static final String RECOUNT_SQL = """
+            SELECT pg_current_snapshot()::text AS snap,
+                   cp.conversation_id, cp.user_id,
+                   (SELECT count(*)
+                    FROM messages m
+                    WHERE m.conversation_id = cp.conversation_id
+                      AND (cp.last_read_at IS NULL OR m.created_at > cp.last_read_at)
+                      AND m.sender_user_id <> cp.user_id
+                      AND NOT m.is_deleted) AS unread
+            FROM unnest(CAST(? AS uuid[]), CAST(? AS uuid[])) AS k(conversation_id, user_id)
+            JOIN conversation_participants cp
+              ON cp.conversation_id = k.conversation_id AND cp.user_id = k.user_id
+            """;
+
+    private record Key(UUID userId, UUID conversationId) {
+    }
+
+    private record PendingRead(UUID messageId, OffsetDateTime at) {
+    }
+
+    /** A stored message (xid = its transaction) or, with xid = -1, a new participant. */
+    private record Change(UUID conversationId, UUID userId, long xid) {
+        boolean joined() {
+            return xid < 0;
+        }
+    }
+
+    /**
+     * Unread count of one conversation and the snapshot it was counted from (null = reset here).
+     * Changes numbered up to through are already in it (counted or replayed).
+     */
+    private static final class Unread {
+        long count;
+        PgSnapshot countedAt;
+        long through;
+
+        Unread(long count, PgSnapshot countedAt, long through) {
+            this.count = count;
+            this.countedAt = countedAt;
+            this.through = through;
+        }
+    }
+
+    /** One user's counters; guarded by its own monitor. */
+    private static final class UserCounters {
+        final Map<UUID, Unread> byConversation = new HashMap<>();
+        long through;
+        volatile long lastAccess = System.currentTimeMillis();
+
+        Unread get(UUID conversationId) {
+            return byConversation.computeIfAbsent(conversationId, k -> new Unread(0, null, through));
+        }
+    }
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final PgNotifications notifications;
+    private final long idleMillis;
+    private final long receiptDays;
+    private final Counter flushed;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Map<UUID, UserCounters> counters = new ConcurrentHashMap<>();
+    private final Map<Key, PendingRead> pending = new ConcurrentHashMap<>();
+    private final Set<Key> recount = ConcurrentHashMap.newKeySet();
+    // conversation -> newest message announced since startup (a read of it means "all read")
+    private final Map<UUID, UUID> latestMessage = new ConcurrentHashMap<>();
+    // conversation -> users whose counters are loaded (who to bump on a new message)
+    private final Map<UUID, Set<UUID>> loadedMembers = new ConcurrentHashMap<>();
+    private final ReplayLog<Change> changes = new ReplayLog<>();
+
+    public ReadReceiptService(
+            JdbcTemplate jdbc,
+            PlatformTransactionManager txManager,
+            PgNotifications notifications,
+            MeterRegistry meters,
+            @Value("${app.chat.reads.idle-minutes:30}") long idleMinutes,
+            @Value("${app.chat.reads.receipt-days:30}") long receiptDays) {
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(txManager);
+        this.notifications = notifications;
+        this.idleMillis = idleMinutes * 60_000L;
+        this.receiptDays = receiptDays;
+        this.flushed = meters.counter("chat.reads.flushed");
+
+        notifications.subscribe(CHANNEL, new PgNotifications.Listener() {
+            @Override
+            public void onNotification(String payload) {
+                onChange(payload);
+            }
+
+            @Override
+            public void onResync() {
+                dropAll();
+            }
+        });
+    }
+
+    public void markRead(UUID userId, UUID conversationId, UUID messageId) {
+        var key = new Key(userId, conversationId);
+        pending.put(key, new PendingRead(messageId, OffsetDateTime.now()));
+
+        UserCounters uc = counters.get(userId);
+        if (uc == null)
+            return; // loaded from the database (after the flush) on the next lookup
+        uc.lastAccess = System.currentTimeMillis();
+        synchronized (uc) {
+            Unread u = uc.get(conversationId);
+            u.count = 0;
+            u.countedAt = null;
+        }
+        if (messageId != null && !messageId.equals(latestMessage.get(conversationId)))
+            recount.add(key);
+    }
+
+    public UnreadCountsDTO unreadCounts(UUID userId) {
+        UserCounters uc = counters.get(userId);
+        if (uc == null)
+            uc = load(userId);
+        uc.lastAccess = System.currentTimeMillis();
+
+        long total = 0;
+        Map<UUID, Long> byConversation = new HashMap<>();
+        synchronized (uc) {
+            for (var e : uc.byConversation.entrySet()) {
+                long n = e.getValue().count;
+                if (n > 0) {
+                    byConversation.put(e.getKey(), n);
+                    total += n;
+                }
+            }
+        }
+        return new UnreadCountsDTO(total, byConversation);
+    }
+
+    /**
+     * Payload: "msg:{conversation}:{sender}:{message}:{xid}", "join:{conversation}:{user}"
+     * (V18 triggers) or "read:{node}:{conversation}/{user}:..." (flush()).
+     */
+    void onChange(String payload) {
+        if (payload == null)
+            return;
+        String[] p = payload.split(":");
+        try {
+            switch (p[0]) {
+                case "msg" -> stored(UUID.fromString(p[1]), UUID.fromString(p[2]), UUID.fromString(p[3]),
+                        Long.parseLong(p[4]));
+                case "join" -> joined(UUID.fromString(p[1]), UUID.fromString(p[2]));
+                case "read" -> readElsewhere(p);
+                default -> {
+                }
+            }
+        } catch (RuntimeException e) {
+            dropAll();
+        }
+    }
+
+    private void stored(UUID conversationId, UUID senderId, UUID messageId, long xid) {
+        Change c = new Change(conversationId, senderId, xid);
+        long seq = changes.append(c);
+        // read after append: a load that published before it replays nothing newer
+        Set<UUID> members = loadedMembers.get(conversationId);
+        if (members == null)
+            return;
+        latestMessage.put(conversationId, messageId);
+        for (UUID userId : members) {
+            UserCounters uc = counters.get(userId);
+            if (uc == null)
+                continue;
+            synchronized (uc) {
+                Unread u = uc.get(conversationId);
+                if (seq > u.through)
+                    count(u, userId, c);
+            }
+        }
+    }
+
+    private void joined(UUID conversationId, UUID userId) {
+        Change c = new Change(conversationId, userId, -1);
+        changes.append(c);
+        UserCounters uc = counters.get(userId);
+        if (uc == null)
+            return;
+        synchronized (uc) {
+            join(uc, c);
+        }
+    }
+
+    private void readElsewhere(String[] p) {
+        if (p[1].equals(nodeId))
+            return; // reset and recounted when it was taken
+        for (int i = 2; i < p.length; i++) {
+            String[] k = p[i].split("/", 2);
+            UUID conversationId = UUID.fromString(k[0]);
+            UUID userId = UUID.fromString(k[1]);
+            if (counters.containsKey(userId))
+                recount.add(new Key(userId, conversationId));
+        }
+    }
+
+    /** Caller holds uc. */
+    private void join(UserCounters uc, Change c) {
+        if (!uc.byConversation.containsKey(c.conversationId())) {
+            uc.get(c.conversationId());
+            addMember(c.conversationId(), c.userId());
+        }
+    }
+
+    /** Counts one stored message unless it is the user's own or already counted. Caller holds the counters. */
+    private static void count(Unread u, UUID userId, Change c) {
+        if (userId.equals(c.userId()))
+            return; // own message
+        if (u.countedAt == null || !u.countedAt.sees(c.xid()))
+            u.count++;
+    }
+
+    private void dropAll() {
+        changes.resync(); // loads running now may have missed notifications: don't cache them
+        counters.clear();
+        loadedMembers.clear();
+        latestMessage.clear();
+    }
+
+    @Scheduled(fixedDelayString = "${app.chat.reads.flush-ms:1000}")
+    public void flush() {
+        evictIdle();
+        if (writePending())
+            recount();
+    }
+
+    /** Writes the pending reads; false if that failed (they are put back). */
+    private boolean writePending() {
+        if (pending.isEmpty())
+            return true;
+
+        List<Key> keys = new ArrayList<>();
+        List<PendingRead> reads = new ArrayList<>();
+        List<Object[]> args = new ArrayList<>();
+        for (Key key : List.copyOf(pending.keySet())) {
+            PendingRead read = pending.remove(key);
+            if (read == null)
+                continue;
+            keys.add(key);
+            reads.add(read);
+            UUID messageId = read.messageId();
+            args.add(new Object[] {
+                    messageId,
+                    messageId == null ? "-infinity" : MessageIds.createdAtFrom(messageId),
+                    messageId == null ? "infinity" : MessageIds.createdAtTo(messageId),
+                    read.at(), key.conversationId(), key.userId(), read.at(),
+                    read.at().minusDays(receiptDays) });
+        }
+        if (args.isEmpty())
+            return true;
+
+        try {
+            tx.executeWithoutResult(status -> {
+                jdbc.batchUpdate(FLUSH_SQL, args);
+                announceReads(keys); // delivered on commit
+            });
+            flushed.increment(args.size());
+            return true;
+        } catch (RuntimeException e) {
+            // put them back unless a newer read arrived meanwhile
+            for (int i = 0; i < keys.size(); i++)
+                pending.putIfAbsent(keys.get(i), reads.get(i));
+            System.out.println("Read receipt flush failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void announceReads(List<Key> keys) {
+        for (int from = 0; from < keys.size(); from += READS_PER_NOTIFY) {
+            StringBuilder payload = new StringBuilder("read:").append(nodeId);
+            for (Key k : keys.subList(from, Math.min(keys.size(), from + READS_PER_NOTIFY)))
+                payload.append(':').append(k.conversationId()).append('/').append(k.userId());
+            notifications.publish(CHANNEL, payload.toString());
+        }
+    }
+
+    private void recount() {
+        if (recount.isEmpty())
+            return;
+        List<Key> keys = List.copyOf(recount);
+        keys.forEach(recount::remove);
+
+        String[] conversationIds = keys.stream().map(k -> k.conversationId().toString()).toArray(String[]::new);
+        String[] userIds = keys.stream().map(k -> k.userId().toString()).toArray(String[]::new);
+        try (var query = changes.begin()) {
+            record Row(UUID conversationId, UUID userId, long unread, PgSnapshot snap) {
+            }
+            List<Row> rows = jdbc.query(RECOUNT_SQL, (rs, i) -> new Row(
+                    rs.getObject("conversation_id", UUID.class),
+                    rs.getObject("user_id", UUID.class),
+                    rs.getLong("unread"),
+                    PgSnapshot.parse(rs.getString("snap"))),
+                    conversationIds, userIds);
+
+            for (Row r : rows) {
+                UserCounters uc = counters.get(r.userId());
+                if (uc == null)
+                    continue;
+                synchronized (uc) {
+                    var missed = changes.catchUp(query);
+                    Unread u = uc.get(r.conversationId());
+                    u.count = r.unread();
+                    u.countedAt = r.snap();
+                    u.through = missed.through();
+                    replay(uc, r.userId(), r.conversationId(), missed.missed());
+                }
+            }
+        }
+    }
+
+    private UserCounters load(UUID userId) {
+        try (var query = changes.begin()) {
+            Map<UUID, Long> unread = new HashMap<>();
+            PgSnapshot[] snap = new PgSnapshot[1];
+            jdbc.query(LOAD_SQL, rs -> {
+                unread.put(rs.getObject("conversation_id", UUID.class), rs.getLong("unread"));
+                snap[0] = PgSnapshot.parse(rs.getString("snap"));
+            }, userId);
+
+            UserCounters uc = new UserCounters();
+            synchronized (uc) {
+                for (var e : unread.entrySet())
+                    uc.byConversation.put(e.getKey(), new Unread(e.getValue(), snap[0], 0));
+
+                UserCounters[] existing = new UserCounters[1];
+                var missed = changes.catchUp(query, () -> {
+                    existing[0] = counters.putIfAbsent(userId, uc);
+                    if (existing[0] == null) {
+                        for (UUID conversationId : uc.byConversation.keySet())
+                            addMember(conversationId, userId);
+                    }
+                });
+                if (existing[0] != null)
+                    return existing[0]; // loaded concurrently
+                if (!missed.current())
+                    return uc; // notifications may have been lost meanwhile: answer once, not cached
+                uc.through = missed.through();
+                uc.byConversation.values().forEach(u -> u.through = missed.through());
+                replay(uc, userId, null, missed.missed());
+
+                // reads not flushed yet are newer than what the query saw
+                for (Key key : pending.keySet()) {
+                    if (key.userId().equals(userId)) {
+                        Unread u = uc.get(key.conversationId());
+                        u.count = 0;
+                        u.countedAt = null;
+                        recount.add(key);
+                    }
+                }
+                return uc;
+            }
+        }
+    }
+
+    /** Re-applies changes a query may have missed (one conversation or all). Caller holds uc. */
+    private void replay(UserCounters uc, UUID userId, UUID conversationId, List<ReplayLog.Entry<Change>> missed) {
+        for (var e : missed) {
+            Change c = e.change();
+            if (conversationId != null && !conversationId.equals(c.conversationId()))
+                continue;
+            if (c.joined()) {
+                if (c.userId().equals(userId))
+                    join(uc, c);
+            } else if (isLoadedMember(c.conversationId(), userId)) {
+                count(uc.get(c.conversationId()), userId, c);
+            }
+        }
+    }
+
+    private boolean isLoadedMember(UUID conversationId, UUID userId) {
+        Set<UUID> members = loadedMembers.get(conversationId);
+        return members != null && members.contains(userId);
+    }
+
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        for (var e : counters.entrySet()) {
+            UserCounters uc = e.getValue();
+            if (uc.lastAccess >= cutoff)
+                continue;
+            synchronized (uc) {
+                if (counters.remove(e.getKey(), uc)) {
+                    for (UUID conversationId : uc.byConversation.keySet())
+                        removeMember(conversationId, e.getKey());
+                }
+            }
+        }
+    }
+
+    private void addMember(UUID conversationId, UUID userId) {
+        loadedMembers.compute(conversationId, (k, set) -> {
+            if (set == null)
+                set = ConcurrentHashMap.newKeySet();
+            set.add(userId);
+            return set;
+        });
+    }
+
+    private void removeMember(UUID conversationId, UUID userId) {
+        Set<UUID> left = loadedMembers.computeIfPresent(conversationId, (k, set) -> {
+            set.remove(userId);
+            return set.isEmpty() ? null : set;
+        });
+        if (left == null)
+            latestMessage.remove(conversationId);
+    }
+}
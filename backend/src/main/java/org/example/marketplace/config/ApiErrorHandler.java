@@ -1,6 +1,7 @@
 // src/main/java/.../config/ApiErrorHandler.java
 package org.example.marketplace.config;
 
+import org.example.marketplace.auth.HashingOverloadedException;
 import org.springframework.http.*;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -23,4 +24,12 @@ public class ApiErrorHandler {
         );
         return ResponseEntity.badRequest().body(body);
     }
+
+    /** Password hashing is shedding load: tell the client when to come back. */
+    @ExceptionHandler(HashingOverloadedException.class)
+    public ResponseEntity<Map<String, Object>> handleHashingOverloaded(HashingOverloadedException ex) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(ex.getRetryAfterSeconds()))
+                .body(Map.of("message", ex.getMessage()));
+    }
 }
@@ -0,0 +1,78 @@
+package org.example.marketplace.config;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ConcurrentHashMap with an entry bound, for caches that load on miss.
+ *
+ * How it works:
+ * - When full, an arbitrary entry is dropped to make room; it is loaded again
+ * on its next miss. No recency bookkeeping, so a hit is a plain map read.
+ * - For caches invalidated from NOTIFY: take generation() before reading the
+ * source and put with it. Any invalidate() or clear() since then makes the put
+ * a no-op, so a value read before an eviction is never put back.
+ */
+public final class BoundedCache<K, V> {
+
+    private final int maxEntries;
+    private final Map<K, V> map = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    public BoundedCache(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    public V get(K key) {
+        return map.get(key);
+    }
+
+    /** For entries that never go stale. */
+    public void put(K key, V value) {
+        makeRoom(key);
+        map.put(key, value);
+    }
+
+    /** Puts unless something was invalidated after {@code generation} was taken; false if skipped. */
+    public boolean put(K key, V value, long generation) {
+        makeRoom(key);
+        boolean[] stored = new boolean[1];
+        // the check runs under the key's lock, which invalidate(key) also takes
+        map.compute(key, (k, old) -> {
+            stored[0] = this.generation.get() == generation;
+            return stored[0] ? value : old;
+        });
+        return stored[0];
+    }
+
+    public long generation() {
+        return generation.get();
+    }
+
+    public void invalidate(K key) {
+        generation.incrementAndGet();
+        map.remove(key);
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        map.clear();
+    }
+
+    /** Drops every entry whose key is not in keys (a full reload). */
+    public void retainAll(Collection<K> keys) {
+        map.keySet().retainAll(keys);
+    }
+
+    private void makeRoom(K key) {
+        if (map.size() < maxEntries || map.containsKey(key))
+            return;
+        var it = map.keySet().iterator();
+        if (it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+}
@@ -4,25 +4,25 @@ import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.example.marketplace.auth.JwtPrincipal;
 import org.example.marketplace.auth.JwtService;
+import org.example.marketplace.auth.TokenRevocations;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.User;
 import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
-import org.springframework.security.core.userdetails.User;
-import org.springframework.security.core.userdetails.UserDetails;
 
 import java.io.IOException;
-import java.util.List;
+import java.util.Optional;
 
 public class JwtAuthFilter extends OncePerRequestFilter {
 
     private final JwtService jwt;
+    private final TokenRevocations revocations;
 
-    public JwtAuthFilter(JwtService jwt) {
+    public JwtAuthFilter(JwtService jwt, TokenRevocations revocations) {
         this.jwt = jwt;
+        this.revocations = revocations;
     }
 
     @Override
@@ -30,6 +30,8 @@ public class JwtAuthFilter extends OncePerRequestFilter {
         String p = req.getServletPath();
         return (p.equals("/api/auth/register") && "POST".equals(req.getMethod()))
                 || (p.equals("/api/auth/login") && "POST".equals(req.getMethod()))
+                || (p.equals("/api/auth/refresh") && "POST".equals(req.getMethod()))
+                || (p.equals("/api/auth/logout") && "POST".equals(req.getMethod()))
                 || p.equals("/actuator/health")
                 || p.equals("/error");
     }
@@ -42,15 +44,11 @@ public class JwtAuthFilter extends OncePerRequestFilter {
         if (StringUtils.hasText(header) && header.startsWith("Bearer ")) {
             String token = header.substring(7);
 
-            if (jwt.isValid(token)) {
-                String email = jwt.getEmail(token);
-                String role  = jwt.getRole(token);
-
-                UserDetails principal = User.withUsername(email)
-                        .password("N/A")
-                        .roles(role)
-                        .build();
-
+            // one verification per request; repeat tokens are served from JwtService's cache
+            Optional<JwtPrincipal> verified = jwt.verify(token);
+            // revoked tokens (logout, disabled user) and tokens without a user id simply stay anonymous
+            if (verified.isPresent() && verified.get().uid() != null && !revocations.isRevoked(verified.get())) {
+                JwtPrincipal principal = verified.get();
                 var auth = new UsernamePasswordAuthenticationToken(
                         principal,
                         null,
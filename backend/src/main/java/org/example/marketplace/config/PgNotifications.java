@@ -0,0 +1,150 @@
+package org.example.marketplace.config;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * Cross-node cache invalidation over Postgres LISTEN/NOTIFY.
+ *
+ * Purpose:
+ * - Lets in-memory caches on every backend instance react to changes made by
+ * any other instance (or by SQL run directly against the DB) without polling.
+ *
+ * How it works:
+ * - One daemon thread holds a dedicated connection (outside the Hikari pool, so
+ * it never takes a slot from request traffic), LISTENs on every subscribed
+ * channel and dispatches payloads to the subscribers.
+ * - After a reconnect, notifications sent while we were away are lost, so every
+ * subscriber gets {@link Listener#onResync()} and should reload fully.
+ * - {@link #publish(String, String)} uses pg_notify, which is delivered when the
+ * caller's transaction commits (immediately if there is none).
+ */
+@Component
+public class PgNotifications implements SmartLifecycle {
+
+    /** Callback for one channel. */
+    public interface Listener {
+        void onNotification(String payload);
+
+        /** Connection was (re)established after a gap: drop/reload everything. */
+        default void onResync() {
+        }
+    }
+
+    private static final Pattern CHANNEL = Pattern.compile("[a-z_][a-z0-9_]*");
+    private static final long POLL_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    private final DataSourceProperties db;
+    private final JdbcTemplate jdbc;
+    private final Map<String, List<Listener>> listeners = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public PgNotifications(DataSourceProperties db, JdbcTemplate jdbc) {
+        this.db = db;
+        this.jdbc = jdbc;
+    }
+
+    public void subscribe(String channel, Listener listener) {
+        if (!CHANNEL.matcher(channel).matches())
+            throw new IllegalArgumentException("Invalid channel name: " + channel);
+        listeners.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    public void publish(String channel, String payload) {
+        jdbc.queryForList("SELECT pg_notify(?, ?)", channel, payload);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        thread = Thread.ofPlatform().daemon().name("pg-notify").start(this::loop);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void loop() {
+        long backoff = POLL_MS;
+        boolean connectedBefore = false;
+        while (running) {
+            try (Connection c = DriverManager.getConnection(
+                    db.determineUrl(), db.determineUsername(), db.determinePassword())) {
+                PGConnection pg = c.unwrap(PGConnection.class);
+                Set<String> listening = new HashSet<>();
+                listenNew(c, listening);
+
+                if (connectedBefore)
+                    listeners.values().forEach(ls -> ls.forEach(Listener::onResync));
+                connectedBefore = true;
+                backoff = POLL_MS;
+
+                while (running) {
+                    PGNotification[] batch = pg.getNotifications((int) POLL_MS);
+                    if (batch != null) {
+                        for (PGNotification n : batch)
+                            dispatch(n.getName(), n.getParameter());
+                    }
+                    listenNew(c, listening); // channels subscribed after start
+                }
+            } catch (SQLException e) {
+                if (!running)
+                    return;
+                System.out.println("LISTEN connection lost (" + e.getMessage() + "), retrying in " + backoff + " ms");
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+            }
+        }
+    }
+
+    private void listenNew(Connection c, Set<String> listening) throws SQLException {
+        for (String channel : listeners.keySet()) {
+            if (listening.add(channel)) {
+                try (Statement st = c.createStatement()) {
+                    st.execute("LISTEN " + channel); // validated identifier
+                }
+            }
+        }
+    }
+
+    private void dispatch(String channel, String payload) {
+        for (Listener l : listeners.getOrDefault(channel, List.of())) {
+            try {
+                l.onNotification(payload);
+            } catch (RuntimeException e) {
+                System.out.println("Notification handler failed on " + channel + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.example.marketplace.config;
+
+import java.util.Arrays;
+
+/**
+ * A Postgres MVCC snapshot (text form of pg_current_snapshot(): "xmin:xmax:xip,...").
+ *
+ * For in-memory counters that are loaded with a query and then bumped from
+ * NOTIFY payloads carrying pg_current_xact_id(): a change is already part of the
+ * loaded value exactly when {@link #sees(long)} its transaction, whatever order
+ * the query result and the notification arrive in.
+ */
+public record PgSnapshot(long xmin, long xmax, long[] inProgress) {
+
+    public static PgSnapshot parse(String text) {
+        String[] parts = text.split(":", 3);
+        if (parts.length != 3)
+            throw new IllegalArgumentException("Invalid snapshot: " + text);
+        long[] xip = parts[2].isEmpty()
+                ? new long[0]
+                : Arrays.stream(parts[2].split(",")).mapToLong(Long::parseLong).sorted().toArray();
+        return new PgSnapshot(Long.parseLong(parts[0]), Long.parseLong(parts[1]), xip);
+    }
+
+    /** True if a transaction with this id had committed when the snapshot was taken. */
+    public boolean sees(long xid) {
+        if (xid < xmin)
+            return true;
+        if (xid >= xmax)
+            return false;
+        return Arrays.binarySearch(inProgress, xid) < 0;
+    }
+}
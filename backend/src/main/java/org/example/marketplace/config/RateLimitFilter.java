@@ -0,0 +1,224 @@
+package org.example.marketplace.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.PathContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token-bucket rate limiting for expensive open endpoints (BCrypt, SMTP) and writes.
+ *
+ * How it works:
+ * - Rules come from app.rate-limit.rules: method + path pattern, the key the
+ * bucket is per ("ip" or "user"; "user" falls back to ip when anonymous), and
+ * {@code capacity} requests per {@code period} with bursts up to capacity.
+ * - Every rule that matches the request takes one token from its bucket; the
+ * first empty bucket answers 429 with Retry-After.
+ * - Buckets live in one ConcurrentHashMap per rule and are updated under their
+ * own monitor, so unrelated keys never contend. A bucket that has refilled to
+ * capacity is indistinguishable from a new one and is swept away.
+ * - Runs after JwtAuthFilter so "user" keys see the authenticated principal.
+ */
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    /** One configured limit; {@code method} null or blank = any method. */
+    public record Rule(String method, String pattern, String key, int capacity, Duration period) {
+    }
+
+    private static final class Bucket {
+        private double tokens;
+        private long lastNanos;
+
+        Bucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.lastNanos = now;
+        }
+
+        /** 0 if a token was taken, otherwise nanos until one is available. */
+        synchronized long take(double capacity, double perNano, long now) {
+            tokens = Math.min(capacity, tokens + (now - lastNanos) * perNano);
+            lastNanos = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / perNano);
+        }
+
+        synchronized boolean full(double capacity, double perNano, long now) {
+            return tokens + (now - lastNanos) * perNano >= capacity;
+        }
+    }
+
+    private static final class Limit {
+        final String method;
+        final PathPattern pattern;      // null when the pattern is a literal path
+        final boolean byUser;
+        final double capacity;
+        final double perNano;
+        final Counter rejected;
+        final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+        Limit(Rule r, PathPattern pattern, Counter rejected) {
+            this.method = (r.method() == null || r.method().isBlank()) ? null : r.method().toUpperCase();
+            this.pattern = pattern;
+            this.byUser = "user".equalsIgnoreCase(r.key());
+            this.capacity = Math.max(1, r.capacity());
+            this.perNano = capacity / Math.max(1, r.period().toNanos());
+            this.rejected = rejected;
+        }
+    }
+
+    // literal paths resolve with one hash lookup; only wildcard rules are matched one by one
+    private final Map<String, List<Limit>> byPath = new HashMap<>();
+    private final List<Limit> patterned = new ArrayList<>();
+    private final List<Limit> all = new ArrayList<>();
+    private final int maxKeysPerRule;
+
+    public RateLimitFilter(List<Rule> rules, int maxKeysPerRule, MeterRegistry meters) {
+        this.maxKeysPerRule = Math.max(1, maxKeysPerRule);
+        var parser = PathPatternParser.defaultInstance;
+        for (Rule r : rules) {
+            PathPattern p = parser.parse(r.pattern());
+            boolean literal = !r.pattern().contains("*") && !r.pattern().contains("{");
+            var limit = new Limit(r, literal ? null : p,
+                    Counter.builder("rate_limit.rejected").tag("pattern", r.pattern()).register(meters));
+            all.add(limit);
+            if (literal) byPath.computeIfAbsent(r.pattern(), k -> new ArrayList<>()).add(limit);
+            else patterned.add(limit);
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest req) {
+        return all.isEmpty();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest req, HttpServletResponse res, FilterChain chain)
+            throws ServletException, IOException {
+
+        String path = req.getServletPath();
+        List<Limit> exact = byPath.get(path);
+        if (exact == null && patterned.isEmpty()) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        long now = System.nanoTime();
+        String method = req.getMethod();
+        String ip = null;
+        String user = null;
+
+        if (exact != null) {
+            for (Limit l : exact) {
+                if (l.method != null && !l.method.equals(method)) continue;
+                if (ip == null) ip = clientIp(req);
+                if (l.byUser && user == null) user = userName();
+                long wait = take(l, (l.byUser && user != null) ? user : ip, now);
+                if (wait > 0) {
+                    reject(res, l, wait);
+                    return;
+                }
+            }
+        }
+        if (!patterned.isEmpty()) {
+            PathContainer container = PathContainer.parsePath(path);
+            for (Limit l : patterned) {
+                if (l.method != null && !l.method.equals(method)) continue;
+                if (!l.pattern.matches(container)) continue;
+                if (ip == null) ip = clientIp(req);
+                if (l.byUser && user == null) user = userName();
+                long wait = take(l, (l.byUser && user != null) ? user : ip, now);
+                if (wait > 0) {
+                    reject(res, l, wait);
+                    return;
+                }
+            }
+        }
+        chain.doFilter(req, res);
+    }
+
+    private long take(Limit l, String key, long now) {
+        Bucket b = l.buckets.get(key);
+        if (b == null) {
+            if (l.buckets.size() >= maxKeysPerRule) shrink(l, now);
+            b = l.buckets.computeIfAbsent(key, k -> new Bucket(l.capacity, now));
+        }
+        return b.take(l.capacity, l.perNano, now);
+    }
+
+    /** Drops buckets that have refilled; they would behave exactly like fresh ones. */
+    @Scheduled(fixedDelayString = "${app.rate-limit.sweep-ms:60000}")
+    public void evictIdle() {
+        long now = System.nanoTime();
+        for (Limit l : all) {
+            l.buckets.values().removeIf(b -> b.full(l.capacity, l.perNano, now));
+        }
+    }
+
+    /** Live buckets across all rules. */
+    int bucketCount() {
+        return all.stream().mapToInt(l -> l.buckets.size()).sum();
+    }
+
+    private void shrink(Limit l, long now) {
+        l.buckets.values().removeIf(b -> b.full(l.capacity, l.perNano, now));
+        if (l.buckets.size() < maxKeysPerRule) return;
+        // still full (e.g. spoofed addresses): shed an arbitrary slice to stay bounded
+        int excess = l.buckets.size() - maxKeysPerRule + Math.max(1, maxKeysPerRule / 10);
+        Iterator<String> it = l.buckets.keySet().iterator();
+        while (excess-- > 0 && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static void reject(HttpServletResponse res, Limit l, long waitNanos) throws IOException {
+        l.rejected.increment();
+        long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+        res.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        res.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(seconds));
+        res.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        res.getWriter().write("{\"message\":\"Too many requests, please retry later\"}");
+    }
+
+    private static String userName() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null || !auth.isAuthenticated() || auth instanceof AnonymousAuthenticationToken) return null;
+        return "u:" + auth.getName();
+    }
+
+    /**
+     * The TCP peer only: X-Forwarded-For is client-controlled, so trusting it here would
+     * let anyone pick a fresh bucket per request. Behind a reverse proxy, enable
+     * server.forward-headers-strategy (Tomcat RemoteIpValve, trusted hops in
+     * server.tomcat.remoteip.internal-proxies) and the real client shows up here.
+     */
+    private static String clientIp(HttpServletRequest req) {
+        return req.getRemoteAddr();
+    }
+}
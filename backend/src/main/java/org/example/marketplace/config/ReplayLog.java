@@ -0,0 +1,100 @@
+package org.example.marketplace.config;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The catch-up half of an exact in-memory counter (see {@link PgSnapshot}).
+ *
+ * A counter is loaded with a query and then kept current from NOTIFY payloads.
+ * A change announced while the query runs may or may not be in its result, so
+ * every change is numbered by append() and kept while any query is running; the
+ * loader replays the ones after its begin() and skips those its snapshot saw.
+ *
+ * The log has its own short lock; owners lock their counters per key. A change
+ * can therefore reach a counter both through a replay and directly. The owner
+ * calls catchUp() while holding the counter's lock and remembers
+ * {@link CatchUp#through()}: changes up to it arrive through the replay, later
+ * ones only directly.
+ */
+public final class ReplayLog<C> {
+
+    public record Entry<C>(long seq, C change) {
+    }
+
+    /**
+     * Changes a query may have missed, and the seq they run up to.
+     * current = false: a resync happened meanwhile; answer once, don't cache.
+     */
+    public record CatchUp<C>(boolean current, List<Entry<C>> missed, long through) {
+    }
+
+    /** One running load / recount; close() when it is done. */
+    public final class Query implements AutoCloseable {
+        private final long since;
+        private final long epoch;
+
+        private Query(long since, long epoch) {
+            this.since = since;
+            this.epoch = epoch;
+        }
+
+        @Override
+        public void close() {
+            finished(since);
+        }
+    }
+
+    private final ArrayDeque<Entry<C>> log = new ArrayDeque<>();
+    // seq at which each running query began
+    private final List<Long> running = new ArrayList<>();
+    private long seq;
+    private long epoch;
+
+    /** Numbers a change; kept only while a query may have missed it. */
+    public synchronized long append(C change) {
+        seq++;
+        if (!running.isEmpty())
+            log.addLast(new Entry<>(seq, change));
+        return seq;
+    }
+
+    public synchronized Query begin() {
+        running.add(seq);
+        return new Query(seq, epoch);
+    }
+
+    public CatchUp<C> catchUp(Query query) {
+        return catchUp(query, () -> {
+        });
+    }
+
+    /**
+     * The changes after the query began. publish (making the counter reachable
+     * for direct changes) runs first under the log's lock, and only if current.
+     */
+    public synchronized CatchUp<C> catchUp(Query query, Runnable publish) {
+        boolean current = query.epoch == epoch;
+        if (current)
+            publish.run();
+        List<Entry<C>> missed = new ArrayList<>();
+        for (Entry<C> e : log) {
+            if (e.seq() > query.since)
+                missed.add(e);
+        }
+        return new CatchUp<>(current, missed, seq);
+    }
+
+    /** After a LISTEN reconnect: queries running now may have missed changes. */
+    public synchronized void resync() {
+        epoch++;
+    }
+
+    private synchronized void finished(long since) {
+        running.remove(Long.valueOf(since));
+        long oldest = running.stream().mapToLong(Long::longValue).min().orElse(Long.MAX_VALUE);
+        while (!log.isEmpty() && log.peekFirst().seq() <= oldest)
+            log.pollFirst();
+    }
+}
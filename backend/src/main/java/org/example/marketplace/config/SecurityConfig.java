@@ -1,19 +1,19 @@
 package org.example.marketplace.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.example.marketplace.auth.JwtService;
-import org.example.marketplace.user.UserRepository;
+import org.example.marketplace.auth.TokenRevocations;
+import jakarta.servlet.DispatcherType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.http.HttpMethod;
-import org.springframework.security.authentication.AuthenticationManager;
-import org.springframework.security.authentication.ProviderManager;
-import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
-import org.springframework.security.core.userdetails.User;
-import org.springframework.security.core.userdetails.UserDetailsService;
-import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
@@ -30,33 +30,26 @@ import java.util.List;
 @EnableMethodSecurity
 public class SecurityConfig {
 
-    @Bean
-    public UserDetailsService userDetailsService(UserRepository repo) {
-        return username -> repo.findByEmailIgnoreCase(username)
-                .map(u -> User.withUsername(u.getEmail())
-                        .password(u.getPasswordHash())
-                        .roles(u.getRole().name())
-                        .disabled(!u.isActive())
-                        .build())
-                .orElseThrow(() -> new UsernameNotFoundException("User not found"));
-    }
-
+    /** Used by PasswordHasher only; login checks passwords in AuthService, not via an AuthenticationManager. */
     @Bean
     public PasswordEncoder passwordEncoder() {
         return new BCryptPasswordEncoder();
     }
 
     @Bean
-    public AuthenticationManager authenticationManager(UserDetailsService uds, PasswordEncoder encoder) {
-        var provider = new DaoAuthenticationProvider();
-        provider.setUserDetailsService(uds);
-        provider.setPasswordEncoder(encoder);
-        return new ProviderManager(provider);
+    public JwtAuthFilter jwtAuthFilter(JwtService jwt, TokenRevocations revocations) {
+        return new JwtAuthFilter(jwt, revocations);
     }
 
     @Bean
-    public JwtAuthFilter jwtAuthFilter(JwtService jwt) {
-        return new JwtAuthFilter(jwt);
+    public RateLimitFilter rateLimitFilter(
+            Environment env,
+            MeterRegistry meters,
+            @Value("${app.rate-limit.max-keys-per-rule:100000}") int maxKeysPerRule) {
+        List<RateLimitFilter.Rule> rules = Binder.get(env)
+                .bind("app.rate-limit.rules", Bindable.listOf(RateLimitFilter.Rule.class))
+                .orElse(List.of());
+        return new RateLimitFilter(rules, maxKeysPerRule, meters);
     }
 
     // --- CORS
@@ -77,7 +70,8 @@ public class SecurityConfig {
     }
 
     @Bean
-    public SecurityFilterChain securityFilterChain(HttpSecurity http, JwtAuthFilter jwt) throws Exception {
+    public SecurityFilterChain securityFilterChain(HttpSecurity http, JwtAuthFilter jwt, RateLimitFilter rateLimit)
+            throws Exception {
         http
                 .csrf(csrf -> csrf.disable())
                 .cors(cors -> cors.configurationSource(corsConfigurationSource()))
@@ -85,8 +79,11 @@ public class SecurityConfig {
                 .authorizeHttpRequests(auth -> auth
                         // public
                         .requestMatchers(HttpMethod.OPTIONS, "/**").permitAll() // <-- preflight liber
+                        // async re-dispatch of an already authorized SSE stream (/api/chat/stream)
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                         .requestMatchers("/actuator/health", "/error").permitAll()
-                        .requestMatchers(HttpMethod.POST, "/api/auth/register", "/api/auth/login").permitAll()
+                        .requestMatchers(HttpMethod.POST, "/api/auth/register", "/api/auth/login",
+                                "/api/auth/refresh", "/api/auth/logout").permitAll()
                         .requestMatchers("/api/auth/verify-email").permitAll()
                         .requestMatchers(HttpMethod.GET, "/api/search/**").permitAll()
                         .requestMatchers(HttpMethod.POST, "/api/search/**").permitAll()
@@ -105,16 +102,33 @@ public class SecurityConfig {
                         .hasAnyRole("USER", "FARMER", "ADMIN")
                         .requestMatchers(HttpMethod.GET, "/api/chat/conversations")
                         .hasAnyRole("USER", "FARMER", "ADMIN")
+                        .requestMatchers(HttpMethod.GET, "/api/chat/inbox")
+                        .hasAnyRole("USER", "FARMER", "ADMIN")
+                        .requestMatchers(HttpMethod.GET, "/api/chat/stream")
+                        .hasAnyRole("USER", "FARMER", "ADMIN")
+                        .requestMatchers(HttpMethod.GET, "/api/chat/search")
+                        .hasAnyRole("USER", "FARMER", "ADMIN")
+                        .requestMatchers("/api/chat/presence/**", "/api/chat/presence", "/api/chat/typing")
+                        .hasAnyRole("USER", "FARMER", "ADMIN")
+                        .requestMatchers(HttpMethod.GET, "/api/chat/unread")
+                        .hasAnyRole("USER", "FARMER", "ADMIN")
+                        .requestMatchers(HttpMethod.POST, "/api/chat/read")
+                        .hasAnyRole("USER", "FARMER", "ADMIN")
                         .requestMatchers(HttpMethod.GET, "/api/chat/messages").hasAnyRole("USER", "FARMER", "ADMIN")
                         .requestMatchers(HttpMethod.POST, "/api/chat/messages").hasAnyRole("USER", "FARMER", "ADMIN")
 
+                        .requestMatchers("/api/notifications/**", "/api/notifications")
+                        .hasAnyRole("USER", "FARMER", "ADMIN")
+
                         .requestMatchers(HttpMethod.POST, "/api/support/**").permitAll()
 
                         .requestMatchers("/api/admin/**").hasRole("ADMIN")
                         .anyRequest().authenticated()
 
                 )
-                .addFilterBefore(jwt, UsernamePasswordAuthenticationFilter.class);
+                .addFilterBefore(jwt, UsernamePasswordAuthenticationFilter.class)
+                // after the JWT filter so per-user buckets see the principal
+                .addFilterAfter(rateLimit, JwtAuthFilter.class);
 
         return http.build();
     }
@@ -0,0 +1,186 @@
+package org.example.marketplace.emailverification;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers email_outbox rows (V15).
+ *
+ * How it works:
+ * - Claims up to batch-size due rows with FOR UPDATE SKIP LOCKED and pushes
+ * their next_attempt_at forward by a lease in the same statement, so the SMTP
+ * work happens outside any transaction and several nodes can run this safely.
+ * A node that dies mid-send only delays its rows until the lease runs out.
+ * - The lease must outlast the slowest batch, or another node reclaims rows
+ * still being sent and delivers them twice. It is derived from the SMTP
+ * timeouts: connect once, then up to one read and one write timeout per
+ * message, plus LEASE_MARGIN_SECONDS; app.mail.outbox.lease-seconds is a floor.
+ * - The claimed batch goes out through one SMTP connection
+ * (JavaMailSender.send(SimpleMailMessage...) connects once per call).
+ * - Sent rows are deleted; failed ones are rescheduled with exponential backoff
+ * and parked (next_attempt_at = 'infinity') after max-attempts.
+ * - app.mail.outbox.enabled=false turns delivery off on a node; rows wait.
+ */
+@Component
+@ConditionalOnProperty(name = "app.mail.outbox.enabled", havingValue = "true", matchIfMissing = true)
+public class EmailOutboxWorker {
+
+    private static final String CLAIM_SQL = """
+            UPDATE email_outbox o
+            SET next_attempt_at = now() + make_interval(secs => ?), attempts = o.attempts + 1
+            FROM (
+                SELECT id FROM email_outbox
+                WHERE next_attempt_at <= now()
+                ORDER BY next_attempt_at
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            ) due
+            WHERE o.id = due.id
+            RETURNING o.id, o.recipient, o.subject, o.body, o.attempts
+            """;
+
+    private static final String RETRY_SQL = """
+            UPDATE email_outbox
+            SET next_attempt_at = CASE WHEN attempts >= ? THEN 'infinity'::timestamptz
+                                       ELSE now() + make_interval(secs => ?) END,
+                last_error = ?
+            WHERE id = ?
+            """;
+
+    // claim and settle round trips
+    private static final long LEASE_MARGIN_SECONDS = 30;
+
+    private record Claimed(UUID id, String recipient, String subject, String body, int attempts) {
+    }
+
+    private final JdbcTemplate jdbc;
+    private final JavaMailSender mail;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long leaseSeconds;
+    private final long backoffBaseSeconds;
+    private final long backoffMaxSeconds;
+    private final Counter sent;
+    private final Counter failed;
+
+    public EmailOutboxWorker(
+            JdbcTemplate jdbc,
+            JavaMailSender mail,
+            MeterRegistry meters,
+            @Value("${app.mail.outbox.batch-size:50}") int batchSize,
+            @Value("${app.mail.outbox.max-attempts:8}") int maxAttempts,
+            @Value("${app.mail.outbox.lease-seconds:120}") long leaseSeconds,
+            @Value("${app.mail.outbox.backoff-base-seconds:30}") long backoffBaseSeconds,
+            @Value("${app.mail.outbox.backoff-max-seconds:3600}") long backoffMaxSeconds,
+            @Value("${spring.mail.properties.mail.smtp.connectiontimeout:10000}") long connectTimeoutMs,
+            @Value("${spring.mail.properties.mail.smtp.timeout:10000}") long readTimeoutMs,
+            @Value("${spring.mail.properties.mail.smtp.writetimeout:10000}") long writeTimeoutMs) {
+        this.jdbc = jdbc;
+        this.mail = mail;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        long worstBatchMs = connectTimeoutMs + this.batchSize * (readTimeoutMs + writeTimeoutMs);
+        this.leaseSeconds = Math.max(leaseSeconds, worstBatchMs / 1000 + LEASE_MARGIN_SECONDS);
+        this.backoffBaseSeconds = backoffBaseSeconds;
+        this.backoffMaxSeconds = backoffMaxSeconds;
+        this.sent = Counter.builder("mail.outbox.sent").register(meters);
+        this.failed = Counter.builder("mail.outbox.failed").register(meters);
+    }
+
+    @Scheduled(fixedDelayString = "${app.mail.outbox.poll-ms:2000}")
+    public void drain() {
+        int delivered;
+        do {
+            delivered = deliverBatch();
+        } while (delivered == batchSize); // a full batch means more may be waiting; a failure or a short one ends the run
+    }
+
+    long leaseSeconds() {
+        return leaseSeconds;
+    }
+
+    /** Claims, sends and settles one batch; returns how many were delivered. */
+    int deliverBatch() {
+        List<Claimed> batch = jdbc.query(CLAIM_SQL,
+                (rs, i) -> new Claimed(
+                        rs.getObject("id", UUID.class),
+                        rs.getString("recipient"),
+                        rs.getString("subject"),
+                        rs.getString("body"),
+                        rs.getInt("attempts")),
+                leaseSeconds, batchSize);
+        if (batch.isEmpty()) return 0;
+
+        Map<SimpleMailMessage, Claimed> byMessage = new IdentityHashMap<>();
+        for (Claimed c : batch) {
+            SimpleMailMessage msg = new SimpleMailMessage();
+            msg.setTo(c.recipient());
+            msg.setSubject(c.subject());
+            msg.setText(c.body());
+            byMessage.put(msg, c);
+        }
+
+        Map<Object, Exception> failures = new IdentityHashMap<>();
+        long started = System.nanoTime();
+        try {
+            mail.send(byMessage.keySet().toArray(SimpleMailMessage[]::new));
+        } catch (MailSendException e) {
+            // per-message failures are reported individually; none listed = the whole batch failed
+            if (e.getFailedMessages().isEmpty()) byMessage.keySet().forEach(m -> failures.put(m, e));
+            else failures.putAll(e.getFailedMessages());
+        } catch (MailException e) {
+            byMessage.keySet().forEach(m -> failures.put(m, e));
+        }
+        long tookSeconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started);
+        if (tookSeconds >= leaseSeconds)
+            System.out.println("email_outbox batch took " + tookSeconds + " s, past its " + leaseSeconds
+                    + " s lease; other nodes may have sent some of it again");
+
+        List<UUID> delivered = new ArrayList<>();
+        List<Object[]> retries = new ArrayList<>();
+        byMessage.forEach((msg, c) -> {
+            Exception err = failures.get(msg);
+            if (err == null) {
+                delivered.add(c.id());
+                return;
+            }
+            retries.add(new Object[]{maxAttempts, backoffSeconds(c.attempts()), String.valueOf(err.getMessage()), c.id()});
+            if (c.attempts() >= maxAttempts) {
+                // ids only: subjects and bodies carry verification / reset links
+                System.out.println("Giving up on email_outbox " + c.id() + " after " + c.attempts() + " attempts");
+            }
+        });
+
+        if (!delivered.isEmpty()) {
+            String[] ids = delivered.stream().map(UUID::toString).toArray(String[]::new);
+            jdbc.update("DELETE FROM email_outbox WHERE id = ANY(CAST(? AS uuid[]))", (Object) ids);
+            sent.increment(delivered.size());
+        }
+        if (!retries.isEmpty()) {
+            jdbc.batchUpdate(RETRY_SQL, retries);
+            failed.increment(retries.size());
+        }
+        return delivered.size();
+    }
+
+    private long backoffSeconds(int attempts) {
+        int shift = Math.min(Math.max(0, attempts - 1), 20);
+        return Math.min(backoffMaxSeconds, backoffBaseSeconds << shift);
+    }
+}
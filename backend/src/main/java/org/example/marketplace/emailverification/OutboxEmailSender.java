@@ -0,0 +1,24 @@
+package org.example.marketplace.emailverification;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Queues the email in email_outbox (V15) instead of talking to SMTP.
+ * JdbcTemplate joins the caller's transaction, so the email exists exactly
+ * when the caller's changes commit; EmailOutboxWorker delivers it.
+ */
+@Component
+public class OutboxEmailSender implements EmailSender {
+
+    private final JdbcTemplate jdbc;
+
+    public OutboxEmailSender(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    @Override
+    public void sendEmail(String to, String subject, String body) {
+        jdbc.update("INSERT INTO email_outbox (recipient, subject, body) VALUES (?, ?, ?)", to, subject, body);
+    }
+}
@@ -1,23 +0,0 @@
-package org.example.marketplace.emailverification;
-
-import lombok.RequiredArgsConstructor;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
-import org.springframework.stereotype.Component;
-
-@Component
-@RequiredArgsConstructor
-public class RealEmailSender implements EmailSender {
-
-    private final JavaMailSender mailSender;
-
-    @Override
-    public void sendEmail(String to, String subject, String body) {
-        SimpleMailMessage msg = new SimpleMailMessage();
-        msg.setTo(to);
-        msg.setSubject(subject);
-        msg.setText(body);
-
-        mailSender.send(msg);
-    }
-}
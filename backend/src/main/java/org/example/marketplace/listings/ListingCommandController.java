@@ -1,7 +1,8 @@
 package org.example.marketplace.listings;
 
+import org.example.marketplace.auth.JwtPrincipal;
 import org.springframework.http.HttpStatus;
-import org.springframework.security.core.Authentication;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -23,9 +24,8 @@ public class ListingCommandController {
     @ResponseStatus(HttpStatus.CREATED)
     public CreateListingResponse create(
             @RequestBody CreateListingRequest req,
-            Authentication authentication) {
-        String email = authentication.getName();
-        UUID id = listings.createListing(req, email);
+            @AuthenticationPrincipal JwtPrincipal user) {
+        UUID id = listings.createListing(req, user);
         return new CreateListingResponse(id);
     }
 
@@ -34,18 +34,16 @@ public class ListingCommandController {
     public void update(
             @PathVariable UUID listingId,
             @RequestBody UpdateListingRequest req,
-            Authentication authentication) {
-        String email = authentication.getName();
-        listings.updateListing(listingId, req, email);
+            @AuthenticationPrincipal JwtPrincipal user) {
+        listings.updateListing(listingId, req, user);
     }
 
     @DeleteMapping("/{listingId}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
     public void deleteListing(
             @PathVariable UUID listingId,
-            Authentication authentication) {
-        String email = authentication.getName();
-        listings.deleteListing(listingId, email);
+            @AuthenticationPrincipal JwtPrincipal user) {
+        listings.deleteListing(listingId, user);
     }
 
     @PostMapping("/{listingId}/images")
@@ -53,9 +51,8 @@ public class ListingCommandController {
     public void uploadImages(
             @PathVariable UUID listingId,
             @RequestParam("files") List<MultipartFile> files,
-            Authentication authentication) throws IOException {
-        String email = authentication.getName();
-        listings.uploadListingImages(listingId, files, email);
+            @AuthenticationPrincipal JwtPrincipal user) throws IOException {
+        listings.uploadListingImages(listingId, files, user);
     }
 
     @DeleteMapping("/{listingId}/images")
@@ -63,8 +60,7 @@ public class ListingCommandController {
     public void deleteImage(
             @PathVariable UUID listingId,
             @RequestParam("url") String url,
-            Authentication authentication) {
-        String email = authentication.getName();
-        listings.deleteListingImage(listingId, url, email);
+            @AuthenticationPrincipal JwtPrincipal user) {
+        listings.deleteListingImage(listingId, url, user);
     }
 }
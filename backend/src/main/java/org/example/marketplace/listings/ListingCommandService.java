@@ -1,77 +1,70 @@
 package org.example.marketplace.listings;
 
-import org.example.marketplace.user.UserEntity;
-import org.example.marketplace.user.UserRepository;
+import org.example.marketplace.auth.JwtPrincipal;
+import org.example.marketplace.media.MediaStorage;
+import org.example.marketplace.reference.ReferenceDataService;
+import org.example.marketplace.user.UserCache;
+import org.example.marketplace.user.UserRole;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.*;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 @Service
 public class ListingCommandService {
 
     private final JdbcTemplate jdbc;
-    private final UserRepository users;
+    private final UserCache profiles;
+    private final TransactionTemplate tx;
+    private final ReferenceDataService refs;
+    private final ApplicationEventPublisher events;
 
-    // One single upload dir, configurable via app.upload.dir
-    private final Path uploadRoot;
+    private final MediaStorage storage;
+
+    // Parallel storage writes for multi-image uploads (see UploadConfig)
+    private final Executor uploadExecutor;
+
+    // New/re-published listings expire after this many days (0 = never), see ListingExpiryJob
+    private final int listingTtlDays;
 
     public ListingCommandService(
             JdbcTemplate jdbc,
-            UserRepository users,
-            @Value("${app.upload.dir:uploads}") String uploadDir) {
+            UserCache profiles,
+            PlatformTransactionManager txManager,
+            MediaStorage storage,
+            ReferenceDataService refs,
+            ApplicationEventPublisher events,
+            @Qualifier("uploadExecutor") Executor uploadExecutor,
+            @Value("${app.listings.ttl-days:0}") int listingTtlDays) {
         this.jdbc = jdbc;
-        this.users = users;
-
-        // Absolute + normalized => consistent path regardless of working directory
-        this.uploadRoot = Paths.get(uploadDir).toAbsolutePath().normalize();
-    }
-
-    private String mapUnit(String code) {
-        if (code == null)
-            throw new IllegalArgumentException("Unit is required");
-
-        return switch (code) {
-            case "kg" -> "KG";
-            case "l" -> "L";
-            case "buc" -> "BOX";
-            default -> throw new IllegalArgumentException("Unsupported unit: " + code);
-        };
-    }
-
-    private UUID resolveCategoryId(String code) {
-        if (code == null || code.isBlank())
-            return null;
-
-        String dbName = switch (code.toLowerCase()) {
-            case "fructe" -> "Fruits";
-            case "legume" -> "Vegetables";
-            case "lactate", "oua" -> "Dairy";
-            case "carne" -> "Meat";
-            default -> null; // 'altele' or unknown
-        };
-
-        if (dbName == null)
-            return null;
-
-        try {
-            return jdbc.queryForObject("SELECT id FROM categories WHERE name = ?", UUID.class, dbName);
-        } catch (EmptyResultDataAccessException e) {
-            return null;
-        }
+        this.profiles = profiles;
+        this.tx = new TransactionTemplate(txManager);
+        this.storage = storage;
+        this.refs = refs;
+        this.events = events;
+        this.uploadExecutor = uploadExecutor;
+        this.listingTtlDays = Math.max(0, listingTtlDays);
     }
 
     @Transactional
-    public UUID createListing(CreateListingRequest req, String userEmail) {
+    public UUID createListing(CreateListingRequest req, JwtPrincipal user) {
         if (req.title() == null || req.title().isBlank()) {
             throw new IllegalArgumentException("Title is required");
         }
@@ -82,16 +75,13 @@ public class ListingCommandService {
             throw new IllegalArgumentException("Location (lat/lon) is required");
         }
 
-        UserEntity user = users.findByEmailIgnoreCase(userEmail)
-                .orElseThrow(() -> new IllegalArgumentException("User not found: " + userEmail));
-
         int priceCents = (int) Math.round(req.priceRon() * 100);
 
         UUID productId = UUID.randomUUID();
         UUID listingId = UUID.randomUUID();
 
-        String dbUnit = mapUnit(req.unit());
-        UUID categoryId = resolveCategoryId(req.categoryCode());
+        String dbUnit = refs.unitForCode(req.unit());
+        UUID categoryId = refs.categoryIdForCode(req.categoryCode());
 
         jdbc.update(
                 """
@@ -108,14 +98,16 @@ public class ListingCommandService {
                             price_cents, currency,
                             quantity, unit,
                             available,
-                            location
+                            location,
+                            expires_at
                         )
                         VALUES (?,?,?,?,?,?,?,?,CAST(? AS unit_type), TRUE,
-                                ST_SetSRID(ST_MakePoint(?, ?), 4326)::geography)
+                                ST_SetSRID(ST_MakePoint(?, ?), 4326)::geography,
+                                CASE WHEN ? > 0 THEN now() + make_interval(days => ?) END)
                         """,
                 listingId,
                 productId,
-                user.getId(),
+                user.uid(),
                 req.title(),
                 req.description(),
                 priceCents,
@@ -123,19 +115,18 @@ public class ListingCommandService {
                 1.0d,
                 dbUnit,
                 req.lon(),
-                req.lat());
+                req.lat(),
+                listingTtlDays,
+                listingTtlDays);
 
         return listingId;
     }
 
     @Transactional
-    public void updateListing(UUID listingId, UpdateListingRequest req, String userEmail) {
-        UserEntity user = users.findByEmailIgnoreCase(userEmail)
-                .orElseThrow(() -> new IllegalArgumentException("User not found: " + userEmail));
-
+    public void updateListing(UUID listingId, UpdateListingRequest req, JwtPrincipal user) {
         // Check ownership
         UUID ownerId = jdbc.queryForObject("SELECT farmer_user_id FROM listings WHERE id = ?", UUID.class, listingId);
-        if (!user.getId().equals(ownerId)) {
+        if (!user.uid().equals(ownerId)) {
             throw new IllegalArgumentException("Not allowed to edit this listing");
         }
 
@@ -147,7 +138,7 @@ public class ListingCommandService {
         }
         // Update Category if provided
         if (req.categoryCode() != null) {
-            UUID catId = resolveCategoryId(req.categoryCode());
+            UUID catId = refs.categoryIdForCode(req.categoryCode());
             jdbc.update("UPDATE products SET category_id = ? WHERE id = (SELECT product_id FROM listings WHERE id = ?)",
                     catId, listingId);
         }
@@ -157,14 +148,29 @@ public class ListingCommandService {
         }
         if (req.priceRon() != null) {
             int priceCents = (int) Math.round(req.priceRon() * 100);
-            jdbc.update("UPDATE listings SET price_cents = ? WHERE id = ?", priceCents, listingId);
+            // old price comes back from the same statement (row locked by the subquery)
+            var changed = jdbc.query("""
+                    UPDATE listings l SET price_cents = ?
+                    FROM (SELECT id, price_cents FROM listings WHERE id = ? FOR UPDATE) old
+                    WHERE l.id = old.id AND old.price_cents <> ?
+                    RETURNING old.price_cents, l.title
+                    """, (rs, i) -> new ListingPriceChangedEvent(
+                    listingId, rs.getString("title"), rs.getInt("price_cents"), priceCents),
+                    priceCents, listingId, priceCents);
+            // saved-listing notifications go out after commit (NotificationFanout)
+            changed.forEach(events::publishEvent);
         }
         if (req.unit() != null) {
-            String dbUnit = mapUnit(req.unit());
+            String dbUnit = refs.unitForCode(req.unit());
             jdbc.update("UPDATE listings SET unit = CAST(? AS unit_type) WHERE id = ?", dbUnit, listingId);
         }
         if (req.available() != null) {
             jdbc.update("UPDATE listings SET available = ? WHERE id = ?", req.available(), listingId);
+            if (req.available() && listingTtlDays > 0) {
+                // re-publishing starts a fresh lifetime (else ListingExpiryJob would flip it right back)
+                jdbc.update("UPDATE listings SET expires_at = now() + make_interval(days => ?) WHERE id = ?",
+                        listingTtlDays, listingId);
+            }
         }
         if (req.lat() != null && req.lon() != null) {
             jdbc.update("UPDATE listings SET location = ST_SetSRID(ST_MakePoint(?, ?), 4326)::geography WHERE id = ?",
@@ -173,33 +179,30 @@ public class ListingCommandService {
     }
 
     @Transactional
-    public void deleteListing(UUID listingId, String userEmail) {
+    public void deleteListing(UUID listingId, JwtPrincipal user) {
         // Ownership check
-        UserEntity user = users.findByEmailIgnoreCase(userEmail)
-                .orElseThrow(() -> new IllegalArgumentException("User not found"));
-
         UUID ownerId = jdbc.queryForObject("SELECT farmer_user_id FROM listings WHERE id = ?", UUID.class, listingId);
 
-        boolean isAdmin = user.getRole().name().equals("ADMIN");
-        if (!user.getId().equals(ownerId) && !isAdmin) {
+        boolean isOwner = user.uid().equals(ownerId);
+        if (!isOwner && !isAdmin(user)) {
             throw new IllegalArgumentException("Not allowed to delete this listing");
         }
+        if (!isOwner) {
+            String title = jdbc.queryForObject("SELECT title FROM listings WHERE id = ?", String.class, listingId);
+            events.publishEvent(new ListingRemovedEvent(listingId, ownerId, title, user.uid()));
+        }
 
-        // Deletion cascading is handled by DB FKs usually, but let's be explicit if
-        // needed
-        // Assuming ON DELETE CASCADE in SQL for listing_images, etc.
+        // ON DELETE CASCADE removes listing_images; the now unreferenced media_assets
+        // rows and files are reclaimed by MediaGarbageCollector
         jdbc.update("DELETE FROM listings WHERE id = ?", listingId);
     }
 
     @Transactional
-    public void deleteListingImage(UUID listingId, String imageUrl, String userEmail) {
+    public void deleteListingImage(UUID listingId, String imageUrl, JwtPrincipal user) {
         // Ownership check
-        UserEntity user = users.findByEmailIgnoreCase(userEmail)
-                .orElseThrow(() -> new IllegalArgumentException("User not found"));
         UUID ownerId = jdbc.queryForObject("SELECT farmer_user_id FROM listings WHERE id = ?", UUID.class, listingId);
 
-        boolean isAdmin = user.getRole().name().equals("ADMIN");
-        if (!user.getId().equals(ownerId) && !isAdmin) {
+        if (!user.uid().equals(ownerId) && !isAdmin(user)) {
             throw new IllegalArgumentException("Not allowed");
         }
 
@@ -216,8 +219,8 @@ public class ListingCommandService {
 
         for (UUID mid : mediaIds) {
             jdbc.update("DELETE FROM listing_images WHERE listing_id = ? AND media_asset_id = ?", listingId, mid);
-            // Optionally delete from media_assets and disk, but simple unlink is enough for
-            // now
+            // The media_assets row and the stored file are reclaimed later by
+            // MediaGarbageCollector once nothing references them
         }
     }
 
@@ -226,17 +229,19 @@ public class ListingCommandService {
      * If you still have any code calling uploadListingImages(listingId, files),
      * it will continue to compile.
      */
-    @Transactional
     public void uploadListingImages(UUID listingId, List<MultipartFile> files) throws IOException {
         uploadListingImages(listingId, files, null);
     }
 
     /**
-     * New version used by the controller: validates ownership by email (if
+     * New version used by the controller: validates ownership (if a user is
      * provided).
+     *
+     * Not @Transactional on purpose: files are written to storage in parallel with no
+     * DB connection held, then the metadata for the whole batch is inserted in one
+     * short transaction (constant number of round trips, whatever the file count).
      */
-    @Transactional
-    public void uploadListingImages(UUID listingId, List<MultipartFile> files, String email) throws IOException {
+    public void uploadListingImages(UUID listingId, List<MultipartFile> files, JwtPrincipal user) throws IOException {
         if (files == null || files.isEmpty())
             return;
 
@@ -251,18 +256,13 @@ public class ListingCommandService {
             throw new IllegalArgumentException("Listing not found: " + listingId);
         }
 
-        // If email is provided, ensure authenticated user owns this listing
-        if (email != null && !email.isBlank()) {
-            UserEntity user = users.findByEmailIgnoreCase(email)
-                    .orElseThrow(() -> new IllegalArgumentException("User not found: " + email));
-
-            if (!user.getId().equals(ownerUserId)) {
-                throw new IllegalArgumentException("Not allowed to upload images for this listing");
-            }
+        // If a user is provided, ensure they own this listing
+        if (user != null && !user.uid().equals(ownerUserId)) {
+            throw new IllegalArgumentException("Not allowed to upload images for this listing");
         }
 
-        Files.createDirectories(uploadRoot);
-
+        // Validate the whole batch up-front, so a bad file doesn't leave half of it on disk
+        List<MultipartFile> images = new ArrayList<>();
         for (MultipartFile file : files) {
             if (file == null || file.isEmpty())
                 continue;
@@ -272,54 +272,136 @@ public class ListingCommandService {
             if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("image/")) {
                 throw new IllegalArgumentException("Only image files are allowed");
             }
+            images.add(file);
+        }
+        if (images.isEmpty())
+            return;
 
-            UUID mediaId = UUID.randomUUID();
-
-            String safeOriginal = sanitizeOriginalFilename(file.getOriginalFilename());
+        List<StoredImage> stored = storeAll(images);
 
-            // Ensure filename has extension (helps browser display)
-            safeOriginal = ensureExtension(safeOriginal, contentType);
+        try {
+            tx.executeWithoutResult(status -> insertImageRows(listingId, stored));
+        } catch (RuntimeException ex) {
+            // Metadata was not written => the files are unreachable, don't leak them
+            deleteQuietly(stored);
+            throw ex;
+        }
+    }
 
-            String fileName = mediaId + "-" + safeOriginal;
+    /** A file already in storage, waiting for its media_assets/listing_images rows. */
+    private record StoredImage(UUID mediaId, String url, String key, String contentType, long sizeBytes) {
+    }
 
-            // Always inside uploadRoot
-            Path target = uploadRoot.resolve(fileName).normalize();
-            if (!target.startsWith(uploadRoot)) {
-                throw new IllegalArgumentException("Invalid file path");
+    /**
+     * Writes all files in parallel on the upload executor. Results keep the request
+     * order (it becomes sort_order). If any write fails, the others are removed.
+     */
+    private List<StoredImage> storeAll(List<MultipartFile> images) throws IOException {
+        List<CompletableFuture<StoredImage>> writes = images.stream()
+                .map(file -> CompletableFuture.supplyAsync(() -> store(file), uploadExecutor))
+                .toList();
+
+        List<StoredImage> stored = new ArrayList<>(writes.size());
+        Throwable failure = null;
+        for (CompletableFuture<StoredImage> write : writes) {
+            try {
+                stored.add(write.join());
+            } catch (CompletionException ex) {
+                if (failure == null)
+                    failure = ex.getCause();
             }
+        }
 
-            // Save file
-            try (InputStream in = file.getInputStream()) {
-                Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
-            }
+        if (failure != null) {
+            deleteQuietly(stored);
+            if (failure instanceof UncheckedIOException io)
+                throw io.getCause();
+            if (failure instanceof RuntimeException re)
+                throw re;
+            throw new IOException("Image upload failed", failure);
+        }
+        return stored;
+    }
+
+    private StoredImage store(MultipartFile file) {
+        String contentType = file.getContentType();
+        UUID mediaId = UUID.randomUUID();
 
-            // URL that frontend uses (served via WebConfig)
-            String url = "/uploads/" + fileName;
+        String safeOriginal = sanitizeOriginalFilename(file.getOriginalFilename());
+
+        // Ensure filename has extension (helps browser display)
+        safeOriginal = ensureExtension(safeOriginal, contentType);
+
+        // Sharded key, e.g. "3f/a2/{mediaId}-photo.jpg"
+        String key = MediaStorage.shardedKey(mediaId.toString(), safeOriginal);
+
+        // Save file (streamed, never fully buffered)
+        try (InputStream in = file.getInputStream()) {
+            storage.put(key, in, file.getSize(), contentType);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
 
-            jdbc.update(
+        // URL that frontend uses (served via MediaController)
+        String url = MediaStorage.URL_PREFIX + key;
+
+        return new StoredImage(mediaId, url, key, contentType, file.getSize());
+    }
+
+    /**
+     * One short transaction for the whole batch: lock the listing row (serializes
+     * concurrent uploads to the same listing) while reading the next sort_order,
+     * then two batched INSERTs. sort_order is assigned in memory.
+     */
+    private void insertImageRows(UUID listingId, List<StoredImage> stored) {
+        Integer nextSort;
+        try {
+            nextSort = jdbc.queryForObject(
                     """
-                            INSERT INTO media_assets (id, url, storage_path, mime_type, size_bytes, created_at)
-                            VALUES (?, ?, ?, ?, ?, now())
+                            SELECT COALESCE((SELECT MAX(li.sort_order) + 1
+                                             FROM listing_images li
+                                             WHERE li.listing_id = l.id), 0)
+                            FROM listings l
+                            WHERE l.id = ?
+                            FOR UPDATE
                             """,
-                    mediaId,
-                    url,
-                    target.toString(),
-                    contentType,
-                    file.getSize());
-
-            Integer nextSort = jdbc.queryForObject(
-                    "SELECT COALESCE(MAX(sort_order) + 1, 0) FROM listing_images WHERE listing_id = ?",
                     Integer.class,
                     listingId);
+        } catch (EmptyResultDataAccessException ex) {
+            throw new IllegalArgumentException("Listing not found: " + listingId);
+        }
 
-            jdbc.update(
-                    """
-                            INSERT INTO listing_images (listing_id, media_asset_id, sort_order)
-                            VALUES (?, ?, ?)
-                            """,
-                    listingId,
-                    mediaId,
-                    nextSort);
+        List<Object[]> assetRows = new ArrayList<>(stored.size());
+        List<Object[]> imageRows = new ArrayList<>(stored.size());
+        int sort = nextSort == null ? 0 : nextSort;
+        for (StoredImage img : stored) {
+            assetRows.add(new Object[] {
+                    img.mediaId(), img.url(), img.key(), img.contentType(), img.sizeBytes() });
+            imageRows.add(new Object[] { listingId, img.mediaId(), sort++ });
+        }
+
+        jdbc.batchUpdate(
+                """
+                        INSERT INTO media_assets (id, url, storage_path, mime_type, size_bytes, created_at)
+                        VALUES (?, ?, ?, ?, ?, now())
+                        """,
+                assetRows);
+
+        jdbc.batchUpdate(
+                """
+                        INSERT INTO listing_images (listing_id, media_asset_id, sort_order)
+                        VALUES (?, ?, ?)
+                        """,
+                imageRows);
+    }
+
+    private void deleteQuietly(List<StoredImage> stored) {
+        for (StoredImage img : stored) {
+            try {
+                storage.delete(img.key());
+            } catch (IOException | RuntimeException ignored) {
+                // best effort, the file is unreferenced either way
+            }
         }
     }
 
@@ -373,4 +455,11 @@ public class ListingCommandService {
 
         return name + ext;
     }
+
+    /** Admin rights are checked against the current role, not the one in the token. */
+    private boolean isAdmin(JwtPrincipal user) {
+        return profiles.get(user.uid())
+                .map(p -> p.active() && p.role() == UserRole.ADMIN)
+                .orElse(false);
+    }
 }
@@ -0,0 +1,70 @@
+package org.example.marketplace.listings;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Flips listings past their expires_at to unavailable.
+ *
+ * Small batches (FOR UPDATE SKIP LOCKED, so several nodes can run it and it
+ * never waits on a row a farmer is editing) with a pause in between keep each
+ * statement short. Expired rows leave the partial live-listing indexes, which
+ * keeps the working set of search/map proportional to live listings only.
+ * Exported as the listings.expired counter.
+ */
+@Component
+public class ListingExpiryJob {
+
+    private static final String EXPIRE_SQL = """
+            UPDATE listings SET available = FALSE
+            WHERE id IN (
+                SELECT id
+                FROM listings
+                WHERE available
+                  AND expires_at <= now()
+                ORDER BY expires_at
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            )
+            """;
+
+    private final JdbcTemplate jdbc;
+    private final int batchSize;
+    private final long pauseMs;
+    private final int maxBatchesPerRun;
+    private final Counter expired;
+
+    public ListingExpiryJob(
+            JdbcTemplate jdbc,
+            MeterRegistry meters,
+            @Value("${app.listings.expiry.batch-size:500}") int batchSize,
+            @Value("${app.listings.expiry.pause-ms:100}") long pauseMs,
+            @Value("${app.listings.expiry.max-batches-per-run:100}") int maxBatchesPerRun) {
+        this.jdbc = jdbc;
+        this.batchSize = Math.max(1, batchSize);
+        this.pauseMs = Math.max(0, pauseMs);
+        this.maxBatchesPerRun = Math.max(1, maxBatchesPerRun);
+        this.expired = meters.counter("listings.expired");
+    }
+
+    @Scheduled(initialDelayString = "${app.listings.expiry.interval-ms:60000}",
+            fixedDelayString = "${app.listings.expiry.interval-ms:60000}")
+    public void expireListings() {
+        for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+            int n = jdbc.update(EXPIRE_SQL, batchSize);
+            expired.increment(n);
+            if (n < batchSize)
+                return;
+            try {
+                Thread.sleep(pauseMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package org.example.marketplace.listings;
+
+import java.util.UUID;
+
+/** Published by ListingCommandService when a listing's price actually changes. */
+public record ListingPriceChangedEvent(UUID listingId, String title, int oldPriceCents, int newPriceCents) {}
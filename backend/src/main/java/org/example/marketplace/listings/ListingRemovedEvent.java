@@ -0,0 +1,6 @@
+package org.example.marketplace.listings;
+
+import java.util.UUID;
+
+/** Published when a listing is deleted by someone other than its owner (moderation). */
+public record ListingRemovedEvent(UUID listingId, UUID ownerId, String title, UUID removedBy) {}
@@ -0,0 +1,27 @@
+package org.example.marketplace.listings;
+
+/**
+ * Which listings a read query should see, as SQL shared by search and map.
+ *
+ * Live = available and not past expires_at. ListingExpiryJob flips expired rows to
+ * unavailable in the background; the expires_at check only covers the gap until
+ * it runs. The clause is returned as literal SQL (never a bind parameter) so the
+ * planner can prove "available" and pick the partial live-listing indexes (V5).
+ */
+public final class ListingVisibility {
+
+    private ListingVisibility() {
+    }
+
+    /**
+     * @param alias     listings table alias used in the query
+     * @param available true = live only, false = unavailable or expired, null = all
+     */
+    public static String clause(String alias, Boolean available) {
+        if (available == null)
+            return "TRUE";
+        return available
+                ? alias + ".available AND (" + alias + ".expires_at IS NULL OR " + alias + ".expires_at > now())"
+                : "(NOT " + alias + ".available OR " + alias + ".expires_at <= now())";
+    }
+}
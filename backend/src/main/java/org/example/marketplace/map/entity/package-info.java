@@ -1,6 +1,7 @@
 /**
  * We don’t define JPA @Entity types for the map layer.
- * Queries read from the Postgres VIEW v_listings_public via JdbcTemplate for performance.
+ * Queries read listings directly via JdbcTemplate for performance; product/category
+ * names come from ReferenceDataService (the v_listings_public view stays for ad-hoc use).
  * If later needed, add read-only entities here in a separate module.
  */
 package org.example.marketplace.map.entity;
@@ -1,23 +1,34 @@
 package org.example.marketplace.map.repository;
 
+import org.example.marketplace.listings.ListingVisibility;
 import org.example.marketplace.map.dto.ListingMapDTO;
 import org.example.marketplace.map.dto.ListingPointDTO;
+import org.example.marketplace.reference.ReferenceDataService;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.UUID;
 
 /**
- * JDBC + PostGIS queries. Uses view v_listings_public + the listings.location GiST index.
+ * JDBC + PostGIS queries on listings (+ users for the farmer name) and the
+ * live-listing location GiST index. Product and category names are resolved from
+ * ReferenceDataService instead of joining products/categories on every row.
  */
 @Repository
 public class ListingMapRepository {
+    // Map markers only ever show live listings (partial GiST index, see V5)
+    private static final String LIVE = ListingVisibility.clause("l", true);
+
     private final NamedParameterJdbcTemplate jdbc;
+    private final ReferenceDataService refs;
 
-    public ListingMapRepository(JdbcTemplate jdbc) {
+    public ListingMapRepository(JdbcTemplate jdbc, ReferenceDataService refs) {
         this.jdbc = new NamedParameterJdbcTemplate(jdbc);
+        this.refs = refs;
     }
 
     /** Text/category/availability with optional bbox; returns rich DTOs. */
@@ -28,30 +39,30 @@ public class ListingMapRepository {
     ) {
         StringBuilder sql = new StringBuilder("""
             SELECT
-                v.id::text,
-                v.title,
-                v.product_name,
-                v.category_name,
-                v.farmer_name,
-                v.lat,
-                v.lon,
-                v.price_cents,
-                v.currency,
-                v.quantity,
-                v.unit::text AS unit,
-                v.available,
-                v.address_text,
+                l.id::text,
+                l.title,
+                l.product_id,
+                u.display_name AS farmer_name,
+                ST_Y(l.location::geometry) AS lat,
+                ST_X(l.location::geometry) AS lon,
+                l.price_cents,
+                l.currency,
+                l.quantity,
+                l.unit::text AS unit,
+                l.available,
+                l.address_text,
 
                 -- ✅ first image (lowest sort_order)
                 (
                     SELECT ma.url
                     FROM listing_images li
                     JOIN media_assets ma ON ma.id = li.media_asset_id
-                    WHERE li.listing_id = v.id
+                    WHERE li.listing_id = l.id
                     ORDER BY li.sort_order ASC
                     LIMIT 1
                 ) AS image_url
-            FROM v_listings_public v
+            FROM listings l
+            JOIN users u ON u.id = l.farmer_user_id
             WHERE 1=1
         """);
 
@@ -59,23 +70,26 @@ public class ListingMapRepository {
 
         if (q != null && !q.isBlank()) {
             sql.append("""
-                AND (v.title ILIKE :q OR v.product_name ILIKE :q OR v.farmer_name ILIKE :q OR v.address_text ILIKE :q)
+                AND (l.title ILIKE :q OR u.display_name ILIKE :q OR l.address_text ILIKE :q
+                     OR EXISTS (SELECT 1 FROM products p WHERE p.id = l.product_id AND p.name ILIKE :q))
             """);
             p.addValue("q", "%" + q + "%");
         }
         if (category != null && !category.isBlank()) {
-            sql.append(" AND v.category_name = :cat ");
-            p.addValue("cat", category);
-        }
-        if (available != null) {
-            sql.append(" AND v.available = :avail ");
-            p.addValue("avail", available);
+            UUID categoryId = refs.categoryIdByName(category);
+            if (categoryId == null)
+                return List.of(); // unknown category => nothing can match
+            sql.append(" AND EXISTS (SELECT 1 FROM products p WHERE p.id = l.product_id AND p.category_id = :cat) ");
+            p.addValue("cat", categoryId);
         }
+        // live listings unless unavailable ones are asked for explicitly
+        sql.append(" AND ").append(ListingVisibility.clause("l", !Boolean.FALSE.equals(available))).append(' ');
         if (minLon != null && minLat != null && maxLon != null && maxLat != null) {
-            // LEAST/GREATEST handle swapped bounds
+            // LEAST/GREATEST handle swapped bounds; && on geography uses the GiST index
             sql.append("""
-                AND v.lon BETWEEN LEAST(:minLon, :maxLon) AND GREATEST(:minLon, :maxLon)
-                AND v.lat BETWEEN LEAST(:minLat, :maxLat) AND GREATEST(:minLat, :maxLat)
+                AND l.location && ST_MakeEnvelope(LEAST(:minLon, :maxLon), LEAST(:minLat, :maxLat),
+                                                  GREATEST(:minLon, :maxLon), GREATEST(:minLat, :maxLat),
+                                                  4326)::geography
             """);
             p.addValue("minLon", minLon);
             p.addValue("minLat", minLat);
@@ -83,40 +97,47 @@ public class ListingMapRepository {
             p.addValue("maxLat", maxLat);
         }
 
-        sql.append(" ORDER BY v.created_at DESC ");
+        sql.append(" ORDER BY l.created_at DESC ");
         sql.append(" LIMIT :lim ");
         p.addValue("lim", (limit == null || limit <= 0 || limit > 1000) ? 200 : limit);
 
-        return jdbc.query(sql.toString(), p, (rs, i) -> new ListingMapDTO(
-                rs.getString("id"),
-                rs.getString("title"),
-                rs.getString("product_name"),
-                rs.getString("category_name"),
-                rs.getString("farmer_name"),
-                (Double) rs.getObject("lat"),
-                (Double) rs.getObject("lon"),
-                (Integer) rs.getObject("price_cents"),
-                rs.getString("currency"),
-                rs.getObject("quantity") == null ? null : ((Number) rs.getObject("quantity")).doubleValue(),
-                rs.getString("unit"),
-                (Boolean) rs.getObject("available"),
-                rs.getString("address_text"),
-                rs.getString("image_url")
-        ));
+        return jdbc.query(sql.toString(), p, (rs, i) -> {
+            var product = refs.product(rs.getObject("product_id", UUID.class));
+            return new ListingMapDTO(
+                    rs.getString("id"),
+                    rs.getString("title"),
+                    product == null ? null : product.name(),
+                    product == null ? null : refs.categoryName(product.categoryId()),
+                    rs.getString("farmer_name"),
+                    (Double) rs.getObject("lat"),
+                    (Double) rs.getObject("lon"),
+                    (Integer) rs.getObject("price_cents"),
+                    rs.getString("currency"),
+                    rs.getObject("quantity") == null ? null : ((Number) rs.getObject("quantity")).doubleValue(),
+                    rs.getString("unit"),
+                    (Boolean) rs.getObject("available"),
+                    rs.getString("address_text"),
+                    rs.getString("image_url")
+            );
+        });
     }
 
-    /** Fast bounding-box query using lon/lat from the view. */
+    /** Fast bounding-box query on the location GiST index. */
     public List<ListingPointDTO> findInBbox(
             double minLon, double minLat, double maxLon, double maxLat, Integer limit
     ) {
         String sql = """
-            SELECT id::text, title, product_name, price_cents, currency, lon, lat, farmer_name
-            FROM v_listings_public
-            WHERE lon BETWEEN :minLon AND :maxLon
-              AND lat BETWEEN :minLat AND :maxLat
-            ORDER BY created_at DESC
+            SELECT l.id::text, l.title, l.product_id, l.price_cents, l.currency,
+                   ST_X(l.location::geometry) AS lon,
+                   ST_Y(l.location::geometry) AS lat,
+                   u.display_name AS farmer_name
+            FROM listings l
+            JOIN users u ON u.id = l.farmer_user_id
+            WHERE %s
+              AND l.location && ST_MakeEnvelope(:minLon, :minLat, :maxLon, :maxLat, 4326)::geography
+            ORDER BY l.created_at DESC
             LIMIT :lim
-        """;
+        """.formatted(LIVE);
 
         var p = new MapSqlParameterSource()
                 .addValue("minLon", minLon)
@@ -125,35 +146,27 @@ public class ListingMapRepository {
                 .addValue("maxLat", maxLat)
                 .addValue("lim", (limit == null || limit <= 0 || limit > 1000) ? 500 : limit);
 
-        return jdbc.query(sql, p, (rs, i) -> new ListingPointDTO(
-                rs.getString("id"),
-                rs.getString("title"),
-                rs.getString("product_name"),
-                (Integer) rs.getObject("price_cents"),
-                rs.getString("currency"),
-                (Double) rs.getObject("lon"),
-                (Double) rs.getObject("lat"),
-                rs.getString("farmer_name")
-        ));
+        return jdbc.query(sql, p, pointMapper());
     }
 
     /** Fast radius query using ST_DWithin on geography. */
     public List<ListingPointDTO> findInRadius(double lon, double lat, int meters, Integer limit) {
         String sql = """
-            SELECT v.id::text, v.title, v.product_name, v.price_cents, v.currency, v.lon, v.lat, v.farmer_name
-            FROM v_listings_public v
-            WHERE v.id IN (
-              SELECT l.id
-              FROM listings l
-              WHERE ST_DWithin(
+            SELECT l.id::text, l.title, l.product_id, l.price_cents, l.currency,
+                   ST_X(l.location::geometry) AS lon,
+                   ST_Y(l.location::geometry) AS lat,
+                   u.display_name AS farmer_name
+            FROM listings l
+            JOIN users u ON u.id = l.farmer_user_id
+            WHERE %s
+              AND ST_DWithin(
                 l.location,
                 ST_SetSRID(ST_MakePoint(:lon, :lat), 4326)::geography,
                 :meters
-              )
             )
-            ORDER BY v.created_at DESC
+            ORDER BY l.created_at DESC
             LIMIT :lim
-        """;
+        """.formatted(LIVE);
 
         var p = new MapSqlParameterSource()
                 .addValue("lon", lon)
@@ -161,15 +174,19 @@ public class ListingMapRepository {
                 .addValue("meters", Math.max(1, meters))
                 .addValue("lim", (limit == null || limit <= 0 || limit > 1000) ? 500 : limit);
 
-        return jdbc.query(sql, p, (rs, i) -> new ListingPointDTO(
+        return jdbc.query(sql, p, pointMapper());
+    }
+
+    private RowMapper<ListingPointDTO> pointMapper() {
+        return (rs, i) -> new ListingPointDTO(
                 rs.getString("id"),
                 rs.getString("title"),
-                rs.getString("product_name"),
+                refs.productName(rs.getObject("product_id", UUID.class)),
                 (Integer) rs.getObject("price_cents"),
                 rs.getString("currency"),
                 (Double) rs.getObject("lon"),
                 (Double) rs.getObject("lat"),
                 rs.getString("farmer_name")
-        ));
+        );
     }
 }
@@ -0,0 +1,89 @@
+package org.example.marketplace.media;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Filesystem-backed storage rooted at app.upload.dir. New files go into two
+ * levels of shard directories; legacy flat files ("/uploads/{file}") still
+ * resolve because their key is just the file name.
+ */
+@Component
+@ConditionalOnProperty(name = "app.media.storage", havingValue = "local", matchIfMissing = true)
+public class LocalMediaStorage implements MediaStorage {
+
+    private final Path root;
+
+    public LocalMediaStorage(@Value("${app.upload.dir:uploads}") String uploadDir) {
+        // Absolute + normalized => consistent path regardless of working directory
+        this.root = Paths.get(uploadDir).toAbsolutePath().normalize();
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    @Override
+    public void put(String key, InputStream in, long size, String contentType) throws IOException {
+        Path target = resolve(key);
+        Files.createDirectories(target.getParent());
+        Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public Optional<Resource> open(String key) {
+        Path file = resolve(key);
+        if (!Files.isRegularFile(file))
+            return Optional.empty();
+        return Optional.of(new FileSystemResource(file));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+
+    @Override
+    public void forEach(Consumer<StoredObject> action) throws IOException {
+        if (!Files.isDirectory(root))
+            return;
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(Files::isRegularFile).forEach(file -> {
+                try {
+                    // keys always use "/" (shard dirs), whatever the OS separator
+                    String key = root.relativize(file).toString().replace('\\', '/');
+                    action.accept(new StoredObject(key, Files.size(file),
+                            Files.getLastModifiedTime(file).toInstant()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Key -> path, always inside root. Older media_assets rows stored the absolute
+     * path, so those are accepted as long as they point inside root too.
+     */
+    Path resolve(String key) {
+        Path p = Paths.get(key);
+        Path target = (p.isAbsolute() ? p : root.resolve(key)).normalize();
+        if (!target.startsWith(root) || target.equals(root)) {
+            throw new IllegalArgumentException("Invalid file path");
+        }
+        return target;
+    }
+}
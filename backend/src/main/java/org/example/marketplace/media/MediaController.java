@@ -0,0 +1,48 @@
+package org.example.marketplace.media;
+
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Serves uploaded media ("/uploads/{key}") from whichever MediaStorage is active.
+ * Keys embed a random media id, so a URL never changes content and can be
+ * cached forever by browsers and proxies.
+ */
+@RestController
+public class MediaController {
+
+    private final MediaStorage storage;
+
+    public MediaController(MediaStorage storage) {
+        this.storage = storage;
+    }
+
+    @GetMapping("/uploads/{*key}")
+    public ResponseEntity<Resource> get(@PathVariable String key) throws IOException {
+        String k = key.startsWith("/") ? key.substring(1) : key;
+        if (k.isEmpty())
+            return ResponseEntity.notFound().build();
+
+        try {
+            return storage.open(k)
+                    .map(resource -> ResponseEntity.ok()
+                            .contentType(MediaTypeFactory.getMediaType(k)
+                                    .orElse(MediaType.APPLICATION_OCTET_STREAM))
+                            .cacheControl(CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable())
+                            .body(resource))
+                    .orElseGet(() -> ResponseEntity.notFound().build());
+        } catch (IllegalArgumentException e) {
+            // path escaping the storage root
+            return ResponseEntity.notFound().build();
+        }
+    }
+}
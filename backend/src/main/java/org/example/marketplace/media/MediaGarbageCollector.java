@@ -0,0 +1,210 @@
+package org.example.marketplace.media;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Reclaims media nobody points to any more.
+ *
+ * Purpose:
+ * - Unlinking an image (or deleting a listing) only removes listing_images
+ * rows; the media_assets row and the stored file stay behind.
+ *
+ * How it works:
+ * - Asset sweep: keyset-paged (by id) DELETE ... RETURNING of media_assets rows
+ * older than the grace period with no listing_images / message_attachments /
+ * farmer_profiles reference, then deletes their files from MediaStorage.
+ * - Orphan-file scan: lists MediaStorage and looks each batch of keys up by URL;
+ * files with no row (e.g. upload crashed before its metadata commit) are
+ * reported. They are only deleted with delete-orphan-files=true (off by
+ * default): matching is by URL, so the storage must belong to this app alone.
+ * - Rate-limited: fixed batch size, a pause between batches and a cap per run,
+ * so it never competes with request traffic for long.
+ * - Metrics: media.gc.assets.deleted, media.gc.bytes.reclaimed,
+ * media.gc.files.orphaned, media.gc.files.deleted.
+ */
+@Component
+@ConditionalOnProperty(name = "app.media.gc.enabled", havingValue = "true", matchIfMissing = true)
+public class MediaGarbageCollector {
+
+    private static final String SWEEP_SQL = """
+            WITH victims AS (
+                SELECT ma.id
+                FROM media_assets ma
+                WHERE ma.id > ?
+                  AND ma.created_at < ?
+                  AND NOT EXISTS (SELECT 1 FROM listing_images li WHERE li.media_asset_id = ma.id)
+                  AND NOT EXISTS (SELECT 1 FROM message_attachments a WHERE a.media_asset_id = ma.id)
+                  AND NOT EXISTS (SELECT 1 FROM farmer_profiles fp WHERE fp.id_card_image_id = ma.id)
+                ORDER BY ma.id
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            )
+            DELETE FROM media_assets ma
+            USING victims v
+            WHERE ma.id = v.id
+            RETURNING ma.id, ma.url, ma.storage_path, ma.size_bytes
+            """;
+
+    private final JdbcTemplate jdbc;
+    private final MediaStorage storage;
+
+    private final int batchSize;
+    private final long pauseMs;
+    private final int maxBatchesPerRun;
+    private final Duration grace;
+    private final boolean deleteOrphanFiles;
+
+    private final Counter assetsDeleted;
+    private final Counter bytesReclaimed;
+    private final Counter filesOrphaned;
+    private final Counter filesDeleted;
+
+    public MediaGarbageCollector(
+            JdbcTemplate jdbc,
+            MediaStorage storage,
+            MeterRegistry meters,
+            @Value("${app.media.gc.batch-size:200}") int batchSize,
+            @Value("${app.media.gc.pause-ms:250}") long pauseMs,
+            @Value("${app.media.gc.max-batches-per-run:50}") int maxBatchesPerRun,
+            @Value("${app.media.gc.grace-minutes:60}") long graceMinutes,
+            @Value("${app.media.gc.delete-orphan-files:false}") boolean deleteOrphanFiles) {
+        this.jdbc = jdbc;
+        this.storage = storage;
+        this.batchSize = Math.max(1, batchSize);
+        this.pauseMs = Math.max(0, pauseMs);
+        this.maxBatchesPerRun = Math.max(1, maxBatchesPerRun);
+        this.grace = Duration.ofMinutes(Math.max(1, graceMinutes));
+        this.deleteOrphanFiles = deleteOrphanFiles;
+
+        this.assetsDeleted = meters.counter("media.gc.assets.deleted");
+        this.bytesReclaimed = meters.counter("media.gc.bytes.reclaimed");
+        this.filesOrphaned = meters.counter("media.gc.files.orphaned");
+        this.filesDeleted = meters.counter("media.gc.files.deleted");
+    }
+
+    @Scheduled(initialDelayString = "${app.media.gc.initial-delay-ms:300000}",
+            fixedDelayString = "${app.media.gc.interval-ms:3600000}")
+    public void run() {
+        try {
+            sweepUnreferencedAssets();
+            scanOrphanFiles();
+        } catch (Exception e) {
+            // next run retries; never let the scheduler thread die
+            System.out.println("Media GC run failed: " + e.getMessage());
+        }
+    }
+
+    /** Deletes unreferenced media_assets rows batch by batch, then their files. */
+    void sweepUnreferencedAssets() {
+        Timestamp cutoff = Timestamp.from(Instant.now().minus(grace));
+        UUID cursor = new UUID(0L, 0L);
+
+        for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+            List<DeletedAsset> deleted = jdbc.query(SWEEP_SQL, (rs, i) -> new DeletedAsset(
+                    rs.getObject("id", UUID.class),
+                    rs.getString("url"),
+                    rs.getString("storage_path"),
+                    rs.getLong("size_bytes")),
+                    cursor, cutoff, batchSize);
+
+            // Rows are gone first: a file we then fail to delete is just an orphan
+            // file, which the scan below picks up on a later run.
+            for (DeletedAsset asset : deleted) {
+                String key = asset.storageKey();
+                if (key == null)
+                    continue;
+                try {
+                    storage.delete(key);
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("Media GC could not delete " + key + ": " + e.getMessage());
+                }
+            }
+
+            assetsDeleted.increment(deleted.size());
+            bytesReclaimed.increment(deleted.stream().mapToLong(DeletedAsset::sizeBytes).sum());
+
+            if (deleted.size() < batchSize)
+                return;
+            // Postgres orders uuids bytewise (= canonical string order), unlike UUID.compareTo
+            cursor = deleted.stream().map(DeletedAsset::id)
+                    .max(Comparator.comparing(UUID::toString)).orElse(cursor);
+            pause();
+        }
+    }
+
+    /** Finds stored files older than the grace period that no media_assets row points to. */
+    void scanOrphanFiles() throws IOException {
+        Instant cutoff = Instant.now().minus(grace);
+        List<MediaStorage.StoredObject> batch = new ArrayList<>(batchSize);
+
+        storage.forEach(object -> {
+            if (object.lastModified() == null || !object.lastModified().isBefore(cutoff))
+                return;
+            batch.add(object);
+            if (batch.size() >= batchSize) {
+                handleOrphanBatch(batch);
+                batch.clear();
+                pause();
+            }
+        });
+        if (!batch.isEmpty())
+            handleOrphanBatch(batch);
+    }
+
+    private void handleOrphanBatch(List<MediaStorage.StoredObject> batch) {
+        String[] urls = batch.stream().map(o -> MediaStorage.URL_PREFIX + o.key()).toArray(String[]::new);
+        Set<String> known = new HashSet<>(jdbc.queryForList(
+                "SELECT url FROM media_assets WHERE url = ANY(?)", String.class, (Object) urls));
+
+        for (MediaStorage.StoredObject object : batch) {
+            if (known.contains(MediaStorage.URL_PREFIX + object.key()))
+                continue;
+
+            filesOrphaned.increment();
+            if (!deleteOrphanFiles) {
+                System.out.println("Media GC found orphan file: " + object.key());
+                continue;
+            }
+            try {
+                storage.delete(object.key());
+                filesDeleted.increment();
+                bytesReclaimed.increment(object.sizeBytes());
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Media GC could not delete " + object.key() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void pause() {
+        if (pauseMs == 0)
+            return;
+        try {
+            Thread.sleep(pauseMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record DeletedAsset(UUID id, String url, String storagePath, long sizeBytes) {
+        /** storage_path holds the key (older rows: absolute path); fall back to the URL. */
+        String storageKey() {
+            if (storagePath != null && !storagePath.isBlank())
+                return storagePath;
+            if (url != null && url.startsWith(MediaStorage.URL_PREFIX))
+                return url.substring(MediaStorage.URL_PREFIX.length());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.example.marketplace.media;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Where uploaded media bytes live.
+ *
+ * Purpose:
+ * - Decouples listing uploads and the /uploads serving path from a single
+ * node's disk, so several backend instances can share the same media.
+ *
+ * How it connects:
+ * - ListingCommandService stores files through it and records the returned key
+ * in media_assets.storage_path (the public URL is "/uploads/" + key).
+ * - MediaController streams files back through {@link #open(String)}.
+ * - Implemented by LocalMediaStorage (sharded directory tree) and
+ * S3MediaStorage (any S3-compatible object store, e.g. MinIO), selected with
+ * app.media.storage=local|s3.
+ */
+public interface MediaStorage {
+
+    /** Public URL prefix under which every stored key is served. */
+    String URL_PREFIX = "/uploads/";
+
+    /**
+     * Streams {@code in} to the object identified by {@code key}. Implementations
+     * must not buffer the whole content in memory.
+     */
+    void put(String key, InputStream in, long size, String contentType) throws IOException;
+
+    /** Opens a stored object for reading, or empty if it does not exist. */
+    Optional<Resource> open(String key) throws IOException;
+
+    /** Deletes the object; missing objects are not an error. */
+    void delete(String key) throws IOException;
+
+    /**
+     * Visits every stored object (used by MediaGarbageCollector to find files
+     * that have no media_assets row).
+     */
+    void forEach(Consumer<StoredObject> action) throws IOException;
+
+    /** Listing entry: key plus what the GC needs to report / age it. */
+    record StoredObject(String key, long sizeBytes, Instant lastModified) {
+    }
+
+    /**
+     * Builds a sharded key for a new file: "ab/cd/{mediaId}-{fileName}". The two
+     * levels come from the (random) media id so files spread evenly and no single
+     * directory / key prefix grows without bound.
+     */
+    static String shardedKey(String mediaId, String fileName) {
+        String hex = mediaId.replace("-", "");
+        return hex.substring(0, 2) + "/" + hex.substring(2, 4) + "/" + mediaId + "-" + fileName;
+    }
+}
@@ -0,0 +1,189 @@
+package org.example.marketplace.media;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * S3-compatible object storage (AWS S3, MinIO, ...). Small files go up with a
+ * single streamed PUT; anything larger than one part is sent as a multipart
+ * upload, reading one part at a time, so memory per upload is bounded by
+ * app.media.s3.part-size-mb whatever the file size.
+ * The bucket is created on first use, never at construction, so an unreachable
+ * store does not keep the rest of the application from starting.
+ */
+@Component
+@ConditionalOnProperty(name = "app.media.storage", havingValue = "s3")
+public class S3MediaStorage implements MediaStorage, DisposableBean {
+
+    // S3 rejects non-final parts smaller than 5 MiB
+    private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private final S3Client s3;
+    private final String bucket;
+    private final int partSize;
+
+    private volatile boolean bucketReady;
+
+    public S3MediaStorage(
+            @Value("${app.media.s3.endpoint:}") String endpoint,
+            @Value("${app.media.s3.region:us-east-1}") String region,
+            @Value("${app.media.s3.bucket}") String bucket,
+            @Value("${app.media.s3.access-key}") String accessKey,
+            @Value("${app.media.s3.secret-key}") String secretKey,
+            @Value("${app.media.s3.part-size-mb:8}") int partSizeMb) {
+        S3ClientBuilder builder = S3Client.builder()
+                .region(Region.of(region))
+                .credentialsProvider(StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create(accessKey, secretKey)))
+                // MinIO and most self-hosted stores only support path-style URLs
+                .forcePathStyle(true);
+        if (endpoint != null && !endpoint.isBlank()) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+        this.s3 = builder.build();
+        this.bucket = bucket;
+        this.partSize = Math.max(MIN_PART_SIZE, partSizeMb * 1024 * 1024);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        try {
+            ensureBucket();
+        } catch (RuntimeException e) {
+            // first put() retries
+            System.out.println("S3 bucket " + bucket + " not reachable yet: " + e.getMessage());
+        }
+    }
+
+    private void ensureBucket() {
+        if (bucketReady)
+            return;
+        try {
+            s3.headBucket(HeadBucketRequest.builder().bucket(bucket).build());
+        } catch (NoSuchBucketException e) {
+            try {
+                s3.createBucket(CreateBucketRequest.builder().bucket(bucket).build());
+            } catch (BucketAlreadyOwnedByYouException ignored) {
+                // another node created it first
+            }
+        }
+        bucketReady = true;
+    }
+
+    @Override
+    public void put(String key, InputStream in, long size, String contentType) throws IOException {
+        ensureBucket();
+        if (size >= 0 && size <= partSize) {
+            s3.putObject(
+                    PutObjectRequest.builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .contentType(contentType)
+                            .contentLength(size)
+                            .build(),
+                    RequestBody.fromInputStream(in, size));
+            return;
+        }
+        putMultipart(key, in, contentType);
+    }
+
+    private void putMultipart(String key, InputStream in, String contentType) throws IOException {
+        String uploadId = s3.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .contentType(contentType)
+                .build()).uploadId();
+
+        try {
+            List<CompletedPart> parts = new ArrayList<>();
+            byte[] buf = new byte[partSize]; // the only buffer: one part, reused
+            int partNumber = 1;
+            while (true) {
+                int n = in.readNBytes(buf, 0, partSize);
+                if (n == 0 && partNumber > 1)
+                    break;
+
+                UploadPartResponse part = s3.uploadPart(
+                        UploadPartRequest.builder()
+                                .bucket(bucket)
+                                .key(key)
+                                .uploadId(uploadId)
+                                .partNumber(partNumber)
+                                .contentLength((long) n)
+                                .build(),
+                        RequestBody.fromInputStream(new ByteArrayInputStream(buf, 0, n), n));
+                parts.add(CompletedPart.builder().partNumber(partNumber).eTag(part.eTag()).build());
+                partNumber++;
+
+                if (n < partSize)
+                    break;
+            }
+
+            s3.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                    .build());
+        } catch (IOException | RuntimeException e) {
+            // don't leave billed, invisible parts behind
+            s3.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build());
+            throw e;
+        }
+    }
+
+    @Override
+    public Optional<Resource> open(String key) {
+        try {
+            var object = s3.getObject(GetObjectRequest.builder().bucket(bucket).key(key).build());
+            // streamed straight through to the HTTP response, closed by the converter
+            return Optional.of(new InputStreamResource(object));
+        } catch (NoSuchKeyException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void delete(String key) {
+        s3.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(key).build());
+    }
+
+    @Override
+    public void forEach(Consumer<StoredObject> action) {
+        // paginator fetches the next 1000 keys lazily as we iterate
+        s3.listObjectsV2Paginator(ListObjectsV2Request.builder().bucket(bucket).build())
+                .contents()
+                .forEach(o -> action.accept(new StoredObject(o.key(), o.size(), o.lastModified())));
+    }
+
+    @Override
+    public void destroy() {
+        s3.close();
+    }
+}
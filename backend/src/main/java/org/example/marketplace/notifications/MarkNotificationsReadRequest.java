@@ -0,0 +1,12 @@
+package org.example.marketplace.notifications;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import java.util.List;
+import java.util.UUID;
+
+public record MarkNotificationsReadRequest(
+        @NotEmpty(message = "At least one notification id is required")
+        @Size(max = 500, message = "Too many notification ids")
+        List<UUID> ids
+) {}
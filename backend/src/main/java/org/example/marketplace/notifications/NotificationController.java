@@ -0,0 +1,53 @@
+package org.example.marketplace.notifications;
+
+import jakarta.validation.Valid;
+import org.example.marketplace.auth.JwtPrincipal;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * The caller's notifications. New ones are also pushed live as "notification"
+ * events on the stream at /api/chat/stream.
+ */
+@RestController
+@RequestMapping("/api/notifications")
+public class NotificationController {
+
+    private final NotificationService service;
+
+    public NotificationController(NotificationService service) {
+        this.service = service;
+    }
+
+    @GetMapping
+    public NotificationPageDTO list(
+            @AuthenticationPrincipal JwtPrincipal principal,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size
+    ) {
+        return service.page(principal.uid(), cursor, size);
+    }
+
+    @GetMapping("/unread-count")
+    public Map<String, Long> unreadCount(@AuthenticationPrincipal JwtPrincipal principal) {
+        return Map.of("unread", service.unreadCount(principal.uid()));
+    }
+
+    @PostMapping("/read")
+    public ResponseEntity<Void> markRead(
+            @AuthenticationPrincipal JwtPrincipal principal,
+            @RequestBody @Valid MarkNotificationsReadRequest req
+    ) {
+        service.markRead(principal.uid(), req.ids());
+        return ResponseEntity.noContent().build();
+    }
+
+    @PostMapping("/read-all")
+    public ResponseEntity<Void> markAllRead(@AuthenticationPrincipal JwtPrincipal principal) {
+        service.markAllRead(principal.uid());
+        return ResponseEntity.noContent().build();
+    }
+}
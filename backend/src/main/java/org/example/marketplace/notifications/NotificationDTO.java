@@ -0,0 +1,13 @@
+package org.example.marketplace.notifications;
+
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.UUID;
+
+public record NotificationDTO(
+        UUID id,
+        NotificationType type,
+        Map<String, Object> payload,
+        boolean read,
+        OffsetDateTime createdAt
+) {}
@@ -0,0 +1,66 @@
+package org.example.marketplace.notifications;
+
+import org.example.marketplace.chat.service.ConversationMembershipCache;
+import org.example.marketplace.chat.service.MessageSentEvent;
+import org.example.marketplace.listings.ListingPriceChangedEvent;
+import org.example.marketplace.listings.ListingRemovedEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Turns domain events into notifications. Runs after the causing transaction
+ * commits and only enqueues (NotificationService), so it adds no database work
+ * to the request.
+ */
+@Component
+public class NotificationFanout {
+
+    private static final int PREVIEW_CHARS = 120;
+
+    private final NotificationService notifications;
+    private final ConversationMembershipCache membership;
+
+    public NotificationFanout(NotificationService notifications, ConversationMembershipCache membership) {
+        this.notifications = notifications;
+        this.membership = membership;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMessageSent(MessageSentEvent e) {
+        var m = e.message();
+        String body = m.body() == null ? "" : m.body();
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("kind", "chat_message");
+        payload.put("conversationId", m.conversationId());
+        payload.put("messageId", m.id());
+        payload.put("senderId", m.senderId());
+        payload.put("preview", body.length() > PREVIEW_CHARS ? body.substring(0, PREVIEW_CHARS) : body);
+
+        for (UUID userId : membership.participants(m.conversationId())) {
+            if (!userId.equals(m.senderId()))
+                notifications.notify(userId, NotificationType.CHAT, payload);
+        }
+    }
+
+    @TransactionalEventListener
+    public void onPriceChanged(ListingPriceChangedEvent e) {
+        notifications.notifySavers(e.listingId(), NotificationType.LISTING, Map.of(
+                "kind", "price_changed",
+                "listingId", e.listingId(),
+                "title", e.title() == null ? "" : e.title(),
+                "oldPriceCents", e.oldPriceCents(),
+                "newPriceCents", e.newPriceCents()));
+    }
+
+    @TransactionalEventListener
+    public void onListingRemoved(ListingRemovedEvent e) {
+        notifications.notify(e.ownerId(), NotificationType.LISTING, Map.of(
+                "kind", "listing_removed",
+                "listingId", e.listingId(),
+                "title", e.title() == null ? "" : e.title()));
+    }
+}
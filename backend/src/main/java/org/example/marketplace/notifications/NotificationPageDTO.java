@@ -0,0 +1,9 @@
+package org.example.marketplace.notifications;
+
+import java.util.List;
+
+/**
+ * Notification page, newest first. Pass {@code nextCursor} back as {@code cursor}
+ * to get the next page; null when there is none.
+ */
+public record NotificationPageDTO(List<NotificationDTO> items, String nextCursor, long unreadCount) {}
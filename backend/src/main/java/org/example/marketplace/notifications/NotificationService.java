@@ -0,0 +1,413 @@
+package org.example.marketplace.notifications;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.marketplace.chat.service.ChatHub;
+import org.example.marketplace.config.KeysetCursor;
+import org.example.marketplace.config.PgNotifications;
+import org.example.marketplace.config.PgSnapshot;
+import org.example.marketplace.config.ReplayLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Notifications on the notifications table.
+ *
+ * How it works:
+ * - notify()/notifySavers() only offer to a bounded in-memory queue, so the
+ * action that caused the notification never waits on it. When the queue is
+ * full the notification is dropped and counted (notifications.dropped).
+ * - flush() (every app.notifications.flush-ms) drains the queue, expands
+ * "everyone who saved listing X" with one saved_listings query, and inserts
+ * the rows with JDBC batch inserts, max-batch rows per transaction. Rows of a
+ * failed transaction go back into the queue for the next flush; after
+ * MAX_ATTEMPTS failures they are dropped and counted.
+ * - After commit each new notification is pushed to the recipient's open
+ * streams (ChatHub, event "notification").
+ * - Unread counts are loaded once per user (idx_notifications_unread) and then
+ * kept in memory; idle users are dropped after app.notifications.idle-minutes.
+ * - Every transaction that changes unread rows (a flushed batch, mark-read)
+ * announces per-user deltas with its transaction id on the
+ * "notifications_unread" NOTIFY channel, so every node's counts follow. The
+ * node that ran it applies them right after commit instead.
+ * - A count remembers the snapshot it was loaded from (PgSnapshot): a delta
+ * whose transaction that snapshot saw is skipped, and one that arrives while the
+ * count query runs is replayed after it (ReplayLog), so no batch is missed or
+ * counted twice. Counts are locked per user.
+ */
+@Service
+public class NotificationService {
+
+    static final String CHANNEL = "notifications_unread";
+
+    private static final int MAX_PAGE = 100;
+    private static final int MAX_ATTEMPTS = 3;
+    // "uuid/-123" per user; stays well below the 8000-byte NOTIFY payload limit
+    private static final int USERS_PER_NOTIFY = 150;
+    private static final TypeReference<Map<String, Object>> PAYLOAD = new TypeReference<>() {
+    };
+
+    private static final String INSERT_SQL = """
+            INSERT INTO notifications (id, user_id, type, payload, created_at)
+            VALUES (?, ?, CAST(? AS notification_type), CAST(? AS jsonb), ?)
+            """;
+
+    // userId set: one recipient; otherwise everyone who saved listingId
+    private record Pending(UUID userId, UUID listingId, NotificationType type, Map<String, Object> payload,
+                           int attempts) {
+        Pending retried() {
+            return new Pending(userId, listingId, type, payload, attempts + 1);
+        }
+    }
+
+    /** Unread count of one user and the snapshot it was loaded from; guarded by its own monitor. */
+    private static final class Unread {
+        long count;
+        final PgSnapshot countedAt;
+        long through; // deltas numbered up to here are already in count
+        volatile long lastAccess = System.currentTimeMillis();
+
+        Unread(long count, PgSnapshot countedAt) {
+            this.count = count;
+            this.countedAt = countedAt;
+        }
+    }
+
+    /** Unread changes of one committed transaction. */
+    private record Delta(long xid, Map<UUID, Long> byUser) {
+    }
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final ObjectMapper json;
+    private final ChatHub hub;
+    private final PgNotifications notifications;
+    private final BlockingQueue<Pending> queue;
+    private final int maxBatch;
+    private final long idleMillis;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Map<UUID, Unread> unread = new ConcurrentHashMap<>();
+    private final ReplayLog<Delta> deltas = new ReplayLog<>();
+
+    private final Counter written;
+    private final Counter dropped;
+
+    public NotificationService(
+            JdbcTemplate jdbc,
+            PlatformTransactionManager txManager,
+            ObjectMapper json,
+            ChatHub hub,
+            PgNotifications notifications,
+            MeterRegistry meters,
+            @Value("${app.notifications.queue-capacity:20000}") int queueCapacity,
+            @Value("${app.notifications.max-batch:1000}") int maxBatch,
+            @Value("${app.notifications.idle-minutes:30}") long idleMinutes) {
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(txManager);
+        this.json = json;
+        this.hub = hub;
+        this.notifications = notifications;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.maxBatch = Math.max(1, maxBatch);
+        this.idleMillis = idleMinutes * 60_000L;
+
+        this.written = meters.counter("notifications.written");
+        this.dropped = meters.counter("notifications.dropped");
+        meters.gauge("notifications.queue.depth", queue, BlockingQueue::size);
+
+        notifications.subscribe(CHANNEL, new PgNotifications.Listener() {
+            @Override
+            public void onNotification(String payload) {
+                onChange(payload);
+            }
+
+            @Override
+            public void onResync() {
+                dropAll();
+            }
+        });
+    }
+
+    public void notify(UUID userId, NotificationType type, Map<String, Object> payload) {
+        offer(new Pending(userId, null, type, payload, 0));
+    }
+
+    /** One notification for every user who saved the listing (resolved in the background). */
+    public void notifySavers(UUID listingId, NotificationType type, Map<String, Object> payload) {
+        offer(new Pending(null, listingId, type, payload, 0));
+    }
+
+    private void offer(Pending p) {
+        if (!queue.offer(p))
+            dropped.increment();
+    }
+
+    @Scheduled(fixedDelayString = "${app.notifications.flush-ms:250}")
+    public void flush() {
+        evictIdle();
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (queue.drainTo(batch, maxBatch) > 0) {
+            List<Pending> rows = batch;
+            int done = 0;
+            try {
+                rows = expand(batch);
+                for (; done < rows.size(); done += maxBatch)
+                    write(rows.subList(done, Math.min(rows.size(), done + maxBatch)));
+            } catch (RuntimeException e) {
+                // committed chunks stay written; the rest waits for the next flush
+                requeue(rows.subList(Math.min(done, rows.size()), rows.size()));
+                System.out.println("Notification flush failed: " + e.getMessage());
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    private void requeue(List<Pending> failed) {
+        for (Pending p : failed) {
+            if (p.attempts() + 1 >= MAX_ATTEMPTS || !queue.offer(p.retried()))
+                dropped.increment();
+        }
+    }
+
+    private List<Pending> expand(List<Pending> batch) {
+        List<Pending> direct = new ArrayList<>(batch.size());
+        List<String> listingIds = new ArrayList<>();
+        for (Pending p : batch) {
+            if (p.userId() != null)
+                direct.add(p);
+            else
+                listingIds.add(p.listingId().toString());
+        }
+        if (listingIds.isEmpty())
+            return direct;
+
+        Map<UUID, List<UUID>> savers = new HashMap<>();
+        jdbc.query("SELECT listing_id, user_id FROM saved_listings WHERE listing_id = ANY(CAST(? AS uuid[]))",
+                rs -> {
+                    savers.computeIfAbsent(rs.getObject("listing_id", UUID.class), k -> new ArrayList<>())
+                            .add(rs.getObject("user_id", UUID.class));
+                }, (Object) listingIds.stream().distinct().toArray(String[]::new));
+
+        for (Pending p : batch) {
+            if (p.userId() != null)
+                continue;
+            for (UUID userId : savers.getOrDefault(p.listingId(), List.of()))
+                direct.add(new Pending(userId, null, p.type(), p.payload(), p.attempts()));
+        }
+        return direct;
+    }
+
+    /** Inserts one chunk (at most max-batch rows) in one transaction. */
+    private void write(List<Pending> chunk) {
+        List<NotificationDTO> dtos = new ArrayList<>(chunk.size());
+        List<Object[]> args = new ArrayList<>(chunk.size());
+        OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+        for (Pending p : chunk) {
+            var dto = new NotificationDTO(UUID.randomUUID(), p.type(), p.payload(), false, now);
+            dtos.add(dto);
+            args.add(new Object[] { dto.id(), p.userId(), p.type().name(), toJson(p.payload()), now });
+        }
+
+        Map<UUID, Long> added = new HashMap<>();
+        for (Pending p : chunk)
+            added.merge(p.userId(), 1L, Long::sum);
+
+        Long xid = tx.execute(status -> {
+            jdbc.batchUpdate(INSERT_SQL, args);
+            return announce(added);
+        });
+        written.increment(chunk.size());
+        applyDelta(xid, added);
+
+        for (int i = 0; i < chunk.size(); i++)
+            hub.publishToUser(chunk.get(i).userId(), "notification", dtos.get(i));
+    }
+
+    public NotificationPageDTO page(UUID userId, String cursor, int size) {
+        int limit = Math.min(Math.max(size, 1), MAX_PAGE);
+        KeysetCursor before = KeysetCursor.decode(cursor);
+        OffsetDateTime beforeCreated = before == null ? null : before.at();
+        UUID beforeId = before == null ? null : before.id();
+
+        // idx_notifications_user_created
+        List<NotificationDTO> items = jdbc.query("""
+                SELECT id, type::text AS type, payload::text AS payload, is_read, created_at
+                FROM notifications
+                WHERE user_id = ?
+                  AND (CAST(? AS timestamptz) IS NULL OR (created_at, id) < (CAST(? AS timestamptz), CAST(? AS uuid)))
+                ORDER BY created_at DESC, id DESC
+                LIMIT ?
+                """, (rs, i) -> new NotificationDTO(
+                rs.getObject("id", UUID.class),
+                NotificationType.valueOf(rs.getString("type")),
+                fromJson(rs.getString("payload")),
+                rs.getBoolean("is_read"),
+                rs.getObject("created_at", OffsetDateTime.class)),
+                userId, beforeCreated, beforeCreated, beforeId, limit);
+
+        String next = null;
+        if (items.size() == limit) {
+            var last = items.get(items.size() - 1);
+            next = new KeysetCursor(last.createdAt(), last.id()).encode();
+        }
+        return new NotificationPageDTO(items, next, unreadCount(userId));
+    }
+
+    public long unreadCount(UUID userId) {
+        Unread u = unread.get(userId);
+        if (u == null)
+            u = load(userId);
+        u.lastAccess = System.currentTimeMillis();
+        synchronized (u) {
+            return Math.max(0, u.count);
+        }
+    }
+
+    public void markRead(UUID userId, List<UUID> ids) {
+        String[] idArray = ids.stream().map(UUID::toString).toArray(String[]::new);
+        markRead(userId, """
+                UPDATE notifications SET is_read = true
+                WHERE user_id = ? AND id = ANY(CAST(? AS uuid[])) AND is_read = false
+                """, userId, idArray);
+    }
+
+    public void markAllRead(UUID userId) {
+        markRead(userId, "UPDATE notifications SET is_read = true WHERE user_id = ? AND is_read = false", userId);
+    }
+
+    private void markRead(UUID userId, String sql, Object... args) {
+        Map<UUID, Long> delta = new HashMap<>();
+        Long xid = tx.execute(status -> {
+            int n = jdbc.update(sql, args);
+            if (n == 0)
+                return null;
+            delta.put(userId, (long) -n);
+            return announce(delta);
+        });
+        if (xid != null)
+            applyDelta(xid, delta);
+    }
+
+    /**
+     * Publishes the deltas (delivered on commit) and returns the transaction id.
+     * Payload: "{xid}:{node}:{user}/{delta}:...". Caller is inside the transaction.
+     */
+    private long announce(Map<UUID, Long> byUser) {
+        String xid = jdbc.queryForObject("SELECT pg_current_xact_id()::text", String.class);
+        List<Map.Entry<UUID, Long>> entries = new ArrayList<>(byUser.entrySet());
+        for (int from = 0; from < entries.size(); from += USERS_PER_NOTIFY) {
+            StringBuilder payload = new StringBuilder(xid).append(':').append(nodeId);
+            for (var e : entries.subList(from, Math.min(entries.size(), from + USERS_PER_NOTIFY)))
+                payload.append(':').append(e.getKey()).append('/').append(e.getValue());
+            notifications.publish(CHANNEL, payload.toString());
+        }
+        return Long.parseLong(xid);
+    }
+
+    void onChange(String payload) {
+        if (payload == null)
+            return;
+        try {
+            String[] p = payload.split(":");
+            if (p[1].equals(nodeId))
+                return; // applied after commit
+            Map<UUID, Long> byUser = new HashMap<>();
+            for (int i = 2; i < p.length; i++) {
+                String[] e = p[i].split("/", 2);
+                byUser.merge(UUID.fromString(e[0]), Long.parseLong(e[1]), Long::sum);
+            }
+            applyDelta(Long.parseLong(p[0]), byUser);
+        } catch (RuntimeException e) {
+            dropAll();
+        }
+    }
+
+    private void applyDelta(long xid, Map<UUID, Long> byUser) {
+        long seq = deltas.append(new Delta(xid, byUser));
+        byUser.forEach((userId, n) -> {
+            Unread u = unread.get(userId);
+            if (u == null)
+                return;
+            synchronized (u) {
+                if (seq > u.through) // else the load that published u replayed it
+                    apply(u, xid, n);
+            }
+        });
+    }
+
+    /** Caller holds u. */
+    private static void apply(Unread u, long xid, long n) {
+        if (!u.countedAt.sees(xid))
+            u.count += n;
+    }
+
+    private Unread load(UUID userId) {
+        try (var query = deltas.begin()) {
+            // count and snapshot from the same statement
+            Unread loaded = jdbc.queryForObject("""
+                    SELECT pg_current_snapshot()::text AS snap,
+                           (SELECT count(*) FROM notifications WHERE user_id = ? AND is_read = false) AS unread
+                    """, (rs, i) -> new Unread(rs.getLong("unread"), PgSnapshot.parse(rs.getString("snap"))), userId);
+
+            synchronized (loaded) {
+                // not published if notifications may have been lost meanwhile: answered once, not cached
+                Unread[] existing = new Unread[1];
+                var missed = deltas.catchUp(query, () -> existing[0] = unread.putIfAbsent(userId, loaded));
+                if (existing[0] != null)
+                    return existing[0]; // loaded concurrently
+                loaded.through = missed.through();
+                for (var e : missed.missed()) {
+                    Long n = e.change().byUser().get(userId);
+                    if (n != null)
+                        apply(loaded, e.change().xid(), n);
+                }
+                return loaded;
+            }
+        }
+    }
+
+    private void dropAll() {
+        deltas.resync();
+        unread.clear();
+    }
+
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        unread.values().removeIf(u -> u.lastAccess < cutoff);
+    }
+
+    private String toJson(Map<String, Object> payload) {
+        try {
+            return json.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Unserializable notification payload", e);
+        }
+    }
+
+    private Map<String, Object> fromJson(String payload) {
+        try {
+            return json.readValue(payload, PAYLOAD);
+        } catch (JsonProcessingException e) {
+            return Map.of();
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package org.example.marketplace.notifications;
+
+/** Mirrors the notification_type enum in the schema. */
+public enum NotificationType {
+    SYSTEM, CHAT, ORDER, LISTING
+}
@@ -0,0 +1,209 @@
+package org.example.marketplace.reference;
+
+import org.example.marketplace.config.BoundedCache;
+import org.example.marketplace.config.PgNotifications;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * In-memory reference data: categories, units and product names.
+ *
+ * Purpose:
+ * - Writers (ListingCommandService) resolve category / unit codes and row
+ * mappers (search, map) resolve product and category names without SQL, so the
+ * hot queries don't join categories just to print a name.
+ *
+ * How it works:
+ * - Categories + units live in one immutable {@link Snapshot}, swapped
+ * atomically (a volatile write) on reload; readers never lock.
+ * - Products grow with listings (one product per listing), so they are kept
+ * per entry instead of being copied into every snapshot: bulk-loaded at
+ * startup (up to app.reference.products.max-entries, a BoundedCache), loaded
+ * on miss, evicted on change. A load that raced an eviction is not cached.
+ * - Changes arrive through the "reference_data" NOTIFY channel (DB triggers
+ * from V4, so every node and direct SQL edits are covered), plus a periodic
+ * full reload as a safety net.
+ */
+@Service
+public class ReferenceDataService {
+
+    static final String CHANNEL = "reference_data";
+
+    /** Frontend category codes -> category name in DB ('altele' / unknown -> none). */
+    private static final Map<String, String> CATEGORY_CODES = Map.of(
+            "fructe", "Fruits",
+            "legume", "Vegetables",
+            "lactate", "Dairy",
+            "oua", "Dairy",
+            "carne", "Meat");
+
+    /** Frontend unit codes -> unit_type value; unit_type values themselves are accepted too. */
+    private static final Map<String, String> UNIT_ALIASES = Map.of(
+            "kg", "KG",
+            "l", "L",
+            "buc", "BOX");
+
+    public record Category(UUID id, String name, UUID parentId) {
+    }
+
+    public record Product(UUID id, String name, UUID categoryId) {
+    }
+
+    /** Immutable view of categories + units; replaced as a whole on reload. */
+    public record Snapshot(Map<UUID, Category> categoriesById,
+            Map<String, Category> categoriesByName,
+            Map<String, String> units) {
+    }
+
+    private final JdbcTemplate jdbc;
+    private final int maxProducts;
+
+    private volatile Snapshot snapshot;
+    private final BoundedCache<UUID, Product> products;
+
+    public ReferenceDataService(
+            JdbcTemplate jdbc,
+            PgNotifications notifications,
+            @Value("${app.reference.products.max-entries:50000}") int maxProducts) {
+        this.jdbc = jdbc;
+        this.maxProducts = Math.max(1, maxProducts);
+        this.products = new BoundedCache<>(this.maxProducts);
+        notifications.subscribe(CHANNEL, new PgNotifications.Listener() {
+            @Override
+            public void onNotification(String payload) {
+                onChange(payload);
+            }
+
+            @Override
+            public void onResync() {
+                reloadAll();
+            }
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        reloadAll();
+    }
+
+    @Scheduled(initialDelayString = "${app.reference.refresh-ms:600000}",
+            fixedDelayString = "${app.reference.refresh-ms:600000}")
+    public void reloadAll() {
+        reload();
+        long generation = products.generation();
+        Map<UUID, Product> fresh = new HashMap<>();
+        jdbc.query("SELECT id, name, category_id FROM products LIMIT ?",
+                rs -> {
+                    UUID id = rs.getObject("id", UUID.class);
+                    fresh.put(id, new Product(id, rs.getString("name"), rs.getObject("category_id", UUID.class)));
+                },
+                maxProducts);
+        products.retainAll(fresh.keySet());
+        fresh.forEach((id, p) -> products.put(id, p, generation));
+    }
+
+    /** Rebuilds the category/unit snapshot and publishes it atomically. */
+    public synchronized Snapshot reload() {
+        Map<UUID, Category> byId = new HashMap<>();
+        Map<String, Category> byName = new HashMap<>();
+        jdbc.query("SELECT id, name, parent_id FROM categories", rs -> {
+            var c = new Category(rs.getObject("id", UUID.class), rs.getString("name"),
+                    rs.getObject("parent_id", UUID.class));
+            byId.put(c.id(), c);
+            byName.put(c.name().toLowerCase(Locale.ROOT), c);
+        });
+
+        Map<String, String> units = new HashMap<>();
+        for (String u : jdbc.queryForList("SELECT unnest(enum_range(NULL::unit_type))::text", String.class)) {
+            units.put(u.toLowerCase(Locale.ROOT), u);
+        }
+        UNIT_ALIASES.forEach((code, unit) -> {
+            if (units.containsValue(unit))
+                units.put(code, unit);
+        });
+
+        Snapshot s = new Snapshot(Map.copyOf(byId), Map.copyOf(byName), Map.copyOf(units));
+        snapshot = s;
+        return s;
+    }
+
+    public Snapshot snapshot() {
+        Snapshot s = snapshot;
+        return s != null ? s : reload();
+    }
+
+    /** Payload: "categories" or "product:{uuid}" (see V4 triggers). */
+    void onChange(String payload) {
+        if (payload == null)
+            return;
+        if (payload.startsWith("product:")) {
+            products.invalidate(UUID.fromString(payload.substring("product:".length())));
+        } else {
+            reload();
+        }
+    }
+
+    // --- lookups ---
+
+    /** Maps a frontend unit code ("kg", "buc", ...) or a unit_type value to unit_type. */
+    public String unitForCode(String code) {
+        if (code == null)
+            throw new IllegalArgumentException("Unit is required");
+        String unit = snapshot().units().get(code.toLowerCase(Locale.ROOT));
+        if (unit == null)
+            throw new IllegalArgumentException("Unsupported unit: " + code);
+        return unit;
+    }
+
+    /** Maps a frontend category code ("fructe", ...) to the category id, or null. */
+    public UUID categoryIdForCode(String code) {
+        if (code == null || code.isBlank())
+            return null;
+        String name = CATEGORY_CODES.get(code.toLowerCase(Locale.ROOT));
+        return name == null ? null : categoryIdByName(name);
+    }
+
+    public UUID categoryIdByName(String name) {
+        if (name == null)
+            return null;
+        Category c = snapshot().categoriesByName().get(name.toLowerCase(Locale.ROOT));
+        return c == null ? null : c.id();
+    }
+
+    public String categoryName(UUID categoryId) {
+        if (categoryId == null)
+            return null;
+        Category c = snapshot().categoriesById().get(categoryId);
+        return c == null ? null : c.name();
+    }
+
+    /** Product by id; a miss (new or just-changed product) is loaded once and cached. */
+    public Product product(UUID productId) {
+        if (productId == null)
+            return null;
+        Product p = products.get(productId);
+        if (p != null)
+            return p;
+
+        long generation = products.generation();
+        List<Product> found = jdbc.query("SELECT id, name, category_id FROM products WHERE id = ?",
+                (rs, i) -> new Product(rs.getObject("id", UUID.class), rs.getString("name"),
+                        rs.getObject("category_id", UUID.class)),
+                productId);
+        if (found.isEmpty())
+            return null;
+        products.put(productId, found.get(0), generation); // not if evicted meanwhile
+        return found.get(0);
+    }
+
+    public String productName(UUID productId) {
+        Product p = product(productId);
+        return p == null ? null : p.name();
+    }
+}
@@ -1,27 +1,36 @@
 package org.example.marketplace.search;
 
+import org.example.marketplace.listings.ListingVisibility;
+import org.example.marketplace.reference.ReferenceDataService;
 import org.example.marketplace.search.dto.ListingCardDto;
 import org.example.marketplace.search.dto.ListingSummaryDto;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.*;
 
 @Repository
 public class ListingSearchRepositoryImpl implements ListingSearchRepository {
 
     private final NamedParameterJdbcTemplate jdbc;
+    private final ReferenceDataService refs;
 
-    public ListingSearchRepositoryImpl(NamedParameterJdbcTemplate jdbc) {
+    public ListingSearchRepositoryImpl(NamedParameterJdbcTemplate jdbc, ReferenceDataService refs) {
         this.jdbc = jdbc;
+        this.refs = refs;
     }
 
     private static final String BASE_FROM = """
             FROM public.listings l
             JOIN public.products p   ON p.id = l.product_id
-            LEFT JOIN public.categories c ON c.id = p.category_id
             LEFT JOIN public.farmer_profiles fp ON fp.user_id = l.farmer_user_id
+            """;
+
+    // Only the page query needs the thumbnail; COUNT(*) must not run it per row
+    private static final String THUMB_JOIN = """
             LEFT JOIN LATERAL (
                 SELECT ma.url AS thumbnail_url
                 FROM public.listing_images li
@@ -30,7 +39,9 @@ public class ListingSearchRepositoryImpl implements ListingSearchRepository {
                 ORDER BY li.sort_order ASC
                 LIMIT 1
             ) thumb ON TRUE
-            WHERE (:available::boolean IS NULL OR l.available = :available::boolean)
+            """;
+
+    private static final String BASE_FILTERS = """
               AND (:minPrice::int     IS NULL OR l.price_cents >= :minPrice::int)
               AND (:maxPrice::int     IS NULL OR l.price_cents <= :maxPrice::int)
               AND (:productId::uuid   IS NULL OR l.product_id   = :productId::uuid)
@@ -48,6 +59,11 @@ public class ListingSearchRepositoryImpl implements ListingSearchRepository {
               ))
             """;
 
+    private static String where(Boolean available) {
+        // literal SQL, not a bind parameter: lets the planner use the live-listing partial indexes
+        return "WHERE " + ListingVisibility.clause("l", available) + "\n" + BASE_FILTERS;
+    }
+
     @Override
     public List<ListingCardDto> search(String q, Integer minPrice, Integer maxPrice,
             UUID productId, UUID categoryId, Boolean available,
@@ -66,41 +82,21 @@ public class ListingSearchRepositoryImpl implements ListingSearchRepository {
                        ST_Y(l.location::geometry) AS lat,
                        l.price_cents, l.currency,
                        p.name AS product_name,
-                       c.name AS category_name,
+                       p.category_id,
                        thumb.thumbnail_url,
                        l.description,
                        fp.farm_name AS farmer_name,
                        l.unit
-                """ + BASE_FROM +
+                """ + BASE_FROM + THUMB_JOIN + where(available) +
                 " ORDER BY " + sortSql +
                 " LIMIT :limit OFFSET :offset";
 
-        MapSqlParameterSource p = baseParams(q, minPrice, maxPrice, productId, categoryId, available, farmerId, w, s, e,
-                n)
+        MapSqlParameterSource p = baseParams(q, minPrice, maxPrice, productId, categoryId, farmerId, w, s, e, n)
                 .addValue("limit", Math.max(1, limit))
                 .addValue("offset", Math.max(0, offset));
 
-        return jdbc.query(sql, p, (rs, i) -> {
-            String thumb = rs.getString("thumbnail_url"); // expected "/uploads/...."
-            if (thumb != null && thumb.isBlank())
-                thumb = null;
-
-            return new ListingCardDto(
-                    UUID.fromString(rs.getString("id")),
-                    UUID.fromString(rs.getString("farmer_user_id")),
-                    rs.getString("title"),
-                    (Integer) rs.getObject("price_cents"),
-                    rs.getString("currency"),
-                    (Double) rs.getObject("lon"),
-                    (Double) rs.getObject("lat"),
-                    rs.getString("product_name"),
-                    rs.getString("category_name"),
-                    thumb,
-                    rs.getString("description"),
-                    rs.getString("farmer_name"),
-                    rs.getString("unit"),
-                    Collections.emptyList());
-        });
+        return jdbc.query(sql, p, (rs, i) -> toCard(rs, rs.getString("product_name"),
+                rs.getObject("category_id", UUID.class), Collections.emptyList()));
     }
 
     @Override
@@ -108,9 +104,8 @@ public class ListingSearchRepositoryImpl implements ListingSearchRepository {
             UUID productId, UUID categoryId, Boolean available,
             UUID farmerId,
             Double w, Double s, Double e, Double n) {
-        String sql = "SELECT COUNT(*) " + BASE_FROM;
-        MapSqlParameterSource p = baseParams(q, minPrice, maxPrice, productId, categoryId, available, farmerId, w, s, e,
-                n);
+        String sql = "SELECT COUNT(*) " + BASE_FROM + where(available);
+        MapSqlParameterSource p = baseParams(q, minPrice, maxPrice, productId, categoryId, farmerId, w, s, e, n);
         return jdbc.queryForObject(sql, p, Long.class);
     }
 
@@ -137,7 +132,7 @@ public class ListingSearchRepositoryImpl implements ListingSearchRepository {
     }
 
     private MapSqlParameterSource baseParams(String q, Integer minPrice, Integer maxPrice,
-            UUID productId, UUID categoryId, Boolean available, UUID farmerId,
+            UUID productId, UUID categoryId, UUID farmerId,
             Double w, Double s, Double e, Double n) {
         boolean hasBbox = (w != null && s != null && e != null && n != null);
         return new MapSqlParameterSource()
@@ -146,7 +141,6 @@ public class ListingSearchRepositoryImpl implements ListingSearchRepository {
                 .addValue("maxPrice", maxPrice)
                 .addValue("productId", productId)
                 .addValue("categoryId", categoryId)
-                .addValue("available", available)
                 .addValue("farmerId", farmerId)
                 .addValue("hasBbox", hasBbox)
                 .addValue("w", w).addValue("s", s).addValue("e", e).addValue("n", n);
@@ -159,15 +153,12 @@ public class ListingSearchRepositoryImpl implements ListingSearchRepository {
                        ST_X(l.location::geometry) AS lon,
                        ST_Y(l.location::geometry) AS lat,
                        l.price_cents, l.currency,
-                       p.name AS product_name,
-                       c.name AS category_name,
+                       l.product_id,
                        thumb.thumbnail_url,
                        l.description,
                        fp.farm_name AS farmer_name,
                        l.unit
                 FROM public.listings l
-                JOIN public.products p   ON p.id = l.product_id
-                LEFT JOIN public.categories c ON c.id = p.category_id
                 LEFT JOIN public.farmer_profiles fp ON fp.user_id = l.farmer_user_id
                 LEFT JOIN LATERAL (
                     SELECT ma.url AS thumbnail_url
@@ -191,29 +182,37 @@ public class ListingSearchRepositoryImpl implements ListingSearchRepository {
                 p,
                 (rs, i) -> rs.getString("url"));
 
+        // product + category names come from the in-memory reference data, no joins
         var list = jdbc.query(sql, p, (rs, i) -> {
-            String thumb = rs.getString("thumbnail_url");
-            if (thumb != null && thumb.isBlank())
-                thumb = null;
-
-            return new ListingCardDto(
-                    UUID.fromString(rs.getString("id")),
-                    UUID.fromString(rs.getString("farmer_user_id")),
-                    rs.getString("title"),
-                    (Integer) rs.getObject("price_cents"),
-                    rs.getString("currency"),
-                    (Double) rs.getObject("lon"),
-                    (Double) rs.getObject("lat"),
-                    rs.getString("product_name"),
-                    rs.getString("category_name"),
-                    thumb,
-                    rs.getString("description"),
-                    rs.getString("farmer_name"),
-                    rs.getString("unit"),
+            var product = refs.product(rs.getObject("product_id", UUID.class));
+            return toCard(rs, product == null ? null : product.name(), product == null ? null : product.categoryId(),
                     images);
         });
 
         return list.stream().findFirst();
     }
 
+    private ListingCardDto toCard(ResultSet rs, String productName, UUID categoryId, List<String> images)
+            throws SQLException {
+        String thumb = rs.getString("thumbnail_url"); // expected "/uploads/...."
+        if (thumb != null && thumb.isBlank())
+            thumb = null;
+
+        return new ListingCardDto(
+                UUID.fromString(rs.getString("id")),
+                UUID.fromString(rs.getString("farmer_user_id")),
+                rs.getString("title"),
+                (Integer) rs.getObject("price_cents"),
+                rs.getString("currency"),
+                (Double) rs.getObject("lon"),
+                (Double) rs.getObject("lat"),
+                productName,
+                refs.categoryName(categoryId),
+                thumb,
+                rs.getString("description"),
+                rs.getString("farmer_name"),
+                rs.getString("unit"),
+                images);
+    }
+
 }
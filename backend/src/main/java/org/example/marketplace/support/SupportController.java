@@ -16,6 +16,7 @@ public class SupportController {
 
     @PostMapping("/contact")
     public ResponseEntity<Void> contact(@RequestBody SupportRequest req) {
+        // one insert into email_outbox; EmailOutboxWorker delivers it
 
         emailSender.sendEmail(
                 "biobuy.verif@gmail.com",
@@ -0,0 +1,54 @@
+package org.example.marketplace.user;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.annotation.RequestScope;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Request-scoped, DataLoader-style batching of display names.
+ *
+ * Usage: while assembling a response, {@link #want(Collection)} every user id
+ * first, then read names with {@link #name(UUID)}. The first read dispatches
+ * all ids queued so far in one {@link UserCache#displayNames} call; results
+ * are memoised for the rest of the request.
+ * Only usable on request threads; background code uses UserCache directly.
+ */
+@Component
+@RequestScope
+public class DisplayNameLoader {
+
+    private final UserCache cache;
+    private final Set<UUID> queued = new LinkedHashSet<>();
+    private final Map<UUID, String> loaded = new HashMap<>();
+
+    public DisplayNameLoader(UserCache cache) {
+        this.cache = cache;
+    }
+
+    public void want(Collection<UUID> ids) {
+        for (UUID id : ids) {
+            if (!loaded.containsKey(id))
+                queued.add(id);
+        }
+    }
+
+    public String name(UUID id) {
+        String name = loaded.get(id);
+        if (name != null)
+            return name;
+        queued.add(id);
+        dispatch();
+        return loaded.get(id);
+    }
+
+    private void dispatch() {
+        loaded.putAll(cache.displayNames(queued));
+        queued.clear();
+    }
+}
@@ -0,0 +1,130 @@
+package org.example.marketplace.user;
+
+import org.example.marketplace.config.BoundedCache;
+import org.example.marketplace.config.PgNotifications;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * user id -> current email, display name, role and active flag.
+ *
+ * Serves the display names shown in every DTO (batched per request through
+ * {@link DisplayNameLoader}), and the few places where the claims of the access
+ * token (as of login) are not fresh enough: /api/auth/me and admin checks on
+ * listing moderation.
+ *
+ * How it works:
+ * - Hits are answered from memory; displayNames() fetches all misses with a
+ * single {@code WHERE id = ANY(?)} query, get() with one primary-key query.
+ * - Write-invalidated: a trigger on users (V8, widened to email, role and
+ * is_active by V16) NOTIFYs 'user_changed' with the id; after a LISTEN
+ * reconnect everything is dropped.
+ * - Bounded by app.users.cache.max-entries (BoundedCache); a load that raced
+ * an invalidation is answered but not cached.
+ */
+@Component
+public class UserCache {
+
+    public static final String UNKNOWN = "Unknown User";
+    private static final String CHANNEL = "user_changed";
+    private static final String SELECT = "SELECT id, email, display_name, role::text AS role, is_active FROM users ";
+
+    public record UserProfile(UUID id, String email, String displayName, UserRole role, boolean active) {
+    }
+
+    private final JdbcTemplate jdbc;
+    private final BoundedCache<UUID, UserProfile> profiles;
+
+    public UserCache(
+            JdbcTemplate jdbc,
+            PgNotifications notifications,
+            @Value("${app.users.cache.max-entries:50000}") int maxEntries) {
+        this.jdbc = jdbc;
+        this.profiles = new BoundedCache<>(maxEntries);
+        notifications.subscribe(CHANNEL, new PgNotifications.Listener() {
+            @Override
+            public void onNotification(String payload) {
+                try {
+                    invalidate(UUID.fromString(payload));
+                } catch (IllegalArgumentException e) {
+                    profiles.clear();
+                }
+            }
+
+            @Override
+            public void onResync() {
+                profiles.clear();
+            }
+        });
+    }
+
+    /** Empty if the user no longer exists. */
+    public Optional<UserProfile> get(UUID id) {
+        UserProfile p = profiles.get(id);
+        if (p != null)
+            return Optional.of(p);
+
+        long generation = profiles.generation();
+        List<UserProfile> rows = jdbc.query(SELECT + "WHERE id = ?", (rs, i) -> profile(rs), id);
+        if (rows.isEmpty())
+            return Optional.empty();
+        profiles.put(id, rows.get(0), generation);
+        return Optional.of(rows.get(0));
+    }
+
+    /** Names for all ids (unknown ids map to {@link #UNKNOWN}); at most one query. */
+    public Map<UUID, String> displayNames(Collection<UUID> ids) {
+        Map<UUID, String> result = new HashMap<>();
+        List<UUID> missing = new ArrayList<>();
+        for (UUID id : ids) {
+            UserProfile p = profiles.get(id);
+            if (p != null)
+                result.put(id, displayName(p));
+            else if (!result.containsKey(id))
+                missing.add(id);
+        }
+        if (missing.isEmpty())
+            return result;
+
+        String[] arr = missing.stream().map(UUID::toString).distinct().toArray(String[]::new);
+        long generation = profiles.generation();
+        jdbc.query(SELECT + "WHERE id = ANY(CAST(? AS uuid[]))", rs -> {
+            UserProfile p = profile(rs);
+            profiles.put(p.id(), p, generation);
+            result.put(p.id(), displayName(p));
+        }, (Object) arr);
+
+        for (UUID id : missing)
+            result.putIfAbsent(id, UNKNOWN);
+        return result;
+    }
+
+    /** Call after changing a user in this process (other nodes learn via NOTIFY). */
+    public void invalidate(UUID id) {
+        profiles.invalidate(id);
+    }
+
+    private static UserProfile profile(ResultSet rs) throws SQLException {
+        return new UserProfile(
+                rs.getObject("id", UUID.class),
+                rs.getString("email"),
+                rs.getString("display_name"),
+                UserRole.valueOf(rs.getString("role")),
+                rs.getBoolean("is_active"));
+    }
+
+    private static String displayName(UserProfile p) {
+        return p.displayName() == null ? UNKNOWN : p.displayName();
+    }
+}
@@ -0,0 +1,74 @@
+-- V10__partition_messages.sql — messages become monthly range partitions on created_at.
+-- MessageArchiver keeps partitions created ahead of time, detaches old ones and
+-- exports them to compressed files (message_archives), restorable on demand.
+
+-- Unique keys of a partitioned table must contain the partition key, so
+-- messages(id) can no longer be the target of a foreign key.
+ALTER TABLE message_attachments DROP CONSTRAINT IF EXISTS message_attachments_message_id_fkey;
+ALTER TABLE message_reads       DROP CONSTRAINT IF EXISTS message_reads_message_id_fkey;
+ALTER TABLE reports             DROP CONSTRAINT IF EXISTS reports_message_id_fkey;
+
+ALTER TABLE messages RENAME TO messages_unpartitioned;
+
+CREATE TABLE messages (
+    id                UUID NOT NULL DEFAULT gen_random_uuid(),
+    conversation_id   UUID NOT NULL REFERENCES conversations(id) ON DELETE CASCADE,
+    sender_user_id    UUID NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    body              TEXT,
+    created_at        TIMESTAMPTZ NOT NULL DEFAULT now(),
+    read_at           TIMESTAMPTZ,         -- global read (legacy/simple)
+    is_deleted        BOOLEAN NOT NULL DEFAULT FALSE,
+    PRIMARY KEY (id, created_at)
+) PARTITION BY RANGE (created_at);
+
+-- One partition per UTC month, named messages_pYYYY_MM.
+CREATE OR REPLACE FUNCTION ensure_message_partition(month_start date) RETURNS void AS $$
+DECLARE
+    from_ts timestamptz := month_start::timestamp AT TIME ZONE 'UTC';
+    to_ts   timestamptz := (month_start + interval '1 month')::timestamp AT TIME ZONE 'UTC';
+BEGIN
+    EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF messages FOR VALUES FROM (%L) TO (%L)',
+                   'messages_p' || to_char(month_start, 'YYYY_MM'), from_ts, to_ts);
+END; $$ LANGUAGE plpgsql;
+
+DO $$
+DECLARE
+    m timestamp;
+BEGIN
+    FOR m IN
+        SELECT generate_series(
+                   date_trunc('month', COALESCE(min(created_at), now()) AT TIME ZONE 'UTC'),
+                   date_trunc('month', greatest(max(created_at), now()) AT TIME ZONE 'UTC') + interval '3 months',
+                   interval '1 month')
+        FROM messages_unpartitioned
+    LOOP
+        PERFORM ensure_message_partition(m::date);
+    END LOOP;
+END $$;
+
+INSERT INTO messages (id, conversation_id, sender_user_id, body, created_at, read_at, is_deleted)
+SELECT id, conversation_id, sender_user_id, body, created_at, read_at, is_deleted
+FROM messages_unpartitioned;
+
+DROP TABLE messages_unpartitioned;
+
+-- Declared on the parent, created on every partition (existing and future).
+CREATE INDEX IF NOT EXISTS idx_messages_conversation_created_id ON messages(conversation_id, created_at, id);
+CREATE INDEX IF NOT EXISTS idx_messages_sender                  ON messages(sender_user_id);
+CREATE INDEX IF NOT EXISTS idx_messages_body_trgm               ON messages USING GIN (body gin_trgm_ops);
+
+CREATE TRIGGER tr_messages_touch_conversation
+    AFTER INSERT ON messages
+    FOR EACH ROW EXECUTE FUNCTION touch_conversation_last_message();
+
+CREATE TABLE IF NOT EXISTS message_archives (
+    partition_name  TEXT PRIMARY KEY,
+    range_from      TIMESTAMPTZ NOT NULL,
+    range_to        TIMESTAMPTZ NOT NULL,
+    messages_file   TEXT NOT NULL,
+    reads_file      TEXT NOT NULL,
+    message_count   BIGINT NOT NULL,
+    read_count      BIGINT NOT NULL,
+    archived_at     TIMESTAMPTZ NOT NULL DEFAULT now(),
+    restored_at     TIMESTAMPTZ
+);
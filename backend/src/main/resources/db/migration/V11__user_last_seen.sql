@@ -0,0 +1,2 @@
+-- V11__user_last_seen.sql — last activity, flushed in batches by PresenceService.
+ALTER TABLE users ADD COLUMN IF NOT EXISTS last_seen_at TIMESTAMPTZ;
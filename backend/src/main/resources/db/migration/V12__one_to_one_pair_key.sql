@@ -0,0 +1,30 @@
+-- V12__one_to_one_pair_key.sql — one-to-one conversations keyed by their ordered user pair.
+-- Lookup is one probe of uq_conversations_pair; creation is INSERT ... ON CONFLICT DO NOTHING,
+-- so concurrent starts for the same pair end up in the same conversation.
+-- Group conversations (if any) keep NULLs, which never conflict.
+
+ALTER TABLE conversations
+    ADD COLUMN IF NOT EXISTS user_low  UUID REFERENCES users(id) ON DELETE CASCADE,
+    ADD COLUMN IF NOT EXISTS user_high UUID REFERENCES users(id) ON DELETE CASCADE;
+
+ALTER TABLE conversations
+    ADD CONSTRAINT ck_conversations_pair_order CHECK (user_low < user_high);
+
+-- Backfill two-person conversations; where earlier races created duplicates,
+-- the oldest one keeps the key.
+WITH pairs AS (
+    SELECT cp.conversation_id, min(cp.user_id::text)::uuid AS low, max(cp.user_id::text)::uuid AS high
+    FROM conversation_participants cp
+    GROUP BY cp.conversation_id
+    HAVING count(*) = 2
+), ranked AS (
+    SELECT p.*, row_number() OVER (PARTITION BY p.low, p.high ORDER BY c.created_at, c.id) AS rn
+    FROM pairs p
+    JOIN conversations c ON c.id = p.conversation_id
+)
+UPDATE conversations c
+SET user_low = LEAST(r.low, r.high), user_high = GREATEST(r.low, r.high)
+FROM ranked r
+WHERE r.conversation_id = c.id AND r.rn = 1;
+
+CREATE UNIQUE INDEX IF NOT EXISTS uq_conversations_pair ON conversations(user_low, user_high);
@@ -0,0 +1,19 @@
+-- V13__refresh_token_rotation.sql — refresh tokens are looked up by hash and rotated on use.
+-- Each refresh revokes the presented session and inserts its successor in the same family;
+-- presenting an already-revoked token revokes the whole family (reuse detection).
+
+ALTER TABLE auth_sessions
+    ADD COLUMN IF NOT EXISTS family_id UUID;
+
+UPDATE auth_sessions SET family_id = id WHERE family_id IS NULL;
+
+ALTER TABLE auth_sessions
+    ALTER COLUMN family_id SET DEFAULT gen_random_uuid(),
+    ALTER COLUMN family_id SET NOT NULL;
+
+-- one SHA-256 + one probe per refresh
+CREATE UNIQUE INDEX IF NOT EXISTS uq_auth_sessions_refresh_hash
+    ON auth_sessions(refresh_token_hash);
+
+CREATE INDEX IF NOT EXISTS idx_auth_sessions_family_live
+    ON auth_sessions(family_id) WHERE revoked_at IS NULL;
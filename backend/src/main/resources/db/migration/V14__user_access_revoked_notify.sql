@@ -0,0 +1,22 @@
+-- V14__user_access_revoked_notify.sql — revoke a user's access tokens on every backend node.
+-- TokenRevocations LISTENs on 'auth_revoked'; session families are announced by the
+-- application in the same statement that revokes them, user changes come from here.
+
+CREATE OR REPLACE FUNCTION notify_user_access_changed() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('auth_revoked', 'user:' || OLD.id::text);
+    ELSIF NEW.is_active IS DISTINCT FROM OLD.is_active THEN
+        IF NEW.is_active THEN
+            PERFORM pg_notify('auth_revoked', 'user-restored:' || NEW.id::text);
+        ELSE
+            PERFORM pg_notify('auth_revoked', 'user:' || NEW.id::text);
+        END IF;
+    END IF;
+    RETURN NULL;
+END; $$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS tr_users_access_notify ON users;
+CREATE TRIGGER tr_users_access_notify
+    AFTER UPDATE OF is_active OR DELETE ON users
+    FOR EACH ROW EXECUTE FUNCTION notify_user_access_changed();
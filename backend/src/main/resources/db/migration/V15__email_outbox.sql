@@ -0,0 +1,19 @@
+-- V15__email_outbox.sql — outgoing email is queued in the sender's transaction and
+-- delivered by EmailOutboxWorker, so requests never wait on SMTP and nothing is lost
+-- when a send fails.
+-- A row is due when next_attempt_at <= now(); claiming pushes it forward (a lease),
+-- success deletes it, failure reschedules it with backoff. Rows that ran out of
+-- attempts stay with next_attempt_at = 'infinity' for inspection.
+
+CREATE TABLE IF NOT EXISTS email_outbox (
+    id              UUID PRIMARY KEY DEFAULT gen_random_uuid(),
+    recipient       TEXT NOT NULL,
+    subject         TEXT NOT NULL,
+    body            TEXT NOT NULL,
+    created_at      TIMESTAMPTZ NOT NULL DEFAULT now(),
+    next_attempt_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+    attempts        INT NOT NULL DEFAULT 0,
+    last_error      TEXT
+);
+
+CREATE INDEX IF NOT EXISTS idx_email_outbox_due ON email_outbox(next_attempt_at);
@@ -0,0 +1,8 @@
+-- V16__user_changed_notify_profile.sql — 'user_changed' now also fires for the fields
+-- UserProfileCache serves (email, role, is_active), not only display_name.
+-- Same function as V8; only the trigger's column list changes.
+
+DROP TRIGGER IF EXISTS tr_users_notify ON users;
+CREATE TRIGGER tr_users_notify
+    AFTER UPDATE OF display_name, email, role, is_active OR DELETE ON users
+    FOR EACH ROW EXECUTE FUNCTION notify_user_changed();
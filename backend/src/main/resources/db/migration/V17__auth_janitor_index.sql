@@ -0,0 +1,5 @@
+-- V17__auth_janitor_index.sql — AuthJanitor walks revoked sessions by revoked_at.
+-- Live sessions (revoked_at IS NULL) are the majority and stay out of the index.
+
+CREATE INDEX IF NOT EXISTS idx_auth_sessions_revoked
+    ON auth_sessions(revoked_at) WHERE revoked_at IS NOT NULL;
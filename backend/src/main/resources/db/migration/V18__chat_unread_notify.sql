@@ -0,0 +1,32 @@
+-- V18__chat_unread_notify.sql — keep unread badges current on every backend node.
+-- ReadReceiptService LISTENs on 'chat_unread'. Stored messages and new participants
+-- are announced from here; reads are announced by the flush that writes them.
+-- The message payload carries the inserting transaction id so a node can tell whether
+-- a count it loaded (pg_current_snapshot()) already included the message.
+
+CREATE OR REPLACE FUNCTION notify_chat_message_unread() RETURNS trigger AS $$
+BEGIN
+    -- payload = msg:{conversation}:{sender}:{message}:{xid}; the message id keeps
+    -- notifications of one transaction distinct (identical payloads are folded)
+    PERFORM pg_notify('chat_unread', 'msg:' || NEW.conversation_id::text || ':' || NEW.sender_user_id::text
+        || ':' || NEW.id::text || ':' || pg_current_xact_id()::text);
+    RETURN NULL;
+END; $$ LANGUAGE plpgsql;
+
+-- Declared on the partitioned parent, so every partition gets it. Archive restores
+-- COPY into a detached table and ATTACH it, which fires nothing.
+DROP TRIGGER IF EXISTS tr_messages_unread_notify ON messages;
+CREATE TRIGGER tr_messages_unread_notify
+    AFTER INSERT ON messages
+    FOR EACH ROW EXECUTE FUNCTION notify_chat_message_unread();
+
+CREATE OR REPLACE FUNCTION notify_chat_participant_joined() RETURNS trigger AS $$
+BEGIN
+    PERFORM pg_notify('chat_unread', 'join:' || NEW.conversation_id::text || ':' || NEW.user_id::text);
+    RETURN NULL;
+END; $$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS tr_conversation_participants_unread_notify ON conversation_participants;
+CREATE TRIGGER tr_conversation_participants_unread_notify
+    AFTER INSERT ON conversation_participants
+    FOR EACH ROW EXECUTE FUNCTION notify_chat_participant_joined();
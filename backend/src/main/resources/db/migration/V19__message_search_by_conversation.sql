@@ -0,0 +1,11 @@
+-- V19__message_search_by_conversation.sql — search probes one conversation at a time.
+-- MessageSearchRepositoryImpl starts from the caller's conversation_participants rows;
+-- with conversation_id as the leading GIN column each probe only intersects that
+-- conversation's entries. The body-only index (V9) found matches across every user's
+-- messages first and is no longer used, so it stops costing every insert.
+CREATE EXTENSION IF NOT EXISTS btree_gin; -- uuid in a GIN index
+
+CREATE INDEX IF NOT EXISTS idx_messages_conversation_body_trgm
+    ON messages USING GIN (conversation_id, body gin_trgm_ops);
+
+DROP INDEX IF EXISTS idx_messages_body_trgm;
@@ -0,0 +1,7 @@
+-- V20__refresh_reuse_grace.sql — tell "rotated a moment ago" apart from "replayed".
+-- Two refreshes racing with the same token (two tabs, a client retry) are normal: the
+-- loser finds the token already rotated. replaced_at is set only by rotation, so a
+-- token replaced within the grace window is rejected without revoking its family.
+
+ALTER TABLE auth_sessions
+    ADD COLUMN IF NOT EXISTS replaced_at TIMESTAMPTZ;
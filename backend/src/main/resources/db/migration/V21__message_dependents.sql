@@ -0,0 +1,30 @@
+-- V21__message_dependents.sql — message_attachments, message_reads and reports lost their
+-- foreign keys to messages in V10 (a partitioned table's id alone is not unique). This
+-- puts the old ON DELETE behaviour back with a trigger, and lets MessageArchiver move
+-- attachments and reports out with their partition.
+
+CREATE INDEX IF NOT EXISTS idx_message_attachments_message ON message_attachments(message_id);
+CREATE INDEX IF NOT EXISTS idx_reports_message              ON reports(message_id) WHERE message_id IS NOT NULL;
+
+-- Statement level with a transition table: deleting a conversation (FK cascade) or a
+-- user's messages costs three set-based statements, not three per message.
+-- DROP / DETACH of a partition fires nothing; MessageArchiver handles those rows itself.
+CREATE OR REPLACE FUNCTION delete_message_dependents() RETURNS trigger AS $$
+BEGIN
+    DELETE FROM message_attachments a USING gone g WHERE a.message_id = g.id;
+    DELETE FROM message_reads r       USING gone g WHERE r.message_id = g.id;
+    UPDATE reports p SET message_id = NULL FROM gone g WHERE p.message_id = g.id;
+    RETURN NULL;
+END; $$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS tr_messages_delete_dependents ON messages;
+CREATE TRIGGER tr_messages_delete_dependents
+    AFTER DELETE ON messages
+    REFERENCING OLD TABLE AS gone
+    FOR EACH STATEMENT EXECUTE FUNCTION delete_message_dependents();
+
+-- Files of the attachments / reports exported with an archived month; NULL for months
+-- archived before this migration (their rows were never moved out).
+ALTER TABLE message_archives
+    ADD COLUMN IF NOT EXISTS attachments_file TEXT,
+    ADD COLUMN IF NOT EXISTS reports_file     TEXT;
@@ -0,0 +1,11 @@
+-- V3__media_gc.sql — indexes for the background media garbage collector
+-- (MediaGarbageCollector). Every reference to media_assets gets an index so the
+-- "is this asset still used?" anti-joins (and ON DELETE CASCADE) are index probes.
+
+CREATE INDEX IF NOT EXISTS idx_listing_images_media        ON listing_images(media_asset_id);
+CREATE INDEX IF NOT EXISTS idx_message_attachments_media   ON message_attachments(media_asset_id);
+CREATE INDEX IF NOT EXISTS idx_farmer_profiles_id_card     ON farmer_profiles(id_card_image_id)
+    WHERE id_card_image_id IS NOT NULL;
+
+-- Orphan-file scan looks files up by their public URL
+CREATE INDEX IF NOT EXISTS idx_media_url ON media_assets(url);
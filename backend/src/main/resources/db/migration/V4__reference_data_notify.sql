@@ -0,0 +1,30 @@
+-- V4__reference_data_notify.sql — push reference-data changes to every backend node.
+-- ReferenceDataService LISTENs on 'reference_data' and refreshes its in-memory copy.
+-- NOTIFY is delivered on commit, and duplicate payloads within one transaction collapse.
+
+CREATE OR REPLACE FUNCTION notify_categories_changed() RETURNS trigger AS $$
+BEGIN
+    PERFORM pg_notify('reference_data', 'categories');
+    RETURN NULL;
+END; $$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION notify_product_changed() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('reference_data', 'product:' || OLD.id::text);
+    ELSE
+        PERFORM pg_notify('reference_data', 'product:' || NEW.id::text);
+    END IF;
+    RETURN NULL;
+END; $$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS tr_categories_notify ON categories;
+CREATE TRIGGER tr_categories_notify
+    AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON categories
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_categories_changed();
+
+-- No INSERT event: a new product is simply loaded on its first cache miss
+DROP TRIGGER IF EXISTS tr_products_notify ON products;
+CREATE TRIGGER tr_products_notify
+    AFTER UPDATE OF name, category_id OR DELETE ON products
+    FOR EACH ROW EXECUTE FUNCTION notify_product_changed();
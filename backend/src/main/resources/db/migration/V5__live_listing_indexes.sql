@@ -0,0 +1,17 @@
+-- V5__live_listing_indexes.sql — keep the hot index set proportional to LIVE listings.
+-- Search and map always filter on "available" as literal SQL (ListingVisibility),
+-- so these partial indexes apply; ListingExpiryJob moves expired rows out of them.
+
+-- Replaced: a boolean index is never selective, and (available, expires_at)
+-- indexed every historical row.
+DROP INDEX IF EXISTS idx_listings_available;
+DROP INDEX IF EXISTS idx_listings_available_expires;
+
+CREATE INDEX IF NOT EXISTS idx_listings_live_created  ON listings(created_at DESC) WHERE available;
+CREATE INDEX IF NOT EXISTS idx_listings_live_price    ON listings(price_cents)     WHERE available;
+CREATE INDEX IF NOT EXISTS idx_listings_live_location ON listings USING GIST (location) WHERE available;
+
+-- Expiry sweep: only rows that can still expire
+CREATE INDEX IF NOT EXISTS idx_listings_live_expires
+    ON listings(expires_at)
+    WHERE available AND expires_at IS NOT NULL;
@@ -0,0 +1,27 @@
+-- V6__chat_inbox.sql — single-query paged inbox (ConversationInboxRepositoryImpl).
+
+-- Last activity per conversation, so a user's inbox is ordered from their own
+-- participant rows without touching messages.
+ALTER TABLE conversations ADD COLUMN IF NOT EXISTS last_message_at TIMESTAMPTZ;
+
+UPDATE conversations c
+SET last_message_at = m.max_created
+FROM (SELECT conversation_id, max(created_at) AS max_created FROM messages GROUP BY conversation_id) m
+WHERE m.conversation_id = c.id;
+
+CREATE OR REPLACE FUNCTION touch_conversation_last_message() RETURNS trigger AS $$
+BEGIN
+    UPDATE conversations
+    SET last_message_at = NEW.created_at
+    WHERE id = NEW.conversation_id
+      AND (last_message_at IS NULL OR last_message_at < NEW.created_at);
+    RETURN NULL;
+END; $$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS tr_messages_touch_conversation ON messages;
+CREATE TRIGGER tr_messages_touch_conversation
+    AFTER INSERT ON messages
+    FOR EACH ROW EXECUTE FUNCTION touch_conversation_last_message();
+
+-- Per-participant read watermark: everything up to this instant counts as read.
+ALTER TABLE conversation_participants ADD COLUMN IF NOT EXISTS last_read_at TIMESTAMPTZ;
@@ -0,0 +1,6 @@
+-- Keyset paging of a conversation's history on (created_at, id).
+-- The id column makes the row comparison (created_at, id) < (?, ?) a pure index range scan.
+CREATE INDEX IF NOT EXISTS idx_messages_conversation_created_id
+    ON messages(conversation_id, created_at, id);
+
+DROP INDEX IF EXISTS idx_messages_conversation_created;
@@ -0,0 +1,18 @@
+-- V8__user_changed_notify.sql — invalidate per-user caches on every backend node.
+-- DisplayNameCache LISTENs on 'user_changed' (payload = user id).
+
+CREATE OR REPLACE FUNCTION notify_user_changed() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('user_changed', OLD.id::text);
+    ELSE
+        PERFORM pg_notify('user_changed', NEW.id::text);
+    END IF;
+    RETURN NULL;
+END; $$ LANGUAGE plpgsql;
+
+-- No INSERT event: a new user is simply loaded on its first cache miss
+DROP TRIGGER IF EXISTS tr_users_notify ON users;
+CREATE TRIGGER tr_users_notify
+    AFTER UPDATE OF display_name OR DELETE ON users
+    FOR EACH ROW EXECUTE FUNCTION notify_user_changed();
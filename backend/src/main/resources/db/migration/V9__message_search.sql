@@ -0,0 +1,4 @@
+-- V9__message_search.sql — substring search over chat messages (/api/chat/search).
+-- Trigram GIN serves ILIKE '%term%'; matches are then semi-joined with the
+-- caller's conversation_participants rows, never with all messages.
+CREATE INDEX IF NOT EXISTS idx_messages_body_trgm ON messages USING GIN (body gin_trgm_ops);
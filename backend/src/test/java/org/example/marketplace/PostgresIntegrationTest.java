@@ -0,0 +1,54 @@
+package org.example.marketplace;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.UUID;
+
+/**
+ * Base for tests that need the real schema: one Postgres + PostGIS container
+ * per test run, migrated by Flyway on context start. Skipped without Docker.
+ */
+@SpringBootTest
+@Testcontainers(disabledWithoutDocker = true)
+public abstract class PostgresIntegrationTest {
+
+    // started once and shared by every subclass (and the cached Spring context)
+    protected static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>(
+            DockerImageName.parse("postgis/postgis:16-3.4").asCompatibleSubstituteFor("postgres"));
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        if (!POSTGRES.isRunning())
+            POSTGRES.start();
+        registry.add("spring.datasource.url", POSTGRES::getJdbcUrl);
+        registry.add("spring.datasource.username", POSTGRES::getUsername);
+        registry.add("spring.datasource.password", POSTGRES::getPassword);
+        registry.add("spring.jpa.show-sql", () -> "false");
+        registry.add("app.upload.dir", () -> System.getProperty("java.io.tmpdir") + "/marketplace-test-uploads");
+        registry.add("app.chat.archive.enabled", () -> "false");
+        registry.add("app.media.gc.enabled", () -> "false");
+        registry.add("app.auth.janitor.enabled", () -> "false");
+        // tests that need it build their own worker against a local SMTP server
+        registry.add("app.mail.outbox.enabled", () -> "false");
+    }
+
+    @Autowired
+    protected JdbcTemplate jdbc;
+
+    /** A fresh active user; tests share the database, so nothing is reused between them. */
+    protected UUID createUser() {
+        UUID id = UUID.randomUUID();
+        jdbc.update("""
+                INSERT INTO users (id, email, password_hash, display_name)
+                VALUES (?, ?, 'not-a-bcrypt-hash', ?)
+                """, id, id + "@test.local", "User " + id.toString().substring(0, 8));
+        return id;
+    }
+}
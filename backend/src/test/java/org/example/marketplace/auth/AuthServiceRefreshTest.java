@@ -0,0 +1,150 @@
+package org.example.marketplace.auth;
+
+import org.example.marketplace.PostgresIntegrationTest;
+import org.example.marketplace.auth.dto.LoginRequest;
+import org.example.marketplace.auth.dto.LoginResponse;
+import org.example.marketplace.auth.dto.RefreshRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AuthServiceRefreshTest extends PostgresIntegrationTest {
+
+    private static final String PASSWORD = "correct horse battery staple";
+    private static final String AGENT = "junit";
+    private static final String IP = "127.0.0.1";
+
+    @Autowired
+    private AuthService auth;
+
+    @Autowired
+    private PasswordHasher hasher;
+
+    @Test
+    void reusingARotatedTokenIsRejectedAndRevokesTheFamily() {
+        LoginResponse login = login(verifiedUser());
+        LoginResponse rotated = refresh(login.refreshToken());
+        // replayed well after the reuse grace window
+        jdbc.update("UPDATE auth_sessions SET replaced_at = now() - interval '1 hour' WHERE refresh_token_hash = ?",
+                TokenHashes.sha256Base64(login.refreshToken()));
+
+        assertUnauthorized(() -> refresh(login.refreshToken()));
+
+        UUID family = familyOf(login.refreshToken());
+        assertEquals(0, liveSessions(family));
+        // the successor went down with the family
+        assertUnauthorized(() -> refresh(rotated.refreshToken()));
+    }
+
+    @Test
+    void concurrentRefreshesWithTheSameTokenCreateOneSuccessor() throws Exception {
+        LoginResponse login = login(verifiedUser());
+        CyclicBarrier start = new CyclicBarrier(2);
+        Callable<LoginResponse> refresh = () -> {
+            start.await();
+            return refresh(login.refreshToken());
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        List<LoginResponse> succeeded = new ArrayList<>();
+        try {
+            for (Future<LoginResponse> f : pool.invokeAll(List.of(refresh, refresh), 30, TimeUnit.SECONDS)) {
+                try {
+                    succeeded.add(f.get());
+                } catch (ExecutionException e) {
+                    var rejected = assertInstanceOf(ResponseStatusException.class, e.getCause());
+                    assertEquals(HttpStatus.UNAUTHORIZED, rejected.getStatusCode());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(1, succeeded.size());
+        UUID family = familyOf(login.refreshToken());
+        Integer sessions = jdbc.queryForObject(
+                "SELECT count(*) FROM auth_sessions WHERE family_id = ?", Integer.class, family);
+        assertEquals(2, sessions); // the original + exactly one successor
+        // losing the race is not reuse: the winner stays logged in
+        assertEquals(1, liveSessions(family));
+        refresh(succeeded.get(0).refreshToken());
+    }
+
+    @Test
+    void tokenRotatedMomentsAgoIsRejectedWithoutRevokingTheFamily() {
+        LoginResponse login = login(verifiedUser());
+        LoginResponse rotated = refresh(login.refreshToken());
+
+        assertUnauthorized(() -> refresh(login.refreshToken()));
+
+        assertEquals(1, liveSessions(familyOf(login.refreshToken())));
+        refresh(rotated.refreshToken());
+    }
+
+    @Test
+    void disabledUserCannotRefresh() {
+        UUID userId = verifiedUser();
+        LoginResponse login = login(userId);
+        jdbc.update("UPDATE users SET is_active = false WHERE id = ?", userId);
+
+        assertUnauthorized(() -> refresh(login.refreshToken()));
+    }
+
+    @Test
+    void logoutRevokesTheFamily() {
+        LoginResponse login = login(verifiedUser());
+        LoginResponse rotated = refresh(login.refreshToken());
+
+        auth.logout(new RefreshRequest(rotated.refreshToken()));
+
+        assertEquals(0, liveSessions(familyOf(login.refreshToken())));
+        assertUnauthorized(() -> refresh(rotated.refreshToken()));
+    }
+
+    private UUID verifiedUser() {
+        UUID id = createUser();
+        jdbc.update("UPDATE users SET password_hash = ?, email_verified_at = now() WHERE id = ?",
+                hasher.encode(PASSWORD), id);
+        return id;
+    }
+
+    private LoginResponse login(UUID userId) {
+        return auth.login(new LoginRequest(userId + "@test.local", PASSWORD), AGENT, IP);
+    }
+
+    private LoginResponse refresh(String refreshToken) {
+        return auth.refresh(new RefreshRequest(refreshToken), AGENT, IP);
+    }
+
+    private UUID familyOf(String refreshToken) {
+        return jdbc.queryForObject("SELECT family_id FROM auth_sessions WHERE refresh_token_hash = ?",
+                UUID.class, TokenHashes.sha256Base64(refreshToken));
+    }
+
+    private int liveSessions(UUID familyId) {
+        Integer n = jdbc.queryForObject(
+                "SELECT count(*) FROM auth_sessions WHERE family_id = ? AND revoked_at IS NULL", Integer.class, familyId);
+        return n == null ? 0 : n;
+    }
+
+    private static void assertUnauthorized(Runnable call) {
+        var e = assertThrows(ResponseStatusException.class, call::run);
+        assertEquals(HttpStatus.UNAUTHORIZED, e.getStatusCode());
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.marketplace.auth;
+
+import jakarta.servlet.FilterChain;
+import org.example.marketplace.config.JwtAuthFilter;
+import org.example.marketplace.config.PgNotifications;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request cost of JwtAuthFilter with and without the verified-token cache.
+ * Not a unit test; run with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.example.marketplace.auth.JwtAuthFilterBenchmark}
+ * or straight from the IDE.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtAuthFilterBenchmark {
+
+    private JwtAuthFilter cached;
+    private JwtAuthFilter uncached;
+    private MockHttpServletRequest request;
+    private final FilterChain chain = (req, res) -> { };
+
+    @Setup
+    public void setup() {
+        JwtService withCache = new JwtService(10_000);
+        JwtService withoutCache = new JwtService(0);
+        // nothing revoked and never reloaded: measures the Bloom probe only
+        var revocations = new TokenRevocations(null, withCache, new PgNotifications(null, null), 10_000);
+        cached = new JwtAuthFilter(withCache, revocations);
+        uncached = new JwtAuthFilter(withoutCache, revocations);
+
+        String token = withCache.generateToken(
+                Map.of("email", "bench@example.org", "uid", UUID.randomUUID().toString(), "role", "USER",
+                        "sid", UUID.randomUUID().toString()),
+                "bench@example.org");
+
+        request = new MockHttpServletRequest("GET", "/api/listings");
+        request.setServletPath("/api/listings");
+        request.addHeader("Authorization", "Bearer " + token);
+    }
+
+    @Benchmark
+    public Object cachedToken() throws Exception {
+        return run(cached);
+    }
+
+    @Benchmark
+    public Object parseEveryRequest() throws Exception {
+        return run(uncached);
+    }
+
+    private Object run(JwtAuthFilter filter) throws Exception {
+        // OncePerRequestFilter marks the request; clear it so every invocation filters
+        request.clearAttributes();
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+        Object auth = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+        return auth;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JwtAuthFilterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.marketplace.auth;
+
+import org.example.marketplace.config.JwtAuthFilter;
+import org.example.marketplace.config.PgNotifications;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class JwtAuthFilterTest {
+
+    private final UUID user = UUID.randomUUID();
+    private final UUID session = UUID.randomUUID();
+
+    private JwtService jwt;
+    private TokenRevocations revocations;
+    private JwtAuthFilter filter;
+    private String token;
+
+    @BeforeEach
+    void setUp() {
+        jwt = new JwtService(100);
+        revocations = new TokenRevocations(null, jwt, new PgNotifications(null, null), 64);
+        filter = new JwtAuthFilter(jwt, revocations);
+        token = jwt.generateToken(
+                Map.of("email", "a@test.local", "uid", user.toString(), "role", "USER", "sid", session.toString()),
+                "a@test.local");
+    }
+
+    @AfterEach
+    void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void validTokenAuthenticates() throws Exception {
+        Authentication auth = filter(token);
+
+        assertNotNull(auth);
+        assertEquals(user, ((JwtPrincipal) auth.getPrincipal()).uid());
+    }
+
+    @Test
+    void revokedSessionStaysAnonymous() throws Exception {
+        filter(token); // verified and cached before the revocation arrives
+        SecurityContextHolder.clearContext();
+
+        revocations.onChange("session:" + session);
+
+        assertNull(filter(token));
+    }
+
+    @Test
+    void disabledUserStaysAnonymous() throws Exception {
+        revocations.onChange("user:" + user);
+
+        assertNull(filter(token));
+    }
+
+    private Authentication filter(String bearer) throws Exception {
+        var req = new MockHttpServletRequest("GET", "/api/notifications");
+        req.setServletPath("/api/notifications");
+        req.addHeader("Authorization", "Bearer " + bearer);
+        filter.doFilter(req, new MockHttpServletResponse(), new MockFilterChain());
+        return SecurityContextHolder.getContext().getAuthentication();
+    }
+}
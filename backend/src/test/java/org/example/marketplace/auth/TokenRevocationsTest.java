@@ -0,0 +1,86 @@
+package org.example.marketplace.auth;
+
+import org.example.marketplace.config.PgNotifications;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenRevocationsTest {
+
+    private TokenRevocations revocations;
+
+    @BeforeEach
+    void setUp() {
+        // never reloaded from the database: only onChange() feeds it
+        revocations = new TokenRevocations(null, new JwtService(0), new PgNotifications(null, null), 64);
+    }
+
+    @Test
+    void bloomFilterHasNoFalseNegatives() {
+        // far past capacity, where false positives pile up but misses must still be impossible
+        var bloom = new TokenRevocations.BloomFilter(1_000);
+        List<UUID> added = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            UUID id = UUID.randomUUID();
+            bloom.add(id);
+            added.add(id);
+        }
+        for (UUID id : added)
+            assertTrue(bloom.mightContain(id), id::toString);
+    }
+
+    @Test
+    void bloomFilterHasNoFalseNegativesUnderConcurrentAdds() {
+        var bloom = new TokenRevocations.BloomFilter(10_000);
+        List<UUID> added = IntStream.range(0, 20_000).mapToObj(i -> UUID.randomUUID()).toList();
+        added.parallelStream().forEach(bloom::add);
+        for (UUID id : added)
+            assertTrue(bloom.mightContain(id), id::toString);
+    }
+
+    @Test
+    void revokedSessionFamilyRevokesItsTokens() {
+        JwtPrincipal p = principal(UUID.randomUUID(), UUID.randomUUID());
+        assertFalse(revocations.isRevoked(p));
+
+        revocations.onChange("session:" + p.sid());
+
+        assertTrue(revocations.isRevoked(p));
+        // another session of the same user is unaffected
+        assertFalse(revocations.isRevoked(principal(p.uid(), UUID.randomUUID())));
+    }
+
+    @Test
+    void disabledUserRevokesAllTheirTokens() {
+        UUID user = UUID.randomUUID();
+        JwtPrincipal p = principal(user, UUID.randomUUID());
+
+        revocations.onChange("user:" + user);
+
+        assertTrue(revocations.isRevoked(p));
+        assertTrue(revocations.isRevoked(principal(user, UUID.randomUUID())));
+    }
+
+    @Test
+    void restoredUserIsNoLongerRevoked() {
+        UUID user = UUID.randomUUID();
+        JwtPrincipal p = principal(user, UUID.randomUUID());
+        revocations.onChange("user:" + user);
+        assertTrue(revocations.isRevoked(p));
+
+        revocations.onChange("user-restored:" + user);
+
+        assertFalse(revocations.isRevoked(p));
+    }
+
+    static JwtPrincipal principal(UUID uid, UUID sid) {
+        return new JwtPrincipal(uid + "@test.local", uid, "USER", sid);
+    }
+}
@@ -0,0 +1,76 @@
+package org.example.marketplace.chat.service;
+
+import org.example.marketplace.PostgresIntegrationTest;
+import org.junit.jupiter.api.RepeatedTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ChatServiceStartConversationTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private ChatService chat;
+
+    /** Both users open the chat at the same moment (from either side): one conversation, two participants. */
+    @RepeatedTest(5)
+    void concurrentStartsReturnTheSameConversation() throws Exception {
+        UUID a = createUser();
+        UUID b = createUser();
+        CyclicBarrier start = new CyclicBarrier(2);
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<UUID>> results = pool.invokeAll(List.<Callable<UUID>>of(
+                    () -> inRequest(() -> {
+                        start.await();
+                        return chat.startOrGetOneToOne(a, b).id();
+                    }),
+                    () -> inRequest(() -> {
+                        start.await();
+                        return chat.startOrGetOneToOne(b, a).id();
+                    })), 30, TimeUnit.SECONDS);
+
+            UUID first = results.get(0).get();
+            UUID second = results.get(1).get();
+            assertEquals(first, second);
+
+            Integer conversations = jdbc.queryForObject("""
+                    SELECT count(*) FROM conversations
+                    WHERE user_low = LEAST(CAST(? AS uuid), CAST(? AS uuid))
+                      AND user_high = GREATEST(CAST(? AS uuid), CAST(? AS uuid))
+                    """, Integer.class, a, b, a, b);
+            assertEquals(1, conversations);
+
+            List<UUID> participants = jdbc.queryForList(
+                    "SELECT user_id FROM conversation_participants WHERE conversation_id = ? ORDER BY user_id",
+                    UUID.class, first);
+            assertEquals(2, participants.size());
+            assertEquals(Set.of(a, b), Set.copyOf(participants));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Each start is its own HTTP request in production (DisplayNameLoader is request scoped). */
+    private static <T> T inRequest(Callable<T> call) throws Exception {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        try {
+            return call.call();
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+    }
+}
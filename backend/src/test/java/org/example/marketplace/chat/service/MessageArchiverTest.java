@@ -0,0 +1,130 @@
+package org.example.marketplace.chat.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.marketplace.PostgresIntegrationTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Runs its own archiver (the scheduled one is off in tests) with every month older than 24 archivable. */
+class MessageArchiverTest extends PostgresIntegrationTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void partitionsAreCreatedAhead() {
+        archiver().onReady();
+
+        YearMonth now = YearMonth.now(ZoneOffset.UTC);
+        for (int i = 0; i <= 3; i++)
+            assertTrue(tableExists(partition(now.plusMonths(i))), partition(now.plusMonths(i)));
+    }
+
+    @Test
+    void archiveMovesMessagesAndDependentsOutAndRestoreBringsThemBack() throws Exception {
+        YearMonth month = YearMonth.now(ZoneOffset.UTC).minusMonths(30);
+        String name = partition(month);
+        jdbc.queryForObject("SELECT ensure_message_partition(CAST(? AS date))::text", String.class,
+                month.atDay(1).toString());
+        try {
+            Message m = message(month.atDay(15).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli());
+            MessageArchiver archiver = archiver();
+
+            archiver.run();
+
+            assertFalse(tableExists(name), "partition dropped");
+            assertEquals(0, count("SELECT count(*) FROM message_reads WHERE message_id = ?", m.id()));
+            assertEquals(0, count("SELECT count(*) FROM message_attachments WHERE message_id = ?", m.id()));
+            assertEquals(0, count("SELECT count(*) FROM reports WHERE message_id = ?", m.id()));
+            Map<String, Object> archive = jdbc.queryForMap(
+                    "SELECT messages_file, reads_file, attachments_file, reports_file, message_count, read_count "
+                            + "FROM message_archives WHERE partition_name = ?", name);
+            assertEquals(1L, archive.get("message_count"));
+            assertEquals(1L, archive.get("read_count"));
+            for (String file : new String[]{"messages_file", "reads_file", "attachments_file", "reports_file"})
+                assertTrue(Files.exists(Path.of((String) archive.get(file))), file);
+
+            archiver.restore(name);
+
+            assertEquals(1, count("SELECT count(*) FROM messages WHERE id = ?", m.id()));
+            assertEquals(1, count("SELECT count(*) FROM message_reads WHERE message_id = ?", m.id()));
+            assertEquals(1, count("SELECT count(*) FROM message_attachments WHERE message_id = ?", m.id()));
+            assertEquals(1, count("SELECT count(*) FROM reports WHERE message_id = ?", m.id()));
+            assertNotNull(jdbc.queryForObject(
+                    "SELECT restored_at FROM message_archives WHERE partition_name = ?", Object.class, name));
+        } finally {
+            jdbc.execute("DROP TABLE IF EXISTS " + name);
+            jdbc.update("DELETE FROM message_archives WHERE partition_name = ?", name);
+        }
+    }
+
+    @Test
+    void deletingAConversationCleansUpItsMessagesDependents() {
+        archiver().onReady(); // current month's partition
+        Message m = message(System.currentTimeMillis());
+
+        jdbc.update("DELETE FROM conversations WHERE id = ?", m.conversationId());
+
+        assertEquals(0, count("SELECT count(*) FROM message_reads WHERE message_id = ?", m.id()));
+        assertEquals(0, count("SELECT count(*) FROM message_attachments WHERE message_id = ?", m.id()));
+        // reports outlive the message, as with the old ON DELETE SET NULL
+        assertNull(jdbc.queryForObject("SELECT message_id FROM reports WHERE id = ?", UUID.class, m.reportId()));
+    }
+
+    private record Message(UUID id, UUID conversationId, UUID reportId) {
+    }
+
+    /** A message with one read, one attachment and one report. */
+    private Message message(long createdAtMillis) {
+        UUID sender = createUser();
+        UUID reader = createUser();
+        UUID conversation = jdbc.queryForObject("INSERT INTO conversations DEFAULT VALUES RETURNING id", UUID.class);
+        jdbc.update("INSERT INTO conversation_participants (conversation_id, user_id) VALUES (?, ?), (?, ?)",
+                conversation, sender, conversation, reader);
+
+        UUID id = UUID.randomUUID();
+        jdbc.update("INSERT INTO messages (id, conversation_id, sender_user_id, body, created_at) VALUES (?, ?, ?, 'hi', ?)",
+                id, conversation, sender, new Timestamp(createdAtMillis));
+        jdbc.update("INSERT INTO message_reads (message_id, user_id) VALUES (?, ?)", id, reader);
+        UUID media = jdbc.queryForObject(
+                "INSERT INTO media_assets (owner_user_id, url) VALUES (?, '/uploads/test.png') RETURNING id",
+                UUID.class, sender);
+        jdbc.update("INSERT INTO message_attachments (message_id, media_asset_id) VALUES (?, ?)", id, media);
+        UUID report = jdbc.queryForObject("""
+                INSERT INTO reports (reporter_id, target_user_id, conversation_id, message_id, reason)
+                VALUES (?, ?, ?, ?, 'spam') RETURNING id
+                """, UUID.class, reader, sender, conversation, id);
+        return new Message(id, conversation, report);
+    }
+
+    private MessageArchiver archiver() {
+        return new MessageArchiver(jdbc, new SimpleMeterRegistry(), true, dir.toString(), 24, 3, 0);
+    }
+
+    private boolean tableExists(String name) {
+        return count("SELECT count(*) FROM pg_class WHERE relname = ? AND relkind = 'r'", name) == 1;
+    }
+
+    private int count(String sql, Object arg) {
+        Integer n = jdbc.queryForObject(sql, Integer.class, arg);
+        return n == null ? 0 : n;
+    }
+
+    private static String partition(YearMonth month) {
+        return "messages_p%04d_%02d".formatted(month.getYear(), month.getMonthValue());
+    }
+}
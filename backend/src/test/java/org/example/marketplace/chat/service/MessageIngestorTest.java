@@ -0,0 +1,168 @@
+package org.example.marketplace.chat.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.marketplace.chat.dto.MessageDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageIngestorTest {
+
+    private final JdbcTemplate jdbc = mock(JdbcTemplate.class);
+    private final PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+    private final List<MessageDTO> published = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> publishedOn = Collections.synchronizedList(new ArrayList<>());
+    private MessageIngestor ingestor;
+
+    private void start(ApplicationEventPublisher events) {
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        ingestor = new MessageIngestor(jdbc, txManager, events, new SimpleMeterRegistry(), 100, 50, 100);
+        ingestor.start();
+    }
+
+    private void start() {
+        start(event -> {
+            published.add(((MessageSentEvent) event).message());
+            publishedOn.add(Thread.currentThread().getName());
+        });
+    }
+
+    @AfterEach
+    void stop() {
+        if (ingestor != null)
+            ingestor.stop();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void messagesQueuedDuringACommitShareTheNextBatch() throws Exception {
+        CountDownLatch firstCommit = new CountDownLatch(1);
+        when(jdbc.batchUpdate(anyString(), anyList())).thenAnswer(inv -> {
+            firstCommit.await(5, TimeUnit.SECONDS);
+            return new int[((List<Object[]>) inv.getArgument(1)).size()];
+        });
+        start();
+        UUID conversation = UUID.randomUUID();
+
+        var first = ingestor.submit(conversation, UUID.randomUUID(), "m0");
+        waitUntil(() -> batchUpdateCalls() == 1); // the writer is inside the first commit
+        List<CompletableFuture<MessageDTO>> rest = new ArrayList<>();
+        for (int i = 1; i <= 3; i++)
+            rest.add(ingestor.submit(conversation, UUID.randomUUID(), "m" + i));
+        firstCommit.countDown();
+
+        assertEquals("m0", first.get(5, TimeUnit.SECONDS).body());
+        for (int i = 0; i < 3; i++)
+            assertEquals("m" + (i + 1), rest.get(i).get(5, TimeUnit.SECONDS).body());
+
+        ArgumentCaptor<List<Object[]>> batches = ArgumentCaptor.forClass(List.class);
+        verify(jdbc, times(2)).batchUpdate(anyString(), batches.capture());
+        assertEquals(List.of(1, 3), batches.getAllValues().stream().map(List::size).toList());
+
+        waitUntil(() -> published.size() == 4);
+        assertEquals(List.of("m0", "m1", "m2", "m3"), published.stream().map(MessageDTO::body).toList());
+        assertTrue(publishedOn.stream().allMatch("chat-fanout"::equals), publishedOn::toString);
+        // accept order is storage order
+        for (int i = 1; i < published.size(); i++)
+            assertTrue(published.get(i).createdAt().isAfter(published.get(i - 1).createdAt()));
+    }
+
+    @Test
+    void failedBatchIsRetriedOneByOneAndOnlyTheBadRowFails() throws Exception {
+        UUID bad = UUID.randomUUID();
+        CountDownLatch firstCommit = new CountDownLatch(1);
+        when(jdbc.batchUpdate(anyString(), anyList())).thenAnswer(inv -> {
+            if (firstCommit.getCount() > 0) {
+                firstCommit.await(5, TimeUnit.SECONDS);
+                return new int[]{1};
+            }
+            throw new DataIntegrityViolationException("conversation gone");
+        });
+        when(jdbc.update(anyString(), any(Object[].class))).thenAnswer(inv -> {
+            if (bad.equals(inv.getArgument(2)))
+                throw new DataIntegrityViolationException("conversation gone");
+            return 1;
+        });
+        start();
+
+        var warmUp = ingestor.submit(UUID.randomUUID(), UUID.randomUUID(), "first");
+        waitUntil(() -> batchUpdateCalls() == 1);
+        var ok1 = ingestor.submit(UUID.randomUUID(), UUID.randomUUID(), "ok1");
+        var failing = ingestor.submit(bad, UUID.randomUUID(), "lost");
+        var ok2 = ingestor.submit(UUID.randomUUID(), UUID.randomUUID(), "ok2");
+        firstCommit.countDown();
+
+        warmUp.get(5, TimeUnit.SECONDS);
+        assertEquals("ok1", ok1.get(5, TimeUnit.SECONDS).body());
+        assertEquals("ok2", ok2.get(5, TimeUnit.SECONDS).body());
+        var e = assertThrows(ExecutionException.class, () -> failing.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(DataIntegrityViolationException.class, e.getCause());
+
+        verify(jdbc, times(3)).update(anyString(), any(Object[].class));
+        waitUntil(() -> published.size() == 3);
+        assertEquals(List.of("first", "ok1", "ok2"), published.stream().map(MessageDTO::body).toList());
+    }
+
+    @Test
+    void slowListenersDoNotHoldUpCommits() throws Exception {
+        when(jdbc.batchUpdate(anyString(), anyList())).thenReturn(new int[]{1});
+        CountDownLatch listenerReleased = new CountDownLatch(1);
+        start(event -> {
+            try {
+                listenerReleased.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            // the first event blocks the fan-out thread; later batches still commit
+            for (int i = 0; i < 5; i++)
+                ingestor.submit(UUID.randomUUID(), UUID.randomUUID(), "m" + i).get(2, TimeUnit.SECONDS);
+        } finally {
+            listenerReleased.countDown();
+        }
+    }
+
+    private int batchUpdateCalls() {
+        return (int) mockingDetails(jdbc).getInvocations().stream()
+                .filter(i -> i.getMethod().getName().equals("batchUpdate"))
+                .count();
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline)
+                throw new AssertionError("Timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.example.marketplace.chat.service;
+
+import org.example.marketplace.PostgresIntegrationTest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/** Counters follow the V18 NOTIFY triggers, so assertions on them wait for delivery. */
+class ReadReceiptServiceTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private ReadReceiptService reads;
+
+    @BeforeEach
+    void partitions() {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        for (LocalDate day : new LocalDate[]{today, today.minusDays(60)})
+            jdbc.queryForObject("SELECT ensure_message_partition(CAST(? AS date))::text", String.class,
+                    day.withDayOfMonth(1).toString());
+    }
+
+    @Test
+    void firstReadWritesReceiptsOnlyForRecentMessages() {
+        UUID sender = createUser();
+        UUID reader = createUser();
+        UUID conversation = conversation(sender, reader);
+        UUID old = message(conversation, sender, Instant.now().minus(Duration.ofDays(60)));
+        UUID recent = message(conversation, sender, Instant.now().minusSeconds(60));
+
+        reads.markRead(reader, conversation, null);
+        reads.flush();
+
+        assertNotNull(jdbc.queryForObject(
+                "SELECT last_read_at FROM conversation_participants WHERE conversation_id = ? AND user_id = ?",
+                Object.class, conversation, reader));
+        assertEquals(1, receipts(recent, reader));
+        assertEquals(0, receipts(old, reader)); // before the receipt window: the watermark covers it
+    }
+
+    @Test
+    void countsFollowNewMessagesAndReads() throws Exception {
+        UUID sender = createUser();
+        UUID reader = createUser();
+        UUID conversation = conversation(sender, reader);
+        message(conversation, sender, Instant.now());
+        assertEquals(1, reads.unreadCounts(reader).total());
+
+        message(conversation, sender, Instant.now());
+        message(conversation, reader, Instant.now()); // own message
+        waitUntil(() -> reads.unreadCounts(reader).total() == 2);
+
+        reads.markRead(reader, conversation, null);
+        assertEquals(0, reads.unreadCounts(reader).total());
+        reads.flush();
+        assertEquals(0, reads.unreadCounts(reader).total());
+
+        message(conversation, sender, Instant.now());
+        waitUntil(() -> reads.unreadCounts(reader).total() == 1);
+    }
+
+    @Test
+    void loadsRacingNewMessagesNeitherMissNorDoubleCountThem() throws Exception {
+        UUID sender = createUser();
+        List<UUID> readers = new ArrayList<>();
+        for (int i = 0; i < 8; i++)
+            readers.add(createUser());
+        UUID conversation = conversation(sender, readers.toArray(UUID[]::new));
+        int messages = 40;
+
+        CyclicBarrier start = new CyclicBarrier(readers.size() + 1);
+        ExecutorService pool = Executors.newFixedThreadPool(readers.size() + 1);
+        try {
+            List<Future<?>> work = new ArrayList<>();
+            work.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < messages; i++)
+                    message(conversation, sender, Instant.now());
+                return null;
+            }));
+            for (UUID reader : readers) {
+                work.add(pool.submit(() -> {
+                    start.await();
+                    Thread.sleep((long) (Math.random() * 50)); // first lookups land mid-stream
+                    for (int i = 0; i < 20; i++)
+                        reads.unreadCounts(reader);
+                    return null;
+                }));
+            }
+            for (Future<?> f : work)
+                f.get(30, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (UUID reader : readers)
+            waitUntil(() -> reads.unreadCounts(reader).total() >= messages);
+        Thread.sleep(200); // a double count would show up as a late extra bump
+        for (UUID reader : readers)
+            assertEquals(messages, reads.unreadCounts(reader).total());
+    }
+
+    private UUID conversation(UUID sender, UUID... readers) {
+        UUID id = jdbc.queryForObject("INSERT INTO conversations DEFAULT VALUES RETURNING id", UUID.class);
+        jdbc.update("INSERT INTO conversation_participants (conversation_id, user_id) VALUES (?, ?)", id, sender);
+        for (UUID reader : readers)
+            jdbc.update("INSERT INTO conversation_participants (conversation_id, user_id) VALUES (?, ?)", id, reader);
+        return id;
+    }
+
+    private UUID message(UUID conversation, UUID sender, Instant at) {
+        UUID id = UUID.randomUUID();
+        jdbc.update("INSERT INTO messages (id, conversation_id, sender_user_id, body, created_at) VALUES (?, ?, ?, 'hi', ?)",
+                id, conversation, sender, Timestamp.from(at));
+        return id;
+    }
+
+    private int receipts(UUID messageId, UUID userId) {
+        Integer n = jdbc.queryForObject("SELECT count(*) FROM message_reads WHERE message_id = ? AND user_id = ?",
+                Integer.class, messageId, userId);
+        return n == null ? 0 : n;
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline)
+                throw new AssertionError("Timed out");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.example.marketplace.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedCacheTest {
+
+    @Test
+    void staysWithinItsBound() {
+        var cache = new BoundedCache<Integer, String>(3);
+        for (int i = 0; i < 10; i++)
+            cache.put(i, "v" + i);
+
+        assertEquals(3, IntStream.range(0, 10).filter(i -> cache.get(i) != null).count());
+        assertEquals("v9", cache.get(9)); // the newest entry is never the one dropped for itself
+    }
+
+    @Test
+    void replacingAKeyDoesNotEvictAnother() {
+        var cache = new BoundedCache<Integer, String>(2);
+        cache.put(1, "a");
+        cache.put(2, "b");
+
+        cache.put(2, "c");
+
+        assertEquals("a", cache.get(1));
+        assertEquals("c", cache.get(2));
+    }
+
+    @Test
+    void loadThatRacedAnInvalidationIsNotCached() {
+        var cache = new BoundedCache<String, String>(10);
+        long generation = cache.generation(); // load starts, reads the old value...
+        cache.invalidate("product");          // ...the change is announced meanwhile
+
+        assertFalse(cache.put("product", "old name", generation));
+        assertNull(cache.get("product"));
+
+        assertTrue(cache.put("product", "new name", cache.generation()));
+        assertEquals("new name", cache.get("product"));
+    }
+
+    @Test
+    void clearAlsoInvalidatesLoadsInFlight() {
+        var cache = new BoundedCache<String, String>(10);
+        long generation = cache.generation();
+        cache.clear();
+
+        assertFalse(cache.put("user", "stale", generation));
+        assertNull(cache.get("user"));
+    }
+}
@@ -0,0 +1,81 @@
+package org.example.marketplace.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request overhead of RateLimitFilter on a limited route, an unlimited one
+ * and a wildcard rule. Not a unit test; run the same way as JwtAuthFilterBenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimitFilterBenchmark {
+
+    private RateLimitFilter filter;
+    private MockHttpServletRequest login;
+    private MockHttpServletRequest search;
+    private MockHttpServletRequest listingUpdate;
+    private final FilterChain chain = (req, res) -> { };
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+
+    @Setup
+    public void setup() {
+        // huge capacity so the benchmark measures the accept path, not 429s
+        filter = new RateLimitFilter(List.of(
+                new RateLimitFilter.Rule("POST", "/api/auth/login", "ip", Integer.MAX_VALUE, Duration.ofSeconds(1)),
+                new RateLimitFilter.Rule("PUT", "/api/listings/**", "user", Integer.MAX_VALUE, Duration.ofSeconds(1))
+        ), 100_000, new SimpleMeterRegistry());
+
+        login = request("POST", "/api/auth/login");
+        search = request("GET", "/api/search/listings");
+        listingUpdate = request("PUT", "/api/listings/0b7c7f0e-5a57-4c2e-9d0f-6f1f3f4a0c11");
+    }
+
+    private static MockHttpServletRequest request(String method, String path) {
+        var r = new MockHttpServletRequest(method, path);
+        r.setServletPath(path);
+        r.setRemoteAddr("203.0.113.7");
+        return r;
+    }
+
+    @Benchmark
+    public void limitedLiteral() throws Exception {
+        run(login);
+    }
+
+    @Benchmark
+    public void unlimited() throws Exception {
+        run(search);
+    }
+
+    @Benchmark
+    public void limitedPattern() throws Exception {
+        run(listingUpdate);
+    }
+
+    private void run(MockHttpServletRequest request) throws Exception {
+        // OncePerRequestFilter marks the request; clear it so every invocation filters
+        request.clearAttributes();
+        filter.doFilter(request, response, chain);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RateLimitFilterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,118 @@
+package org.example.marketplace.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimitFilterTest {
+
+    private static final Duration MINUTE = Duration.ofMinutes(1);
+
+    @AfterEach
+    void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void emptyBucketAnswers429WithRetryAfter() throws Exception {
+        var filter = filter(new RateLimitFilter.Rule("POST", "/api/auth/login", "ip", 1, MINUTE));
+
+        assertEquals(200, call(filter, "POST", "/api/auth/login", "10.0.0.1", null).getStatus());
+        MockHttpServletResponse res = call(filter, "POST", "/api/auth/login", "10.0.0.1", null);
+
+        assertEquals(429, res.getStatus());
+        assertEquals("60", res.getHeader("Retry-After"));
+        assertTrue(res.getContentAsString().contains("Too many requests"));
+    }
+
+    @Test
+    void ruleOnlyAppliesToItsMethodAndPath() throws Exception {
+        var filter = filter(new RateLimitFilter.Rule("POST", "/api/listings/**", "ip", 1, MINUTE));
+
+        call(filter, "POST", "/api/listings/1", "10.0.0.1", null);
+
+        assertEquals(429, call(filter, "POST", "/api/listings/2", "10.0.0.1", null).getStatus());
+        assertEquals(200, call(filter, "GET", "/api/listings/2", "10.0.0.1", null).getStatus());
+        assertEquals(200, call(filter, "POST", "/api/orders", "10.0.0.1", null).getStatus());
+    }
+
+    @Test
+    void ipBucketsAreSeparate() throws Exception {
+        var filter = filter(new RateLimitFilter.Rule("POST", "/api/auth/login", "ip", 1, MINUTE));
+
+        call(filter, "POST", "/api/auth/login", "10.0.0.1", null);
+
+        assertEquals(200, call(filter, "POST", "/api/auth/login", "10.0.0.2", null).getStatus());
+        // a user key does not help on an ip rule
+        assertEquals(429, call(filter, "POST", "/api/auth/login", "10.0.0.1", "alice").getStatus());
+    }
+
+    @Test
+    void userBucketsAreSeparateAndFollowTheUserAcrossAddresses() throws Exception {
+        var filter = filter(new RateLimitFilter.Rule("POST", "/api/listings", "user", 1, MINUTE));
+
+        call(filter, "POST", "/api/listings", "10.0.0.1", "alice");
+
+        assertEquals(200, call(filter, "POST", "/api/listings", "10.0.0.1", "bob").getStatus());
+        assertEquals(429, call(filter, "POST", "/api/listings", "10.0.0.2", "alice").getStatus());
+    }
+
+    @Test
+    void anonymousRequestsFallBackToTheIpBucket() throws Exception {
+        var filter = filter(new RateLimitFilter.Rule("POST", "/api/listings", "user", 1, MINUTE));
+
+        call(filter, "POST", "/api/listings", "10.0.0.1", null);
+
+        assertEquals(429, call(filter, "POST", "/api/listings", "10.0.0.1", null).getStatus());
+        assertEquals(200, call(filter, "POST", "/api/listings", "10.0.0.2", null).getStatus());
+        // signing in moves the caller to their own bucket
+        assertEquals(200, call(filter, "POST", "/api/listings", "10.0.0.1", "alice").getStatus());
+    }
+
+    @Test
+    void bucketsStayWithinMaxKeysPerRule() throws Exception {
+        int maxKeys = 20;
+        var filter = new RateLimitFilter(
+                List.of(new RateLimitFilter.Rule("POST", "/api/auth/login", "ip", 1, MINUTE)),
+                maxKeys, new SimpleMeterRegistry());
+
+        // every address keeps an empty bucket, so nothing can be swept as refilled
+        for (int i = 0; i < 10 * maxKeys; i++) {
+            assertEquals(200, call(filter, "POST", "/api/auth/login", "10.0." + (i / 256) + "." + (i % 256), null).getStatus());
+            assertTrue(filter.bucketCount() <= maxKeys, "buckets: " + filter.bucketCount());
+        }
+    }
+
+    private static RateLimitFilter filter(RateLimitFilter.Rule rule) {
+        return new RateLimitFilter(List.of(rule), 1000, new SimpleMeterRegistry());
+    }
+
+    private static MockHttpServletResponse call(RateLimitFilter filter, String method, String path, String ip,
+            String user) throws Exception {
+        SecurityContextHolder.clearContext();
+        if (user != null)
+            SecurityContextHolder.getContext().setAuthentication(
+                    new UsernamePasswordAuthenticationToken(user, null, List.of()));
+        var req = new MockHttpServletRequest(method, path);
+        req.setServletPath(path);
+        req.setRemoteAddr(ip);
+        var res = new MockHttpServletResponse();
+        var chain = new MockFilterChain();
+        filter.doFilter(req, res, chain);
+        if (res.getStatus() == 429)
+            assertNull(chain.getRequest(), "a rejected request must not reach the controller");
+        return res;
+    }
+}
@@ -0,0 +1,129 @@
+package org.example.marketplace.emailverification;
+
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.mail.internet.MimeMessage;
+import org.example.marketplace.PostgresIntegrationTest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Runs the worker in-process against GreenMail; the scheduled one is off in tests. */
+class EmailOutboxWorkerTest extends PostgresIntegrationTest {
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BACKOFF_BASE_SECONDS = 30;
+    private static final long SMTP_TIMEOUT_MS = 2000;
+
+    @RegisterExtension
+    static final GreenMailExtension smtp = new GreenMailExtension(ServerSetupTest.SMTP.dynamicPort());
+
+    @BeforeEach
+    void emptyOutbox() {
+        jdbc.update("DELETE FROM email_outbox");
+    }
+
+    @Test
+    void deliveredRowIsDeleted() throws Exception {
+        UUID id = enqueue("Verify your email");
+
+        assertEquals(1, worker(smtp.getSmtp().getPort()).deliverBatch());
+
+        MimeMessage[] received = smtp.getReceivedMessages();
+        assertEquals(1, received.length);
+        assertEquals("Verify your email", received[0].getSubject());
+        assertEquals(0, rows(id));
+    }
+
+    @Test
+    void failedRowIsRescheduledWithBackoff() throws Exception {
+        UUID id = enqueue("Reset your password");
+
+        assertEquals(0, worker(deadPort()).deliverBatch());
+
+        Map<String, Object> row = jdbc.queryForMap(
+                "SELECT attempts, last_error, next_attempt_at - now() > make_interval(secs => ?) AS backed_off "
+                        + "FROM email_outbox WHERE id = ?", BACKOFF_BASE_SECONDS - 5, id);
+        assertEquals(1, row.get("attempts"));
+        assertNotNull(row.get("last_error"));
+        assertEquals(true, row.get("backed_off"));
+        assertEquals(0, smtp.getReceivedMessages().length);
+    }
+
+    @Test
+    void rowIsParkedAfterMaxAttempts() throws Exception {
+        UUID id = enqueue("Reset your password");
+        // due again, with one attempt left
+        jdbc.update("UPDATE email_outbox SET attempts = ? WHERE id = ?", MAX_ATTEMPTS - 1, id);
+
+        assertEquals(0, worker(deadPort()).deliverBatch());
+
+        Map<String, Object> row = jdbc.queryForMap(
+                "SELECT attempts, next_attempt_at = 'infinity'::timestamptz AS parked FROM email_outbox WHERE id = ?", id);
+        assertEquals(MAX_ATTEMPTS, row.get("attempts"));
+        assertEquals(true, row.get("parked"));
+        // a parked row is never claimed again
+        assertEquals(0, worker(smtp.getSmtp().getPort()).deliverBatch());
+        assertEquals(1, rows(id));
+    }
+
+    @Test
+    void leaseOutlastsTheSlowestBatch() {
+        // connect once, then a read and a write timeout for each of the 10 messages
+        long worstBatchSeconds = (SMTP_TIMEOUT_MS + 10 * 2 * SMTP_TIMEOUT_MS) / 1000;
+        assertTrue(worker(smtp.getSmtp().getPort(), 5).leaseSeconds() > worstBatchSeconds);
+        // a longer configured lease is kept
+        assertEquals(600, worker(smtp.getSmtp().getPort(), 600).leaseSeconds());
+    }
+
+    private EmailOutboxWorker worker(int smtpPort) {
+        return worker(smtpPort, 120);
+    }
+
+    private EmailOutboxWorker worker(int smtpPort, long leaseSeconds) {
+        var mail = new JavaMailSenderImpl();
+        mail.setHost("127.0.0.1");
+        mail.setPort(smtpPort);
+        mail.getJavaMailProperties().put("mail.smtp.connectiontimeout", String.valueOf(SMTP_TIMEOUT_MS));
+        mail.getJavaMailProperties().put("mail.smtp.timeout", String.valueOf(SMTP_TIMEOUT_MS));
+        mail.getJavaMailProperties().put("mail.smtp.writetimeout", String.valueOf(SMTP_TIMEOUT_MS));
+        return new EmailOutboxWorker(jdbc, mail, new SimpleMeterRegistry(),
+                10, MAX_ATTEMPTS, leaseSeconds, BACKOFF_BASE_SECONDS, 3600,
+                SMTP_TIMEOUT_MS, SMTP_TIMEOUT_MS, SMTP_TIMEOUT_MS);
+    }
+
+    private UUID enqueue(String subject) {
+        UUID id = UUID.randomUUID();
+        jdbc.update("""
+                INSERT INTO email_outbox (id, recipient, subject, body, next_attempt_at)
+                VALUES (?, 'someone@test.local', ?, 'body', ?)
+                """, id, subject, new Timestamp(System.currentTimeMillis() - 1000));
+        return id;
+    }
+
+    private int rows(UUID id) {
+        Integer n = jdbc.queryForObject("SELECT count(*) FROM email_outbox WHERE id = ?", Integer.class, id);
+        return n == null ? 0 : n;
+    }
+
+    /** A local port nothing listens on: connection refused, the same as an SMTP outage. */
+    private static int deadPort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            int port = socket.getLocalPort();
+            assertTrue(port > 0);
+            return port;
+        }
+    }
+}
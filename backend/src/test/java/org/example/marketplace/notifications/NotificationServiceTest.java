@@ -0,0 +1,72 @@
+package org.example.marketplace.notifications;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.marketplace.chat.service.ChatHub;
+import org.example.marketplace.config.PgNotifications;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class NotificationServiceTest {
+
+    private final JdbcTemplate jdbc = mock(JdbcTemplate.class);
+    private final ChatHub hub = mock(ChatHub.class);
+    private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+    private NotificationService service;
+
+    @BeforeEach
+    void setUp() {
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(jdbc.queryForObject(eq("SELECT pg_current_xact_id()::text"), eq(String.class))).thenReturn("100");
+        service = new NotificationService(jdbc, txManager, new ObjectMapper(), hub, mock(PgNotifications.class),
+                meters, 100, 10, 30);
+    }
+
+    @Test
+    void failedFlushIsRetriedByTheNextOne() {
+        when(jdbc.batchUpdate(anyString(), anyList()))
+                .thenThrow(new QueryTimeoutException("database away"))
+                .thenReturn(new int[]{1});
+        UUID user = UUID.randomUUID();
+        service.notify(user, NotificationType.CHAT, Map.of());
+
+        service.flush();
+        verify(hub, never()).publishToUser(any(), anyString(), any());
+
+        service.flush();
+        verify(hub).publishToUser(eq(user), eq("notification"), any());
+        assertEquals(1, meters.counter("notifications.written").count());
+        assertEquals(0, meters.counter("notifications.dropped").count());
+    }
+
+    @Test
+    void rowsAreDroppedAfterTheLastAttempt() {
+        when(jdbc.batchUpdate(anyString(), anyList())).thenThrow(new QueryTimeoutException("database away"));
+        service.notify(UUID.randomUUID(), NotificationType.CHAT, Map.of());
+
+        for (int i = 0; i < 5; i++)
+            service.flush();
+
+        verify(jdbc, times(3)).batchUpdate(anyString(), anyList());
+        assertEquals(1, meters.counter("notifications.dropped").count());
+    }
+}
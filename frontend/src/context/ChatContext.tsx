@@ -129,7 +129,7 @@ export const ChatProvider = ({ children }: { children: ReactNode }) => {
   const loadMessages = useCallback(async (id: UUID) => {
     setLoading(true);
     try {
-      const data = await chatApi.getMessages(id, 0, 50);
+      const data = await chatApi.getMessages(id, { size: 50 });
       setMessages((prev) => ({ ...prev, [id]: data }));
     } catch (error) {
       console.error('Failed to load messages for conversation:', id, error);
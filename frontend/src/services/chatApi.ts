@@ -66,17 +66,26 @@ export function sendMessage(payload: SendMessageRequest) {
 }
 
 
-export function getMessages(conversationId: UUID, page = 0, size = 50) {
+/**
+ * Keyset history in chronological order: newest page by default,
+ * `before` = older than that message id, `after` = newer than that message id.
+ */
+export function getMessages(
+  conversationId: UUID,
+  opts: { before?: UUID; after?: UUID; size?: number } = {}
+) {
+  const { before, after, size = 50 } = opts;
   return api
     .get<MessageDTO[]>('/chat/messages', {
-      params: { conversationId, page, size }
+      params: { conversationId, before, after, size }
     })
     .then(response => response.data)
     .catch((error) => {
       console.error('Chat API error (getMessages):', {
         url: '/chat/messages',
         conversationId,
-        page,
+        before,
+        after,
         size,
         status: error?.response?.status,
         statusText: error?.response?.statusText,
@@ -86,3 +95,13 @@ export function getMessages(conversationId: UUID, page = 0, size = 50) {
       throw error;
     });
 }
+
+export function markRead(conversationId: UUID, messageId?: UUID) {
+  return api.post<void>('/chat/read', { conversationId, messageId });
+}
+
+export function getUnreadCounts() {
+  return api
+    .get<{ total: number; conversations: Record<UUID, number> }>('/chat/unread')
+    .then(response => response.data);
+}